@@ -65,6 +65,27 @@ LW.restErrHandler = function(error, reason)
 	alert(reason);
 };
 
+// HTTP 错误状态：413/429/503 等应答体仍是 {error, reason}（429/503 带 Retry-After），按业务错误交给处理器；其余视为网络错误
+LW.restFail = function (jqXHR, textStatus, errHandler)
+{
+	var ans = jqXHR.responseJSON;
+	if(ans && ans.error)
+	{
+		var reason = ans.reason;
+		var wait = jqXHR.getResponseHeader("Retry-After");
+		if(wait) reason += "（" + wait + " 秒后可重试）";
+		if(errHandler != null)
+			errHandler( ans.error, reason);
+		else
+			LW.restErrHandler (ans.error, reason);
+		return;
+	}
+	if(errHandler != null)
+		errHandler( -1, "网络错误: " + textStatus);
+	else
+		console.log("网络错误: " + textStatus);
+}
+
 // serviceUri 服务名, req 请求参象 , okHandler 应答数据处理函数
 // errorHandler 处理处理器, 可以为null
 LW.rest = function (serviceUri, req, okHandler, errHandler)
@@ -93,14 +114,60 @@ LW.rest = function (serviceUri, req, okHandler, errHandler)
 		},
 		//LW.rest('AddStudent',req,function(data){},function(){})
 		error: function( jqXHR, textStatus, errorThrown){
-			if(errHandler != null)
-				errHandler( -1, "网络错误: " + textStatus);
-			else
-				console.log("网络错误: " + textStatus);
+			LW.restFail(jqXHR, textStatus, errHandler);
 		}
 	});	
 }
 
+// GET 方式调用（参数放在 URL 查询字符串中），应答格式与 LW.rest 相同
+// 服务端返回 ETag 时浏览器会自动带 If-None-Match 协商，未变化时直接使用本地缓存
+LW.restGet = function (serviceUri, okHandler, errHandler)
+{
+	jQuery.ajax({
+		url: serviceUri,
+		method: "GET",
+		dataType: 'json',
+		success: function(ans){
+			if(ans.error != 0)
+			{
+				if(errHandler != null)
+					errHandler( ans.error, ans.reason);
+				else
+					LW.restErrHandler (ans.error, ans.reason);
+			}
+			else
+			{
+				okHandler(ans.data);
+			}
+		},
+		error: function( jqXHR, textStatus, errorThrown){
+			LW.restFail(jqXHR, textStatus, errHandler);
+		}
+	});
+}
+
+// 订阅座位变化推送（SSE，api/seats）；handler(data, full) 在收到快照（full=true）或增量时调用
+// 浏览器不支持 EventSource 时返回 null，调用方自行退回轮询；断线后浏览器自动重连并重新收到快照
+LW.seats = function (handler)
+{
+	if(!window.EventSource) return null;
+	var es=new EventSource('api/seats');
+	es.addEventListener('snapshot', function(ev){ handler(JSON.parse(ev.data), true); });
+	es.addEventListener('seats', function(ev){ handler(JSON.parse(ev.data), false); });
+	return es;
+}
+// 把座位事件合并进课程数组（更新 enrolled/capacity/waitlist，移除已删除的课程）
+// 返回 true 表示事件里有本地没有的课程（新发布的课程），调用方应重新拉取课程列表
+LW.applySeats = function (list, data)
+{
+	var byId={}, gone={}, unknown=false;
+	list.forEach(function(c){ byId[c.id]=c; });
+	(data.deleted||[]).forEach(function(id){ gone[id]=true; });
+	(data.courses||[]).forEach(function(s){ var c=byId[s.id]; if(!c){ unknown=true; return; } c.enrolled=s.enrolled; c.capacity=s.capacity; c.waitlist=s.waitlist; });
+	for(var i=list.length-1;i>=0;i--) if(gone[list[i].id]) list.splice(i,1);
+	return unknown;
+}
+
 /* JSONP 调用 */
 LW.jsonp = function(URI, req, resultHanlder)
 {
@@ -3,14 +3,19 @@ package com.training.dao;
 import java.util.List;
 import java.util.Map;
 
+import com.training.db.Db.LogEntry;
+
 /**
  * 管理员数据访问接口
  * - 职责：系统统计、日志记录/查询、示例数据初始化
  * - 典型方法：
- *   - stats()：返回用户数/课程数/选课总数等统计
+ *   - stats()：返回用户数/课程数/选课总数/丢弃日志数等统计
  *   - log(text)：记录系统操作日志
- *   - getLogs()：查询日志（简单字符串列表）
+ *   - getLogs(cursor, limit, from, to, op, userId, courseId)：按游标分页、按时间范围与条件过滤查询结构化日志
+ *   - open(dataDir, logRetentionDays, logMaxMB)：打开数据目录（日志持久化为段文件，按保留天数与总大小清理）
+ *   - snapshot()：立即写一次全量快照（缩短下次启动的日志重放）
  *   - seed()：初始化示例数据（用户/课程/选课/成绩）
+ *   - shutdown()：停止数据层后台任务（容器关闭时调用）
  * - 说明：Web 层通过 `DaoFactory.admin()` 获取实现，默认委托内存 `Db`
  */
 public interface AdminDao {
@@ -22,10 +27,35 @@ public interface AdminDao {
      * @param text 日志文本
      */
     void log(String text);
-    /** 查询日志列表
-     * @return 日志字符串列表
+    /** 按游标查询日志（序号升序）
+     * @param cursor 只返回序号大于 cursor 的条目；小于 0 表示返回最近的 limit 条
+     * @param limit 最多返回条数（<=0 使用默认值）
+     * @param from 起始时间戳（毫秒，含；null 表示不限）
+     * @param to 结束时间戳（毫秒，含；null 表示不限）
+     * @param op 操作码过滤（null 表示不限）
+     * @param userId 用户过滤（null 表示不限）
+     * @param courseId 课程过滤（null 表示不限）
+     * @return 日志条目列表
+     * @throws java.io.IOException 日志段读取失败
+     */
+    List<LogEntry> getLogs(long cursor,int limit,Long from,Long to,String op,String userId,String courseId) throws java.io.IOException;
+    /** 当前最新日志序号 */
+    long lastLogSeq();
+    /** 打开数据目录（在 seed 之前调用）
+     * @param dataDir 数据目录
+     * @param logRetentionDays 操作日志保留天数（<=0 使用默认值）
+     * @param logMaxMB 操作日志总大小上限（MB，<=0 使用默认值）
+     * @throws java.io.IOException 目录不可用
+     */
+    void open(java.io.File dataDir,int logRetentionDays,int logMaxMB) throws java.io.IOException;
+    /** 立即写一次全量快照，并截断已被快照覆盖的预写日志
+     * @return 快照覆盖到的 LSN
+     * @throws java.io.IOException 写入失败
+     * @throws IllegalStateException 未打开数据目录
      */
-    java.util.List<String> getLogs();
+    long snapshot() throws java.io.IOException;
     /** 初始化示例数据（用户/课程/选课/成绩） */
     void seed();
+    /** 停止数据层后台任务（容器关闭/重新部署时调用） */
+    void shutdown();
 }
\ No newline at end of file
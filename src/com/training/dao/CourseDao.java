@@ -1,6 +1,7 @@
 package com.training.dao;
 
 import java.util.List;
+import com.training.db.Db;
 import com.training.db.Db.Course;
 import com.training.db.Db.TimeSlot;
 
@@ -9,11 +10,12 @@ import com.training.db.Db.TimeSlot;
  * - 职责：课程的增删改查、过滤与推荐
  * - 典型方法：
  *   - addCourse(name, credit, capacity, times)：新增课程
+ *   - addCourses(drafts)：批量新增课程（导入用）
  *   - updateCourse(id, ...)：更新课程支持部分字段
  *   - deleteCourse(id)：删除课程
- *   - listCourses()：课程列表
- *   - filterCourses(minCredit?, maxCredit?, day?)：按学分范围/星期过滤
- *   - recommend(userId)：根据选课热度与个人已选做推荐
+ *   - listCourses()：课程列表；catalogVersion()：课程目录版本（列表内容变化时增大）；catalogSince(version)：按版本取增量
+ *   - filterCourses(minCredit?, maxCredit?, day?[, hour?, freeDay?, freeHour?, seatsLeft])：按学分范围/星期/小时、空闲时段与是否有空位过滤
+ *   - recommend(userId[, limit])：根据课程共选关系、选课热度与个人已选做推荐
  * - 说明：Web 层通过 `DaoFactory.course()` 获取实现，默认委托内存 `Db`
  */
 public interface CourseDao {
@@ -25,6 +27,11 @@ public interface CourseDao {
      * @return 创建的课程
      */
     Course addCourse(String name, int credit, int capacity, java.util.List<TimeSlot> times);
+    /** 批量新增课程
+     * @param drafts 待新增课程（id 忽略，由数据层分配并写回）
+     * @return 已分配 id 的课程列表
+     */
+    java.util.List<Course> addCourses(java.util.List<Course> drafts);
     /** 更新课程（字段为 null 表示不修改）
      * @param id 课程ID
      * @param name 课程名（可选）
@@ -43,6 +50,20 @@ public interface CourseDao {
      * @return 课程列表
      */
     java.util.List<Course> listCourses();
+    /** 课程目录版本（课程增删改或座位数变化时增大）
+     * @return 当前版本；版本不变时 listCourses 的内容不变
+     */
+    long catalogVersion();
+    /** 课程目录增量
+     * @param sinceVersion 客户端已同步到的版本
+     * @return 该版本之后变化/删除的课程；版本过旧时为全量（full=true）
+     */
+    Db.CatalogDelta catalogSince(long sinceVersion);
+    /** 课程当前候补人数
+     * @param courseId 课程ID
+     * @return 候补人数（无候补返回 0）
+     */
+    int waitlistLength(String courseId);
     /** 按条件过滤课程
      * @param minCredit 最小学分（可选）
      * @param maxCredit 最大学分（可选）
@@ -50,10 +71,27 @@ public interface CourseDao {
      * @return 满足条件的课程列表
      */
     java.util.List<Course> filterCourses(Integer minCredit, Integer maxCredit, String day);
+    /** 按条件过滤课程（条件均可选，同时给出时取交集）
+     * @param minCredit 最小学分（可选）
+     * @param maxCredit 最大学分（可选）
+     * @param day 有课的星期（可选）
+     * @param hour 与 day 搭配：该天这一小时有课（可选，0..23）
+     * @param freeDay 空闲的星期：该天没有课（可选）
+     * @param freeHour 与 freeDay 搭配：只要求这一小时空闲（可选，0..23）
+     * @param seatsLeft 为 true 时只返回尚有空位的课程
+     * @return 满足条件的课程列表
+     */
+    java.util.List<Course> filterCourses(Integer minCredit, Integer maxCredit, String day, Integer hour, String freeDay, Integer freeHour, boolean seatsLeft);
     /** 推荐课程
-     * 排除已选，按“热度”降序
+     * 排除已选与时间冲突，共选邻居优先，不足时按“热度”降序补齐
      * @param userId 学生ID
      * @return 推荐课程列表
      */
     java.util.List<Course> recommend(String userId);
+    /** 推荐课程（取前 N 条）
+     * @param userId 学生ID
+     * @param limit 最多返回条数；&lt;=0 表示不限
+     * @return 推荐课程列表
+     */
+    java.util.List<Course> recommend(String userId, int limit);
 }
\ No newline at end of file
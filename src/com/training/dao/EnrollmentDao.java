@@ -8,18 +8,27 @@ import com.training.db.Db.Enrollment;
  * - 职责：发起选课、退课、查询我的选课、课表映射
  * - 典型方法：
  *   - enroll(userId, courseId)：选课（返回 enrolled/waitlist/conflict）
+ *   - enrollBatch(userId, courseIds, atomic)：一次提交多门课程，逐门返回结果；可选全部成功才提交
  *   - drop(userId, courseId)：退课并可能触发候补转正
  *   - listUserEnrollments(userId)：我的选课记录
  *   - calendar(userId)：将选课映射为课表事件（title/day/start/end）
+ *   - waitlistStatus(userId)：我的候补课程及当前排名
  * - 说明：Web 层通过 `DaoFactory.enrollment()` 获取实现，默认委托内存 `Db`
  */
 public interface EnrollmentDao {
     /** 选课
      * @param userId 学生ID
      * @param courseId 课程ID
-     * @return Enrollment（status=enrolled/waitlist/conflict）；课程不存在返回 null
+     * @return Enrollment（status=enrolled/waitlist/conflict；选课期间课程被删除时为 aborted）；课程不存在返回 null
      */
     Enrollment enroll(String userId, String courseId);
+    /** 批量选课（同一次用户级互斥内完成冲突检测与写入）
+     * @param userId 学生ID
+     * @param courseIds 课程ID列表（重复ID只处理一次）
+     * @param atomic true 表示只有全部课程都能直接选上才写入，否则不写入任何记录
+     * @return 与去重后的课程ID一一对应的记录（enrolled/waitlist/conflict，atomic 失败时为 full/aborted）；课程不存在的位置 status=not_found
+     */
+    List<Enrollment> enrollBatch(String userId, List<String> courseIds, boolean atomic);
     /** 退课
      * @param userId 学生ID
      * @param courseId 课程ID
@@ -38,4 +47,9 @@ public interface EnrollmentDao {
      * @return 事件列表：title/day/start/end
      */
     java.util.List<java.util.Map<String,Object>> calendar(String userId);
+    /** 我的候补排名
+     * @param userId 学生ID
+     * @return 每门候补课程：courseId/name/position/length
+     */
+    java.util.List<java.util.Map<String,Object>> waitlistStatus(String userId);
 }
\ No newline at end of file
@@ -8,7 +8,9 @@ import com.training.db.Db.Grade;
  * - 职责：设置与查询学生成绩
  * - 典型方法：
  *   - setGrade(userId, courseId, score)：设置分数
+ *   - setGrades(rows)：批量写入成绩（按用户分组，同一课程替换已有成绩）
  *   - getGrades(userId)：查询某学生的全部成绩（可能为空）
+ *   - forEachGrade(courseId?, action)：逐条遍历成绩（导出用，内存占用与总行数无关）
  * - 说明：Web 层通过 `DaoFactory.grade()` 获取实现，默认委托内存 `Db`
  */
 public interface GradeDao {
@@ -18,9 +20,19 @@ public interface GradeDao {
      * @param score 分数
      */
     void setGrade(String userId, String courseId, double score);
+    /** 批量写入成绩
+     * @param rows 成绩行（userId/courseId/score）
+     * @return 与 rows 一一对应的结果：applied/clamped/unknown_user/unknown_course
+     */
+    java.util.List<String> setGrades(java.util.List<Grade> rows);
     /** 查询学生成绩
      * @param userId 学生ID
      * @return 成绩列表（可能为空）
      */
     java.util.List<com.training.db.Db.Grade> getGrades(String userId);
+    /** 逐条遍历成绩
+     * @param courseId 课程ID；null 表示全部课程
+     * @param action 对每条成绩调用
+     */
+    void forEachGrade(String courseId, java.util.function.Consumer<Grade> action);
 }
\ No newline at end of file
@@ -7,7 +7,7 @@ import com.training.db.Db.User;
  * - 职责：用户的基础增删改查与认证
  * - 典型方法：
  *   - addUser(username, password, role, email)：新增用户
- *   - findByName(username)：按用户名查询用户
+ *   - findByName(username[, ignoreCase])：按用户名查询用户（索引查找）
  *   - resetPassword(username, newPwd)：重置密码
  *   - auth(username, password)：认证登录并返回用户
  * - 说明：Web 层通过 `DaoFactory.user()` 获取实现，默认委托内存 `Db`
@@ -18,7 +18,7 @@ public interface UserDao {
      * @param password 密码
      * @param role 角色：student/admin
      * @param email 邮箱
-     * @return 创建的用户对象
+     * @return 创建的用户对象；用户名已存在返回 null
      */
     User addUser(String username, String password, String role, String email);
     /** 按用户名查询
@@ -26,6 +26,12 @@ public interface UserDao {
      * @return 用户对象或 null
      */
     User findByName(String username);
+    /** 按用户名查询，可选忽略大小写
+     * @param username 用户名
+     * @param ignoreCase 是否忽略大小写
+     * @return 用户对象或 null
+     */
+    User findByName(String username, boolean ignoreCase);
     /** 重置密码
      * @param username 用户名
      * @param newPwd 新密码
@@ -4,6 +4,7 @@ import java.util.List;
 import java.util.Map;
 import com.training.dao.AdminDao;
 import com.training.db.Db;
+import com.training.db.Db.LogEntry;
 
 /**
  * AdminDao 的内存实现
@@ -24,14 +25,28 @@ public class InMemoryAdminDao implements AdminDao {
     @Override public void log(String text){
         Db.log(text);
     }
-    /** 查询日志列表（委托 Db.getLogs）
-     * @return 日志字符串列表
-     */
-    @Override public java.util.List<String> getLogs(){
-        return Db.getLogs();
+    /** 按游标查询日志（委托 Db.getLogs） */
+    @Override public List<LogEntry> getLogs(long cursor,int limit,Long from,Long to,String op,String userId,String courseId) throws java.io.IOException {
+        return Db.getLogs(cursor,limit,from,to,op,userId,courseId);
+    }
+    /** 当前最新日志序号（委托 Db.lastLogSeq） */
+    @Override public long lastLogSeq(){
+        return Db.lastLogSeq();
+    }
+    /** 打开数据目录（委托 Db.open） */
+    @Override public void open(java.io.File dataDir,int logRetentionDays,int logMaxMB) throws java.io.IOException {
+        Db.open(dataDir,logRetentionDays,logMaxMB);
+    }
+    /** 立即写快照（委托 Db.snapshot） */
+    @Override public long snapshot() throws java.io.IOException {
+        return Db.snapshot();
     }
     /** 初始化示例数据（委托 Db.seed） */
     @Override public void seed(){
         Db.seed();
     }
+    /** 停止后台任务（委托 Db.shutdown） */
+    @Override public void shutdown(){
+        Db.shutdown();
+    }
 }
\ No newline at end of file
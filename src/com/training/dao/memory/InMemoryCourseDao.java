@@ -23,6 +23,13 @@ public class InMemoryCourseDao implements CourseDao {
     @Override public Course addCourse(String name, int credit, int capacity, List<TimeSlot> times){
         return Db.addCourse(name, credit, capacity, times);
     }
+    /** 批量新增课程（委托 Db.addCourses）
+     * @param drafts 待新增课程（id 由 Db 分配）
+     * @return 已分配 id 的课程列表
+     */
+    @Override public List<Course> addCourses(List<Course> drafts){
+        return Db.addCourses(drafts);
+    }
     /** 更新课程（委托 Db.updateCourse）
      * @param id 课程ID
      * @param name 课程名（null 表示不修改）
@@ -47,6 +54,26 @@ public class InMemoryCourseDao implements CourseDao {
     @Override public List<Course> listCourses(){
         return Db.listCourses();
     }
+    /** 课程目录版本（委托 Db.catalogVersion）
+     * @return 当前版本
+     */
+    @Override public long catalogVersion(){
+        return Db.catalogVersion();
+    }
+    /** 课程目录增量（委托 Db.catalogSince）
+     * @param sinceVersion 客户端已同步到的版本
+     * @return 增量或全量
+     */
+    @Override public Db.CatalogDelta catalogSince(long sinceVersion){
+        return Db.catalogSince(sinceVersion);
+    }
+    /** 候补人数（委托 Db.waitlistLength）
+     * @param courseId 课程ID
+     * @return 候补人数
+     */
+    @Override public int waitlistLength(String courseId){
+        return Db.waitlistLength(courseId);
+    }
     /** 过滤课程（委托 Db.filterCourses）
      * @param minCredit 最小学分（null 表示不限）
      * @param maxCredit 最大学分（null 表示不限）
@@ -56,6 +83,16 @@ public class InMemoryCourseDao implements CourseDao {
     @Override public List<Course> filterCourses(Integer minCredit, Integer maxCredit, String day){
         return Db.filterCourses(minCredit, maxCredit, day);
     }
+    /** 过滤课程，含小时、空闲时段与空位条件（委托 Db.filterCourses，按索引取候选集合）
+     * @param hour 与 day 搭配的小时（null 表示不限）
+     * @param freeDay 需要空闲的星期（null 表示不限）
+     * @param freeHour 与 freeDay 搭配的小时（null 表示整天空闲）
+     * @param seatsLeft 是否只要有空位的课程
+     * @return 过滤结果列表
+     */
+    @Override public List<Course> filterCourses(Integer minCredit, Integer maxCredit, String day, Integer hour, String freeDay, Integer freeHour, boolean seatsLeft){
+        return Db.filterCourses(minCredit, maxCredit, day, hour, freeDay, freeHour, seatsLeft);
+    }
     /** 推荐课程（委托 Db.recommend）
      * @param userId 用户ID
      * @return 推荐课程列表（排序稳定性由 Db 保证）
@@ -63,4 +100,12 @@ public class InMemoryCourseDao implements CourseDao {
     @Override public List<Course> recommend(String userId){
         return Db.recommend(userId);
     }
+    /** 推荐课程前 N 条（委托 Db.recommend）
+     * @param userId 用户ID
+     * @param limit 最多返回条数；&lt;=0 表示不限
+     * @return 推荐课程列表
+     */
+    @Override public List<Course> recommend(String userId, int limit){
+        return Db.recommend(userId, limit);
+    }
 }
\ No newline at end of file
@@ -10,7 +10,7 @@ import com.training.db.Db.Enrollment;
  * EnrollmentDao 的内存实现
  * - 职责：将选课/退课/我的选课/课表映射委托至 `Db`
  * - 适用场景：教学演示、快速原型与单机调试
- * - 线程安全：依赖 `Db` 的课程级锁与内部并发控制
+ * - 线程安全：依赖 `Db` 的无锁座位 CAS 与用户级互斥
  */
 public class InMemoryEnrollmentDao implements EnrollmentDao {
     /** 选课（委托 Db.enroll）
@@ -21,6 +21,15 @@ public class InMemoryEnrollmentDao implements EnrollmentDao {
     @Override public Enrollment enroll(String userId, String courseId){
         return Db.enroll(userId, courseId);
     }
+    /** 批量选课（委托 Db.enrollBatch）
+     * @param userId 用户ID
+     * @param courseIds 课程ID列表
+     * @param atomic 是否全部成功才提交
+     * @return 逐门课程的选课记录（课程不存在为 status=not_found）
+     */
+    @Override public List<Enrollment> enrollBatch(String userId, List<String> courseIds, boolean atomic){
+        return Db.enrollBatch(userId, courseIds, atomic);
+    }
     /** 退课（委托 Db.drop）
      * @param userId 用户ID
      * @param courseId 课程ID
@@ -43,4 +52,11 @@ public class InMemoryEnrollmentDao implements EnrollmentDao {
     @Override public java.util.List<Map<String,Object>> calendar(String userId){
         return Db.calendar(userId);
     }
+    /** 我的候补排名（委托 Db.waitlistStatus）
+     * @param userId 用户ID
+     * @return 每门候补课程：courseId/name/position/length
+     */
+    @Override public java.util.List<Map<String,Object>> waitlistStatus(String userId){
+        return Db.waitlistStatus(userId);
+    }
 }
\ No newline at end of file
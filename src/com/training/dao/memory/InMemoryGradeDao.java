@@ -20,6 +20,13 @@ public class InMemoryGradeDao implements GradeDao {
     @Override public void setGrade(String userId, String courseId, double score){
         Db.setGrade(userId, courseId, score);
     }
+    /** 批量写入成绩（委托 Db.setGrades）
+     * @param rows 成绩行
+     * @return 每行结果（applied/clamped/unknown_user/unknown_course）
+     */
+    @Override public List<String> setGrades(List<Grade> rows){
+        return Db.setGrades(rows);
+    }
     /** 查询成绩列表（委托 Db.getGrades）
      * @param userId 用户ID
      * @return 成绩列表（courseId/score）
@@ -27,4 +34,11 @@ public class InMemoryGradeDao implements GradeDao {
     @Override public java.util.List<Grade> getGrades(String userId){
         return Db.getGrades(userId);
     }
+    /** 逐条遍历成绩（委托 Db.forEachGrade）
+     * @param courseId 课程ID（null 表示全部）
+     * @param action 对每条成绩调用
+     */
+    @Override public void forEachGrade(String courseId, java.util.function.Consumer<Grade> action){
+        Db.forEachGrade(courseId, action);
+    }
 }
\ No newline at end of file
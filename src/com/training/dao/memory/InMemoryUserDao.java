@@ -16,7 +16,7 @@ public class InMemoryUserDao implements UserDao {
      * @param password 明文或简单加密密码
      * @param role 角色（student/teacher/admin）
      * @param email 邮箱
-     * @return 创建成功的用户对象
+     * @return 创建成功的用户对象；用户名已存在返回 null
      */
     @Override public User addUser(String username, String password, String role, String email){
         return Db.addUser(username, password, role, email);
@@ -28,6 +28,14 @@ public class InMemoryUserDao implements UserDao {
     @Override public User findByName(String username){
         return Db.findUserByName(username);
     }
+    /** 按用户名查找用户，可选忽略大小写（委托 Db.findUserByName）
+     * @param username 用户名
+     * @param ignoreCase 是否忽略大小写
+     * @return 用户对象或 null（不存在）
+     */
+    @Override public User findByName(String username, boolean ignoreCase){
+        return Db.findUserByName(username, ignoreCase);
+    }
     /** 重置用户密码（委托 Db.resetPassword）
      * @param username 用户名
      * @param newPwd 新密码
@@ -0,0 +1,58 @@
+package com.training.db;
+
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+// 课程目录变更环：每次课程增删改或座位数变化分配一个递增版本，并在环中记下“版本 -> 课程ID”
+// - 版本 v 固定落在第 v&mask 个槽位；槽位被更新的版本覆盖后，更早的增量无法再回答
+// - 起始版本取进程启动时刻（毫秒 << 10），重启后的版本总大于重启前发出的版本，旧客户端的游标自然落到环外
+// - 写入为“先分配版本、后写槽位”，读取遇到尚未写入的槽位时在此截止，下次再从该版本继续
+/**
+ * 课程目录版本与有界变更记录
+ * - 职责：分配目录版本；回答“某版本之后有哪些课程变化”
+ * - 并发：record 为一次原子自增与一次槽位写入，无锁
+ * - 边界：只保留最近 capacity 个版本的变化；落后更多的游标需要全量同步
+ */
+final class CatalogChanges {
+    private static final class Change { final long version; final String courseId; Change(long version,String courseId){this.version=version;this.courseId=courseId;} }
+
+    private final AtomicLong version=new AtomicLong(System.currentTimeMillis()<<10);
+    private final AtomicReferenceArray<Change> ring;
+    private final int mask;
+
+    /** @param capacity 保留的版本数（向上取 2 的幂） */
+    CatalogChanges(int capacity){
+        int n=Integer.highestOneBit(Math.max(2,capacity-1))<<1;
+        ring=new AtomicReferenceArray<>(n); mask=n-1;
+    }
+
+    /** 当前版本 */
+    long version(){ return version.get(); }
+
+    /** 记录一门课程的变化并分配新版本
+     * @param courseId 课程ID；null 表示整体变化（如启动恢复），跨越它的增量请求只能全量同步
+     */
+    long record(String courseId){
+        long v=version.incrementAndGet();
+        ring.lazySet((int)(v&mask),new Change(v,courseId));
+        return v;
+    }
+
+    /** 收集 since 之后变化的课程ID
+     * @param since 客户端已同步到的版本
+     * @param out 输出：变化的课程ID（去重，按首次变化的先后）
+     * @return 本次结果对应的版本（客户端下次以此为游标）；since 已不在环内、大于当前版本或跨越整体变化时返回 -1
+     */
+    long since(long since,Set<String> out){
+        long now=version.get();
+        if(since>now || now-since>ring.length()) return -1;
+        for(long v=since+1;v<=now;v++){
+            Change c=ring.get((int)(v&mask));
+            if(c==null || c.version<v) return v-1;  // 版本已分配但槽位尚未写入：截止于此
+            if(c.version>v || c.courseId==null) return -1; // 已被覆盖或遇到整体变化
+            out.add(c.courseId);
+        }
+        return now;
+    }
+}
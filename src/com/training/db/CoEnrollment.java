@@ -0,0 +1,160 @@
+package com.training.db;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Predicate;
+import java.util.function.ToIntFunction;
+
+// 课程共选（item-to-item）推荐：
+// - 稀疏共现矩阵：courseA -> (courseB -> 同时选了 A 和 B 的人数)，选课/退课时增量更新
+// - 变化过的课程记入 dirty 集合，由后台任务用 fork/join 并行重算其 top-K 邻居（余弦相似度）
+// - 推荐请求只读取预先算好的邻居数组，不触碰共现矩阵
+/**
+ * 课程共选关系与邻居列表
+ * - 职责：维护共现计数；后台重算每门课程最相似的 K 门课程
+ * - 相似度：co(a,b) / sqrt(n(a) * n(b))，n 为课程的选课记录数（含候补）
+ * - 并发：计数为 LongAdder；邻居数组不可变，整体替换后发布
+ * - 边界：邻居列表为最终一致，两次重算之间可能略有滞后
+ */
+final class CoEnrollment {
+    /** 邻居：课程ID 与相似度 */
+    static final class Neighbour {
+        final String courseId; final double score;
+        Neighbour(String courseId,double score){this.courseId=courseId;this.score=score;}
+    }
+    private static final Neighbour[] NONE=new Neighbour[0];
+    // 每个 fork/join 子任务最多处理的课程数
+    private static final int SPLIT=64;
+
+    private final int topK;
+    private final Map<String,Map<String,LongAdder>> matrix=new ConcurrentHashMap<>();
+    private final Set<String> dirty=ConcurrentHashMap.newKeySet();
+    private final Map<String,Neighbour[]> neighbours=new ConcurrentHashMap<>();
+
+    CoEnrollment(int topK){ this.topK=topK; }
+
+    /** 记录一对课程的共选变化
+     * @param delta 同一用户新增共选 +1，退掉其中一门 -1
+     */
+    void pair(String a,String b,int delta){
+        if(a.equals(b)) return;
+        bump(a,b,delta); bump(b,a,delta);
+        dirty.add(a); dirty.add(b);
+    }
+    private void bump(String from,String to,int delta){
+        matrix.computeIfAbsent(from,k->new ConcurrentHashMap<>()).computeIfAbsent(to,k->new LongAdder()).add(delta);
+    }
+    /** 批量登记共选（启动恢复用，代替逐对调用 pair）
+     * 课程ID先映射为整数下标，各子任务在本地计数表中累计，合并后每门课程的行按最终大小一次建好
+     * @param groups 每个元素为同一用户的全部课程ID
+     * 边界：计数是累加的，可与并发的 pair 同时进行（结果为两者之和）；与并发的 removeCourse 交错时可能重新建出
+     *   已删课程的行，调用方随后应通过 recompute 清理（已删课程已标记为脏）
+     */
+    void addAll(List<String[]> groups){
+        Map<String,Integer> index=new HashMap<>(); List<String> names=new ArrayList<>();
+        int[][] idx=new int[groups.size()][];
+        for(int g=0;g<idx.length;g++){
+            String[] ids=groups.get(g); int[] x=new int[ids.length];
+            for(int i=0;i<ids.length;i++){ Integer k=index.get(ids[i]); if(k==null){ k=names.size(); index.put(ids[i],k); names.add(ids[i]); } x[i]=k; }
+            idx[g]=x;
+        }
+        int n=names.size(); if(n<2) return;
+        Queue<PairCounts> parts=new ConcurrentLinkedQueue<>();
+        Parallel.forRange(idx.length,(from,to)->{
+            PairCounts local=new PairCounts(n);
+            for(int g=from;g<to;g++){ int[] x=idx[g]; for(int i=1;i<x.length;i++) for(int j=0;j<i;j++) local.add(x[i],x[j],1); }
+            parts.add(local);
+        });
+        PairCounts all=new PairCounts(n); for(PairCounts p: parts) p.forEach(all::add);
+        int[] degree=new int[n]; all.forEach((a,b,count)->{ degree[a]++; degree[b]++; });
+        List<Map<String,LongAdder>> rows=new ArrayList<>(n);
+        for(int a=0;a<n;a++){ int d=degree[a]; rows.add(d==0? null: matrix.computeIfAbsent(names.get(a),k->new ConcurrentHashMap<>(d*4/3+1))); }
+        all.forEach((a,b,count)->{
+            rows.get(a).computeIfAbsent(names.get(b),k->new LongAdder()).add(count);
+            rows.get(b).computeIfAbsent(names.get(a),k->new LongAdder()).add(count);
+        });
+        for(int a=0;a<n;a++) if(degree[a]>0) dirty.add(names.get(a));
+    }
+    /** 课程删除：移除其行列与邻居列表 */
+    void removeCourse(String id){
+        Map<String,LongAdder> row=matrix.remove(id);
+        if(row!=null) for(String other: row.keySet()){ Map<String,LongAdder> r=matrix.get(other); if(r!=null){ r.remove(id); dirty.add(other); } }
+        neighbours.remove(id); dirty.remove(id);
+    }
+    /** 课程的 top-K 邻居（按相似度降序，可能为空数组） */
+    Neighbour[] neighbours(String id){ Neighbour[] n=neighbours.get(id); return n==null? NONE: n; }
+
+    /** 重算所有脏课程的邻居列表（由后台任务调用）
+     * @param pool fork/join 线程池
+     * @param exists 课程是否仍存在
+     * @param popularity 课程选课记录数
+     */
+    void recompute(ForkJoinPool pool,Predicate<String> exists,ToIntFunction<String> popularity){
+        if(dirty.isEmpty()) return;
+        List<String> ids=new ArrayList<>(dirty); dirty.removeAll(ids);
+        pool.invoke(new Task(ids,0,ids.size(),exists,popularity));
+    }
+
+    private final class Task extends RecursiveAction {
+        final List<String> ids; final int from,to; final Predicate<String> exists; final ToIntFunction<String> popularity;
+        Task(List<String> ids,int from,int to,Predicate<String> exists,ToIntFunction<String> popularity){this.ids=ids;this.from=from;this.to=to;this.exists=exists;this.popularity=popularity;}
+        @Override protected void compute(){
+            if(to-from>SPLIT){ int mid=(from+to)>>>1; invokeAll(new Task(ids,from,mid,exists,popularity), new Task(ids,mid,to,exists,popularity)); return; }
+            for(int i=from;i<to;i++) rebuild(ids.get(i));
+        }
+        private void rebuild(String id){
+            if(!exists.test(id)){ removeCourse(id); return; }
+            Map<String,LongAdder> row=matrix.get(id);
+            if(row==null){ neighbours.remove(id); return; }
+            double na=Math.max(1,popularity.applyAsInt(id));
+            PriorityQueue<Neighbour> heap=new PriorityQueue<>(topK+1,(x,y)->Double.compare(x.score,y.score));
+            for(Map.Entry<String,LongAdder> en: row.entrySet()){
+                long co=en.getValue().sum(); if(co<=0) continue;
+                double nb=Math.max(1,popularity.applyAsInt(en.getKey()));
+                heap.offer(new Neighbour(en.getKey(), co/Math.sqrt(na*nb)));
+                if(heap.size()>topK) heap.poll();
+            }
+            Neighbour[] top=heap.toArray(NONE);
+            Arrays.sort(top,(x,y)->Double.compare(y.score,x.score));
+            if(top.length==0) neighbours.remove(id); else neighbours.put(id,top);
+        }
+    }
+
+    // 批量登记用的课程对计数表（a<b）：课程数不多时用三角矩阵，否则用开放寻址散列（键为 a*n+b，-1 表示空槽）
+    private static final class PairCounts {
+        private static final int DENSE_MAX=1024;
+        interface Visit { void at(int a,int b,int count); }
+        private final int n; private final int[] dense;
+        private long[] keys; private int[] counts; private int size;
+        PairCounts(int n){ this.n=n; dense=n<=DENSE_MAX? new int[n*(n-1)/2]: null; if(dense==null) alloc(1024); }
+        void add(int x,int y,int delta){
+            if(x==y) return;
+            int a=Math.min(x,y), b=Math.max(x,y);
+            if(dense!=null){ dense[b*(b-1)/2+a]+=delta; return; }
+            add((long)a*n+b,delta);
+        }
+        private void add(long key,int delta){
+            if(size*2>=keys.length){ long[] k=keys; int[] c=counts; alloc(k.length*2); for(int i=0;i<k.length;i++) if(k[i]>=0) add(k[i],c[i]); }
+            int m=keys.length-1, i=(int)(key*0x9E3779B97F4A7C15L>>>40)&m;
+            while(keys[i]>=0 && keys[i]!=key) i=(i+1)&m;
+            if(keys[i]<0){ keys[i]=key; size++; }
+            counts[i]+=delta;
+        }
+        void forEach(Visit v){
+            if(dense!=null){ for(int b=1,k=0;b<n;b++) for(int a=0;a<b;a++,k++) if(dense[k]!=0) v.at(a,b,dense[k]); return; }
+            for(int i=0;i<keys.length;i++) if(keys[i]>=0) v.at((int)(keys[i]/n),(int)(keys[i]%n),counts[i]);
+        }
+        private void alloc(int cap){ keys=new long[cap]; Arrays.fill(keys,-1); counts=new int[cap]; size=0; }
+    }
+}
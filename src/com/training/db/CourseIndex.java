@@ -0,0 +1,98 @@
+package com.training.db;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+// 课程过滤索引：学分有序索引 + 按星期、按“星期×小时”的倒排集合
+// - credit：学分 -> 课程ID 集合（跳表，区间查询用 subMap）
+// - byDay[d]：第 d 天有课的课程；byHour[d*24+h]：第 d 天第 h 小时有课的课程
+// - 每门课程登记时的学分与位图记在 indexed 中，更新/删除时据此撤下旧条目
+// - 写入（增删改课程）在本对象监视器内串行；读取不加锁，候选结果由调用方按课程当前字段复核
+/**
+ * 课程过滤索引
+ * - 职责：为学分区间、星期、星期+小时过滤提供候选集合，按最小的候选集合驱动过滤
+ * - 并发：put/remove 互斥；candidates 无锁读取并发集合
+ * - 边界：与课程字段的修改不在同一原子操作内，候选集合可能短暂多出或缺少正在修改的课程；多出的由调用方复核剔除
+ */
+final class CourseIndex {
+    private static final class Entry { final int credit; final WeekMask mask; Entry(int credit,WeekMask mask){this.credit=credit;this.mask=mask;} }
+
+    private final ConcurrentSkipListMap<Integer,Set<String>> credit=new ConcurrentSkipListMap<>();
+    private final Set<String>[] byDay=newSets(7);
+    private final Set<String>[] byHour=newSets(7*24);
+    private final Map<String,Entry> indexed=new ConcurrentHashMap<>();
+
+    /** 登记或重新登记课程（新增、修改学分或时间片后调用） */
+    synchronized void put(Db.Course c){
+        Entry old=indexed.get(c.id); WeekMask m=c.mask;
+        if(old!=null){
+            if(old.credit==c.credit && old.mask==m) return;
+            unlink(c.id,old);
+        }
+        Entry e=new Entry(c.credit,m); indexed.put(c.id,e);
+        credit.computeIfAbsent(e.credit,k->ConcurrentHashMap.newKeySet()).add(c.id);
+        for(int d=0;d<7;d++){
+            if(!m.hasDay(d)) continue;
+            byDay[d].add(c.id);
+            for(int h=0;h<24;h++) if(m.occupied(d,h)) byHour[d*24+h].add(c.id);
+        }
+    }
+    /** 撤下课程 */
+    synchronized void remove(String id){
+        Entry old=indexed.remove(id); if(old!=null) unlink(id,old);
+    }
+    /** 清空（启动恢复前） */
+    synchronized void clear(){
+        indexed.clear(); credit.clear();
+        for(Set<String> s: byDay) s.clear();
+        for(Set<String> s: byHour) s.clear();
+    }
+
+    /** 取满足索引条件的最小候选集合
+     * @param minCredit 最小学分（可选）
+     * @param maxCredit 最大学分（可选）
+     * @param day 0..6，-1 表示不限
+     * @param hour 0..23，-1 表示不限（仅在 day 有效时使用）
+     * @return 候选课程ID（需按其余条件复核）；三个条件都未给出时返回 null，由调用方全量扫描
+     */
+    Collection<String> candidates(Integer minCredit,Integer maxCredit,int day,int hour){
+        Collection<String> best=null; int size=Integer.MAX_VALUE;
+        if(day>=0){ best=hour>=0? byHour[day*24+hour]: byDay[day]; size=best.size(); }
+        if(minCredit!=null || maxCredit!=null){
+            NavigableMap<Integer,Set<String>> range=creditRange(minCredit,maxCredit);
+            int n=0; for(Set<String> s: range.values()){ n+=s.size(); if(n>=size) break; }
+            if(n<size){
+                List<String> ids=new ArrayList<>(n);
+                for(Set<String> s: range.values()) ids.addAll(s);
+                best=ids;
+            }
+        }
+        return best;
+    }
+
+    private NavigableMap<Integer,Set<String>> creditRange(Integer min,Integer max){
+        if(min!=null && max!=null) return min>max? credit.subMap(0,false,0,false): credit.subMap(min,true,max,true);
+        return min!=null? credit.tailMap(min,true): credit.headMap(max,true);
+    }
+    private void unlink(String id,Entry old){
+        Set<String> s=credit.get(old.credit);
+        if(s!=null){ s.remove(id); if(s.isEmpty()) credit.remove(old.credit,s); }
+        for(int d=0;d<7;d++){
+            if(!old.mask.hasDay(d)) continue;
+            byDay[d].remove(id);
+            for(int h=0;h<24;h++) byHour[d*24+h].remove(id);
+        }
+    }
+    @SuppressWarnings({"unchecked","rawtypes"}) // 泛型数组只能由原始类型数组转换而来
+    private static Set<String>[] newSets(int n){
+        Set<String>[] a=new Set[n];
+        for(int i=0;i<n;i++) a[i]=ConcurrentHashMap.newKeySet();
+        return a;
+    }
+}
@@ -1,19 +1,33 @@
 package com.training.db;
 
+import java.io.IOException;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
 
 // 内存模拟数据库（教学用）：
 // - 用于管理 用户、课程、选课、成绩、日志 等数据，全部存储在内存结构中（Map/List）。
 // - 支持选课的容量限制、时间冲突检测、候补队列、退课转正、简单推荐与统计。
-// - 线程安全：课程维度使用 ReentrantLock 保证并发操作一致性。
+// - 线程安全：座位占用为无锁 CAS（Course.enrolled），同一用户的选课/退课按用户串行。
 /**
  * 内存数据库（教学版）
  * - 职责：提供用户、课程、时间片、选课、成绩等实体与基础操作
- * - 并发与线程安全：通过 `ConcurrentHashMap` 等结构与课程级锁保证并发安全（选课/退课）
- * - 日志与统计：提供简单日志记录与系统统计，供管理员查询
- * - 推荐：根据课程被选“热度”与个人已选过滤进行推荐
+ * - 并发与线程安全：通过 `ConcurrentHashMap` 等结构保证并发安全；选课座位为无锁 CAS，
+ *   不同学生抢同一门课不再串行在课程锁上，冲突检测/日志等记账工作都在座位 CAS 之外完成
+ * - 日志与统计：结构化操作日志经无锁环形缓冲异步写入有界历史，按游标/条件查询；系统统计供管理员查看
+ * - 推荐：优先按课程共选关系（选了 A 的人也选了 B）推荐，不足时按“热度”补齐，并过滤已选与时间冲突
+ * - 持久化：`open()` 后每次变更追加预写日志（内存映射 + 组提交，不在请求线程刷盘），定期快照并截断日志；
+ *   启动时由最新快照与其后的日志恢复
+ * - 后台任务：守护线程定期重算共选邻居、排空日志缓冲、写快照；容器关闭时调用 `shutdown()` 停止
  * - 种子数据：`seed()` 初始化示例用户/课程/选课/成绩，便于演示
  * - 说明：默认作为 DAO 层的内存实现后端；可替换为持久化实现时逐步迁移
  */
@@ -38,73 +52,234 @@ public final class Db {
         public TimeSlot(String day,int start,int end){this.day=day;this.start=start;this.end=end;this.date=null;}
     }
     // 课程实体：包含学分、容量、已选人数与时间安排
+    // enrolled 只通过 tryReserve/release 以 CAS 修改：容量判断与加一是同一个原子操作；座位数变化时递增课程目录版本
+    // mask 为 times 编译出的周占用位图，随时间片一起更新
     public static class Course {
+        private static final AtomicIntegerFieldUpdater<Course> ENROLLED=AtomicIntegerFieldUpdater.newUpdater(Course.class,"enrolled");
         public String id;
         public String name;
         public int credit;
         public List<TimeSlot> times=new ArrayList<>();
-        public int capacity;
-        public int enrolled;
+        public volatile int capacity;
+        public volatile int enrolled;
+        public volatile WeekMask mask;
         public Course(String id,String name,int credit,int capacity,List<TimeSlot> times){
-            this.id=id;this.name=name;this.credit=credit;this.capacity=capacity;this.times=times;this.enrolled=0;
+            this.id=id;this.name=name;this.credit=credit;this.capacity=capacity;this.times=times;this.enrolled=0;this.mask=WeekMask.of(times);
         }
+        /** 尝试占用一个座位（无锁）
+         * @return 未满且 CAS 成功返回 true；已满返回 false
+         */
+        boolean tryReserve(){
+            for(;;){ int n=enrolled; if(n>=capacity) return false; if(ENROLLED.compareAndSet(this,n,n+1)){ catalogChanges.record(id); return true; } }
+        }
+        /** 一次占用多个座位（无锁），用于批量候补转正
+         * @param want 期望占用数
+         * @return 实际占用数（0..want）
+         */
+        int tryReserve(int want){
+            for(;;){ int n=enrolled; int k=Math.min(want,capacity-n); if(k<=0) return 0; if(ENROLLED.compareAndSet(this,n,n+k)){ catalogChanges.record(id); return k; } }
+        }
+        /** 归还一个座位（无锁，不会减到负数） */
+        void release(){ release(1); }
+        /** 归还多个座位（无锁，不会减到负数） */
+        void release(int k){
+            for(;;){ int n=enrolled; int m=Math.max(0,n-k); if(n==m) return; if(ENROLLED.compareAndSet(this,n,m)){ catalogChanges.record(id); return; } }
+        }
+    }
+    // 课程目录增量：version 为本次同步到的版本（下次请求的 sinceVersion）；full 时 changed 为全部课程
+    public static final class CatalogDelta {
+        public final long version;
+        public final boolean full;
+        public final List<Course> changed;
+        public final List<String> deleted;
+        CatalogDelta(long version,boolean full,List<Course> changed,List<String> deleted){this.version=version;this.full=full;this.changed=changed;this.deleted=deleted;}
     }
     // 选课记录：status 可为 enrolled（已选）或 waitlist（候补）或 conflict（冲突）
+    // 批量选课（全部成功才提交）失败时，未写入的记录以 full（无座位）或 aborted（随整批撤销）返回；批量中不存在的课程为 not_found
+    // status 的状态迁移（候补转正、退课）用 CAS 完成，状态值统一使用下列常量
     public static class Enrollment {
+        public static final String ENROLLED="enrolled";
+        public static final String WAITLIST="waitlist";
+        public static final String CONFLICT="conflict";
+        public static final String DROPPED="dropped";
+        public static final String FULL="full";
+        public static final String ABORTED="aborted";
+        public static final String NOT_FOUND="not_found";
+        private static final AtomicReferenceFieldUpdater<Enrollment,String> STATUS=AtomicReferenceFieldUpdater.newUpdater(Enrollment.class,String.class,"status");
         public String userId;
         public String courseId;
-        public String status; // enrolled/waitlist
+        public volatile String status; // enrolled/waitlist
+        WaitQueue.Node waitNode; // 候补时指向所在队列节点（由 WaitQueue 在其锁内维护）
+        long waitOrder; // 入队键：加入候补队列时由 WaitQueue 分配、此后不变（越小越靠前）；写入快照与 ENROLL 日志，恢复时按它重建队列
         public Enrollment(String userId,String courseId,String status){this.userId=userId;this.courseId=courseId;this.status=status;}
+        boolean casStatus(String expect,String update){ return STATUS.compareAndSet(this,expect,update); }
+        String getAndSetStatus(String update){ return STATUS.getAndSet(this,update); }
     }
     // 成绩记录：courseId 与分数，同时冗余存储课程名以应对课程删除场景
-    public static class Grade {public String userId;public String courseId;public double score; public String courseName;}
+    // seq 为全局递增的成绩序号，用于日志重放时识别已存在的成绩
+    public static class Grade {
+        // 批量写入成绩时每行的结果：已写入 / 越界截断后写入 / 用户不存在 / 课程不存在
+        public static final String APPLIED="applied", CLAMPED="clamped", UNKNOWN_USER="unknown_user", UNKNOWN_COURSE="unknown_course";
+        public String userId;public String courseId;public double score; public String courseName; long seq;
+    }
+    // 操作日志条目：时间为毫秒时间戳，op 为操作码，userId/courseId/detail 视操作而定（可为 null）
+    // seq 由后台追加线程写入历史时分配，全局递增，用作查询游标
+    public static class LogEntry {
+        public long seq;
+        public final long time;
+        public final String op;
+        public final String userId;
+        public final String courseId;
+        public final String detail;
+        public LogEntry(long time,String op,String userId,String courseId,String detail){this.time=time;this.op=op;this.userId=userId;this.courseId=courseId;this.detail=detail;}
+        /** 文本形式："时间 | op:userId:courseId:detail"（省略为 null 的字段），仅在查询展示时格式化 */
+        @Override public String toString(){
+            StringBuilder sb=new StringBuilder().append(new Date(time)).append(" | ").append(op);
+            if(userId!=null) sb.append(':').append(userId); if(courseId!=null) sb.append(':').append(courseId); if(detail!=null) sb.append(':').append(detail);
+            return sb.toString();
+        }
+    }
 
     // 基础数据存储结构
     private static final Map<String,User> users=new ConcurrentHashMap<>();
+    // 用户名索引：精确用户名 -> 用户（唯一性由 putIfAbsent 保证）；小写折叠用户名 -> 最早注册的用户
+    private static final Map<String,User> usersByName=new ConcurrentHashMap<>();
+    private static final Map<String,User> usersByFoldedName=new ConcurrentHashMap<>();
     private static final Map<String,Course> courses=new ConcurrentHashMap<>();
     private static final Map<String,List<Enrollment>> enrollmentsByUser=new ConcurrentHashMap<>();
-    private static final Map<String,List<String>> waitlistByCourse=new ConcurrentHashMap<>();
+    // 候补队列：课程 -> FIFO 队列，节点直接指向候补记录（入队/转正/取消均为 O(1)）
+    private static final Map<String,WaitQueue> waitlistByCourse=new ConcurrentHashMap<>();
     private static final Map<String,List<Grade>> gradesByUser=new ConcurrentHashMap<>();
-    private static final List<String> logs=Collections.synchronizedList(new ArrayList<>());
-    private static final Map<String,ReentrantLock> courseLocks=new ConcurrentHashMap<>();
+    // 反向索引：课程 -> 该课程的选课/候补记录、课程 -> 该课程的成绩；删课级联与按课程统计只触及相关记录
+    private static final Map<String,Set<Enrollment>> enrollmentsByCourse=new ConcurrentHashMap<>();
+    private static final Map<String,Set<Grade>> gradesByCourse=new ConcurrentHashMap<>();
+    private static final AtomicInteger enrollmentTotal=new AtomicInteger();
+    // 课程热度排行：随选课记录的写入/移出增量维护，供推荐直接读取
+    private static final PopularityRank popularity=new PopularityRank();
+    // 课程过滤索引（学分有序 + 星期/小时倒排）：随课程增删改维护，启动恢复时整体重建
+    private static final CourseIndex courseIndex=new CourseIndex();
+    // 课程目录版本与变更环：课程增删改、任一课程座位数或候补人数变化时分配新版本并记下课程ID，
+    // 供 Web 层缓存序列化后的课程列表，以及按版本增量同步（最近 CATALOG_CHANGES 个版本）
+    private static final int CATALOG_CHANGES=16384;
+    private static final CatalogChanges catalogChanges=new CatalogChanges(CATALOG_CHANGES);
+    // 课程共选矩阵与预计算邻居：同一用户的记录两两成对计数，后台每隔 COENROLL_REFRESH_MS 重算一次脏课程
+    private static final CoEnrollment coEnrollment=new CoEnrollment(20);
+    private static final long COENROLL_REFRESH_MS=2000;
+    // 恢复时共选矩阵的批量登记在后台进行（百万级选课需数秒），完成并算出邻居前推荐只按热度，定期重算也暂停
+    private static volatile boolean coEnrollmentReady=true;
+    // 后台线程（共选重算、定期快照）由 start 创建、shutdown 关闭，不在类加载时启动
+    private static ScheduledExecutorService background;
+    // 操作日志：业务线程无锁写入有界环形缓冲（满则丢弃并计数），后台线程排空到最近 LOG_HISTORY 条的历史中
+    private static final int LOG_HISTORY=10000;
+    private static final OpLog opLog=new OpLog(4096,LOG_HISTORY);
+    // 用户已选课程的周占用位图缓存：在用户级互斥内维护；课程时间片变化或删课时递增 timetableEpoch 使其失效
+    private static final Map<String,Schedule> scheduleByUser=new ConcurrentHashMap<>();
+    private static final AtomicLong timetableEpoch=new AtomicLong();
+    private static final AtomicLong gradeSeq=new AtomicLong();
+    // 持久化：open 之后每次变更追加一条预写日志记录；后台每 SNAPSHOT_CHECK_MS 检查一次，
+    // 日志积累超过 SNAPSHOT_RECORDS 条或距上次快照超过 SNAPSHOT_MAX_AGE_MS 时写快照并截断日志
+    private static volatile Journal journal;
+    private static java.io.File dbDir;
+    private static final Object snapshotLock=new Object();
+    private static volatile long lastSnapshotLsn, lastSnapshotAt;
+    private static final long SNAPSHOT_CHECK_MS=30_000, SNAPSHOT_MAX_AGE_MS=600_000;
+    private static final int SNAPSHOT_RECORDS=200_000;
+    private static final class Schedule {
+        final long epoch; final WeekMask mask;
+        Schedule(long epoch,WeekMask mask){this.epoch=epoch;this.mask=mask;}
+    }
 
     private static String uuid(){return UUID.randomUUID().toString();}
 
     // 简单日志记录：便于管理员查看系统操作
-    /** 记录系统操作日志（附时间戳）
-     * @param text 日志文本，例如 "enroll:uid:courseId"
+    /** 记录自由文本日志（op 为 "note"）
+     * @param text 日志文本
      */
     public static void log(String text){
-        logs.add(new Date()+" | "+text);
+        log("note",null,null,text);
     }
-    /** 返回当前日志列表的副本
-     * @return 日志字符串列表（不可修改原始内部集合）
+    /** 记录结构化操作日志（附毫秒时间戳；无锁，不阻塞调用方）
+     * @param op 操作码，例如 enroll/drop/promote
+     * @param userId 相关用户（可为 null）
+     * @param courseId 相关课程（可为 null）
+     * @param detail 附加信息（可为 null）
+     * 边界：缓冲满时丢弃本条并计入 droppedLogs
      */
-    public static java.util.List<String> getLogs(){
-        return new ArrayList<>(logs);
+    public static void log(String op,String userId,String courseId,String detail){
+        opLog.record(new LogEntry(System.currentTimeMillis(),op,userId,courseId,detail));
+    }
+    /** 按游标查询日志（序号升序）
+     * @param cursor 只返回序号大于 cursor 的条目；小于 0 表示返回最近的 limit 条
+     * @param limit 最多返回条数（<=0 时取 100）
+     * @param from 起始时间（毫秒，含；null 表示不限）
+     * @param to 结束时间（毫秒，含；null 表示不限）
+     * @param op 操作码过滤（null 表示不限）
+     * @param userId 用户过滤（null 表示不限）
+     * @param courseId 课程过滤（null 表示不限）
+     * @return 匹配的日志条目；已调用 open 时查询磁盘段文件（保留期与大小上限内的全部历史），否则只在内存中最近 LOG_HISTORY 条中查找
+     * @throws IOException 磁盘段读取失败（不返回残缺的结果）
+     */
+    public static List<LogEntry> getLogs(long cursor,int limit,Long from,Long to,String op,String userId,String courseId) throws IOException {
+        LogStore.Query q=new LogStore.Query();
+        q.cursor=cursor; q.limit=limit>0? limit: 100; if(from!=null) q.from=from; if(to!=null) q.to=to;
+        q.op=op; q.userId=userId; q.courseId=courseId;
+        return opLog.query(q);
+    }
+    /** 当前最新日志序号（可作为下一次查询的游标） */
+    public static long lastLogSeq(){ return opLog.lastSeq(); }
+
+    // 预写日志：变更先作用于内存，再追加记录（快照取 LSN 之后开始读取，二者配合保证不漏变更）
+    // 选课类记录在该用户的选课列表监视器内追加，同一用户的记录顺序与内存变更顺序一致
+    private static void journal(Journal.Record r){ Journal j=journal; if(j!=null) j.append(r); }
+    private static void journalCourse(Course c){
+        if(journal==null) return;
+        Journal.Record r=new Journal.Record(Journal.COURSE).str(c.id).str(c.name).i32(c.credit).i32(c.capacity);
+        List<TimeSlot> ts=c.times==null? Collections.<TimeSlot>emptyList(): c.times; r.i32(ts.size());
+        for(TimeSlot t: ts) r.str(t.day).i32(t.start).i32(t.end).str(t.date);
+        journal(r);
+    }
+    // 候补记录的 ENROLL 日志附带入队键（调用方在入队之后、同一用户互斥内写日志）
+    private static void journalEnrollment(byte type,Enrollment e){
+        if(journal==null) return;
+        String status=e.status; Journal.Record r=new Journal.Record(type).str(e.userId).str(e.courseId).str(status);
+        if(type==Journal.ENROLL && Enrollment.WAITLIST.equals(status)) r.i64(e.waitOrder);
+        journal(r);
     }
 
     // 用户相关操作
     /** 新增用户
-     * @param username 用户名
+     * @param username 用户名（唯一，区分大小写）
      * @param password 密码（教学示例明文，不做复杂校验）
      * @param role 角色：student/admin
      * @param email 邮箱
-     * @return 创建的用户对象
+     * @return 创建的用户对象；用户名已存在时返回 null
      * 边界与异常：
-     * - 未强制用户名唯一；存在重复时以第一个匹配为准（findUserByName）
+     * - 用户名唯一性由索引的 putIfAbsent 原子保证，并发注册同名用户只有一个成功
      * - 不校验邮箱格式与角色合法性（由上层调用方负责）
      */
     public static User addUser(String username,String password,String role,String email){
-        String id=uuid(); User u=new User(id,username,password,role,email); users.put(id,u); log("addUser:"+username); return u;
+        String id=uuid(); User u=new User(id,username,password,role,email);
+        if(usersByName.putIfAbsent(username,u)!=null) return null;
+        usersByFoldedName.putIfAbsent(fold(username),u);
+        users.put(id,u); if(journal!=null) journal(new Journal.Record(Journal.USER).str(id).str(username).str(password).str(role).str(email)); log("addUser",id,null,username); return u;
     }
-    /** 按用户名查找用户
+    private static String fold(String username){ return username.toLowerCase(Locale.ROOT); }
+    /** 按用户名查找用户（索引查找，O(1)）
      * @param username 用户名（区分大小写）
      * @return 匹配用户或 null
-     * 边界：若存在重名用户，返回内部 Map 遍历遇到的第一个
      */
     public static User findUserByName(String username){
-        for(User u: users.values()) if(u.username.equals(username)) return u; return null;
+        return username==null? null: usersByName.get(username);
+    }
+    /** 按用户名查找用户，可选忽略大小写
+     * @param username 用户名
+     * @param ignoreCase 是否忽略大小写
+     * @return 匹配用户或 null
+     * 边界：忽略大小写时若存在仅大小写不同的多个用户，返回最早注册的一个
+     */
+    public static User findUserByName(String username,boolean ignoreCase){
+        if(!ignoreCase) return findUserByName(username);
+        return username==null? null: usersByFoldedName.get(fold(username));
     }
     /** 重置用户密码
      * @param username 用户名
@@ -113,13 +288,13 @@ public final class Db {
      * 边界：不校验密码复杂度；不存在用户返回 false
      */
     public static boolean resetPassword(String username,String newPwd){
-        User u=findUserByName(username); if(u==null) return false; u.password=newPwd; log("resetPassword:"+username); return true;
+        User u=findUserByName(username); if(u==null) return false; u.password=newPwd; if(journal!=null) journal(new Journal.Record(Journal.PASSWORD).str(u.id).str(newPwd)); log("resetPassword",u.id,null,username); return true;
     }
     /** 用户认证
      * @param username 用户名
      * @param password 密码
      * @return 验证成功返回用户，否则 null
-     * 边界：不做登录失败计数与锁定；大小写敏感；未强制唯一用户名时取第一个匹配
+     * 边界：不做登录失败计数与锁定；大小写敏感
      */
     public static User auth(String username,String password){
         User u=findUserByName(username); if(u!=null && u.password.equals(password)) return u; return null;
@@ -135,7 +310,17 @@ public final class Db {
      * 边界：不校验学分/容量取值范围；不校验时间片重叠与合法性（由选课冲突检测处理）
      */
     public static Course addCourse(String name,int credit,int capacity,List<TimeSlot> times){
-        String id=uuid(); Course c=new Course(id,name,credit,capacity,times); courses.put(id,c); courseLocks.put(id,new ReentrantLock()); log("addCourse:"+name); return c;
+        String id=uuid(); Course c=new Course(id,name,credit,capacity,times); courses.put(id,c); popularity.add(id,name); courseIndex.put(c); catalogChanges.record(id); journalCourse(c); log("addCourse",null,id,name); return c;
+    }
+    /** 批量新增课程（批量导入用）
+     * @param drafts 待新增的课程（只使用 name/credit/capacity/times，id 由本方法分配并写回）
+     * @return 同一批课程对象（已分配 id）
+     * 边界：与 addCourse 相同不做取值校验（由调用方完成）；每门课程各写一条预写日志记录，操作日志每批只记一条
+     */
+    public static List<Course> addCourses(List<Course> drafts){
+        for(Course c: drafts){ c.id=uuid(); courses.put(c.id,c); popularity.add(c.id,c.name); courseIndex.put(c); catalogChanges.record(c.id); journalCourse(c); }
+        log("addCourses",null,null,"count="+drafts.size());
+        return drafts;
     }
     /** 更新课程（字段为 null 表示不修改）
      * @param id 课程ID
@@ -144,97 +329,295 @@ public final class Db {
      * @param capacity 容量（可选）
      * @param times 时间片列表（可选）
      * @return 是否更新成功
-     * 边界：不校验负数/过大数值；更新时间片可能导致后续选课冲突，但本方法不进行校验
+     * 边界：不校验负数/过大数值；更新时间片可能导致后续选课冲突，但本方法不进行校验（会使用户课表位图缓存失效）；
+     *       扩容时按新增空位批量转正候补队列
      */
     public static boolean updateCourse(String id,String name,Integer credit,Integer capacity,List<TimeSlot> times){
-        Course c=courses.get(id); if(c==null) return false; if(name!=null) c.name=name; if(credit!=null) c.credit=credit; if(capacity!=null) c.capacity=capacity; if(times!=null) c.times=times; log("updateCourse:"+id); return true;
+        Course c=courses.get(id); if(c==null) return false; if(name!=null){ c.name=name; popularity.rename(id,name); } if(credit!=null) c.credit=credit; int oldCap=c.capacity; if(capacity!=null) c.capacity=capacity; if(times!=null){ c.times=times; c.mask=WeekMask.of(times); timetableEpoch.incrementAndGet(); } if(credit!=null || times!=null) courseIndex.put(c); catalogChanges.record(id); journalCourse(c); log("updateCourse",null,id,null);
+        // 扩容：按新增空位一次性批量转正候补
+        if(capacity!=null && capacity>oldCap) fillFromWaitlist(c);
+        return true;
     }
     /** 删除课程
      * @param id 课程ID
      * @return 是否删除成功
-     * 边界：级联清理候补队列、课程锁、用户选课与成绩中与该课程相关的数据
+     * 边界：借助课程反向索引级联清理候补队列、用户选课与成绩（代价与该课程的记录数成正比）；
+     *       不阻塞并发选课，删除期间写入的选课由 enroll 自行撤销
      */
     public static boolean deleteCourse(String id){
-        ReentrantLock lock = courseLocks.get(id);
-        if(lock != null) lock.lock();
-        try {
-            Course c=courses.remove(id); if(c==null) return false;
-            // 清理候补队列
-            waitlistByCourse.remove(id);
-            // 清理用户选课记录（所有用户）
-            for(Map.Entry<String,List<Enrollment>> entry : enrollmentsByUser.entrySet()){
-                List<Enrollment> es = entry.getValue();
-                Iterator<Enrollment> it = es.iterator();
-                while(it.hasNext()){
-                    Enrollment e = it.next();
-                    if(id.equals(e.courseId)) it.remove();
-                }
-            }
-            // 清理成绩记录（所有用户）
-            for(Map.Entry<String,List<Grade>> entry : gradesByUser.entrySet()){
-                List<Grade> gs = entry.getValue();
-                Iterator<Grade> it = gs.iterator();
-                while(it.hasNext()){
-                    Grade g = it.next();
-                    if(id.equals(g.courseId)) it.remove();
-                }
-            }
-            log("deleteCourse:"+id);
-            return true;
-        } finally {
-            if(lock != null) lock.unlock();
-            courseLocks.remove(id);
+        // 先从课程表移除：此后的新选课拿不到该课程；正在进行中的选课会在写入后自行回滚（见 enroll）
+        Course c=courses.remove(id); if(c==null) return false;
+        timetableEpoch.incrementAndGet(); catalogChanges.record(id); popularity.remove(id); courseIndex.remove(id); coEnrollment.removeCourse(id);
+        // 清理候补队列
+        waitlistByCourse.remove(id);
+        // 清理用户选课记录：只处理该课程反向索引中的记录
+        Set<Enrollment> es=enrollmentsByCourse.remove(id);
+        if(es!=null) for(Enrollment e: es){
+            enrollmentTotal.decrementAndGet();
+            List<Enrollment> mine=enrollmentsByUser.get(e.userId);
+            if(mine!=null) synchronized(mine){ mine.remove(e); scheduleByUser.remove(e.userId); }
+        }
+        // 清理成绩记录：同样只处理该课程的成绩
+        Set<Grade> gs=gradesByCourse.remove(id);
+        if(gs!=null) for(Grade g: gs){
+            List<Grade> theirs=gradesByUser.get(g.userId);
+            if(theirs!=null) synchronized(theirs){ theirs.remove(g); }
         }
+        if(journal!=null) journal(new Journal.Record(Journal.COURSE_DELETE).str(id));
+        log("deleteCourse",null,id,null);
+        return true;
     }
     /** 列出所有课程
      * @return 课程列表快照
      */
     public static List<Course> listCourses(){return new ArrayList<>(courses.values());}
+    /** 课程目录版本：课程增删改或任一课程座位数、候补人数变化后增大；版本相同时课程列表的内容不变
+     * 边界：读取版本后再读取课程列表，列表可能已包含更新的变化（此时版本已再次增大，缓存会在下次请求时重建）；
+     *       版本从进程启动时刻起算，重启后不会与重启前的版本重复
+     */
+    public static long catalogVersion(){ return catalogChanges.version(); }
+    /** 课程当前候补人数
+     * @param courseId 课程ID
+     * @return 队列长度；无候补队列返回 0
+     */
+    public static int waitlistLength(String courseId){ WaitQueue wl=waitlistByCourse.get(courseId); return wl==null? 0: wl.size(); }
+    /** 课程目录增量：sinceVersion 之后新增/修改/删除或座位数变化的课程
+     * @param sinceVersion 客户端已同步到的版本
+     * @return 增量；游标已落到变更环之外（或跨越了重启、启动恢复）时 full=true，changed 为全部课程
+     * 边界：changed 为课程的当前状态，可能已包含 version 之后的变化（下次增量会再次带上，覆盖写入即可）
+     */
+    public static CatalogDelta catalogSince(long sinceVersion){
+        Set<String> ids=new LinkedHashSet<>();
+        long v=catalogChanges.since(sinceVersion,ids);
+        if(v<0){ v=catalogChanges.version(); return new CatalogDelta(v,true,listCourses(),Collections.<String>emptyList()); }
+        List<Course> changed=new ArrayList<>(ids.size()); List<String> deleted=new ArrayList<>();
+        for(String id: ids){ Course c=courses.get(id); if(c!=null) changed.add(c); else deleted.add(id); }
+        return new CatalogDelta(v,false,changed,deleted);
+    }
     /** 按条件过滤课程
      * @param minCredit 最小学分（可选，null 表示不限）
      * @param maxCredit 最大学分（可选，null 表示不限）
-     * @param day 星期（如 Mon/Tue…，可选，大小写敏感，需与 TimeSlot.day 完全匹配）
-     * @return 满足条件的课程列表（约束互相矛盾时返回空列表，不抛异常）
+     * @param day 星期（如 Mon/Tue…，可选，大小写不敏感，识别三字母缩写或完整名称）
+     * @return 满足条件的课程列表（约束互相矛盾或星期无法识别时返回空列表，不抛异常）
      */
     public static List<Course> filterCourses(Integer minCredit,Integer maxCredit,String day){
+        return filterCourses(minCredit,maxCredit,day,null,null,null,false);
+    }
+    /** 按条件过滤课程（条件均可选，同时给出时取交集）
+     * @param minCredit 最小学分
+     * @param maxCredit 最大学分
+     * @param day 有课的星期（Mon/Tue…）
+     * @param hour 与 day 搭配：该天这一小时有课（0..23）
+     * @param freeDay 空闲的星期：该天（或 freeHour 这一小时）没有课
+     * @param freeHour 与 freeDay 搭配：只要求这一小时空闲（0..23）
+     * @param seatsLeft 为 true 时只返回尚有空位的课程
+     * @return 满足条件的课程列表
+     * 边界：学分/星期/小时条件走 courseIndex，取最小的候选集合后逐门复核其余条件；只有空闲/空位条件时全量扫描；
+     *       星期无法识别或小时越界时返回空列表；hour/freeHour 单独给出时忽略
+     */
+    public static List<Course> filterCourses(Integer minCredit,Integer maxCredit,String day,Integer hour,String freeDay,Integer freeHour,boolean seatsLeft){
         List<Course> out=new ArrayList<>();
-        for(Course c: courses.values()){
-            boolean ok=true;
-            if(minCredit!=null && c.credit<minCredit) ok=false;
-            if(maxCredit!=null && c.credit>maxCredit) ok=false;
-            if(day!=null){ boolean has=false; for(TimeSlot t: c.times){ if(t.day.equals(day)) { has=true; break; } } if(!has) ok=false; }
-            if(ok) out.add(c);
-        }
+        int d=day!=null? WeekMask.dayIndex(day): -1, fd=freeDay!=null? WeekMask.dayIndex(freeDay): -1;
+        if((day!=null && d<0) || (freeDay!=null && fd<0)) return out;
+        int h=d>=0 && hour!=null? hour: -1, fh=fd>=0 && freeHour!=null? freeHour: -1;
+        if((h!=-1 && (h<0 || h>23)) || (fh!=-1 && (fh<0 || fh>23))) return out;
+        Collection<String> ids=courseIndex.candidates(minCredit,maxCredit,d,h);
+        if(ids==null){ for(Course c: courses.values()) if(matches(c,minCredit,maxCredit,d,h,fd,fh,seatsLeft)) out.add(c); return out; }
+        for(String id: ids){ Course c=courses.get(id); if(c!=null && matches(c,minCredit,maxCredit,d,h,fd,fh,seatsLeft)) out.add(c); }
         return out;
     }
+    // 按课程当前字段逐项复核过滤条件（d/h/fd/fh 为 -1 表示不限）
+    private static boolean matches(Course c,Integer minCredit,Integer maxCredit,int d,int h,int fd,int fh,boolean seatsLeft){
+        if(minCredit!=null && c.credit<minCredit) return false;
+        if(maxCredit!=null && c.credit>maxCredit) return false;
+        WeekMask m=c.mask;
+        if(d>=0 && !(h>=0? m.occupied(d,h): m.hasDay(d))) return false;
+        if(fd>=0 && (fh>=0? m.occupied(fd,fh): m.hasDay(fd))) return false;
+        return !seatsLeft || c.enrolled<c.capacity;
+    }
 
-    // 冲突检测：判断用户已有课程与新课程是否存在时间重叠
+    // 用户课表位图：缓存未失效时直接返回，否则由已选课程的位图重新合并
+    // 调用方需持有该用户的选课列表监视器（enroll/drop/转正都在其内维护缓存）
+    private static WeekMask userMask(String userId){
+        long epoch=timetableEpoch.get();
+        Schedule s=scheduleByUser.get(userId);
+        if(s!=null && s.epoch==epoch) return s.mask;
+        WeekMask m=WeekMask.EMPTY;
+        for(Enrollment e: enrollmentsByUser.getOrDefault(userId, Collections.emptyList())){ if(!Enrollment.ENROLLED.equals(e.status)) continue; Course c=courses.get(e.courseId); if(c!=null) m=m.or(c.mask); }
+        scheduleByUser.put(userId,new Schedule(epoch,m));
+        return m;
+    }
+    // 新选上一门课：在缓存的位图上直接并入该课程，沿用原 epoch（若已失效，下次读取时会整体重算）
+    private static void extendSchedule(String userId,Course c){
+        Schedule s=scheduleByUser.get(userId);
+        if(s!=null) scheduleByUser.put(userId,new Schedule(s.epoch,s.mask.or(c.mask)));
+    }
+    // 冲突检测：判断用户已有课程与新课程是否存在时间重叠（一次位与）
     private static boolean conflict(String userId, Course newCourse){
-        List<Enrollment> list=enrollmentsByUser.getOrDefault(userId, new ArrayList<>());
-        for(Enrollment e: list){ if(!"enrolled".equals(e.status)) continue; Course c=courses.get(e.courseId); if(c==null) continue; for(TimeSlot t1:c.times) for(TimeSlot t2:newCourse.times){ if(t1.day.equals(t2.day) && !(t1.end<=t2.start || t2.end<=t1.start)) return true; } }
+        return userMask(userId).intersects(newCourse.mask);
+    }
+    // 用户的选课列表：读多写少且单个用户记录很少，使用 CopyOnWriteArrayList，读取与遍历无需加锁
+    private static List<Enrollment> userEnrollments(String userId){
+        return enrollmentsByUser.computeIfAbsent(userId,k->new CopyOnWriteArrayList<>());
+    }
+    // 维护课程反向索引与选课总数：记录写入/移出用户选课列表时成对调用
+    private static void indexEnrollment(Enrollment e){
+        if(enrollmentsByCourse.computeIfAbsent(e.courseId,k->ConcurrentHashMap.newKeySet()).add(e)){ enrollmentTotal.incrementAndGet(); popularity.adjust(e.courseId,1); }
+    }
+    private static void unindexEnrollment(Enrollment e){
+        enrollmentsByCourse.computeIfPresent(e.courseId,(k,set)->{
+            if(set.remove(e)){ enrollmentTotal.decrementAndGet(); popularity.adjust(k,-1); }
+            return set.isEmpty() && !courses.containsKey(k)? null: set;
+        });
+    }
+    // 共选计数：记录 e 与该用户其余记录两两成对；调用方持有该用户的选课列表监视器
+    private static void linkCoEnrollment(List<Enrollment> mine,Enrollment e,int delta){
+        for(Enrollment o: mine) if(o!=e) coEnrollment.pair(e.courseId,o.courseId,delta);
+    }
+    // 候补转正：把一个已占好的座位交给记录 e；在其用户级互斥内以 CAS 校验状态（可能已被并发退课）
+    private static boolean promote(Course c,Enrollment e){
+        List<Enrollment> theirs=enrollmentsByUser.get(e.userId); if(theirs==null) return false;
+        boolean promoted;
+        synchronized(theirs){
+            promoted=e.casStatus(Enrollment.WAITLIST,Enrollment.ENROLLED);
+            if(promoted){ scheduleByUser.remove(e.userId); journalEnrollment(Journal.PROMOTE,e); }
+        }
+        if(promoted) log("promote",e.userId,c.id,null);
+        return promoted;
+    }
+    // 候补转正：从队首取出仍处于候补状态的记录转为已选（调用方已为其占好一个座位）
+    // 返回 false 表示队列已空、座位未被使用
+    private static boolean transferSeat(Course c){
+        WaitQueue wl=waitlistByCourse.get(c.id); if(wl==null) return false;
+        Enrollment next;
+        while((next=wl.poll())!=null){ catalogChanges.record(c.id); if(promote(c,next)) return true; }
         return false;
     }
+    // 有空位且有人候补时批量补位：一次 CAS 占下 min(空位, 排队人数) 个座位，一次出队同样多的记录
+    // 用于“判满后入队”与“退课归还座位”交错、以及管理员扩容等场景，避免座位空置
+    private static void fillFromWaitlist(Course c){
+        WaitQueue wl=waitlistByCourse.get(c.id); if(wl==null) return;
+        while(!wl.isEmpty()){
+            int got=c.tryReserve(wl.size()); if(got==0) return;
+            List<Enrollment> batch=wl.pollBatch(got); if(!batch.isEmpty()) catalogChanges.record(c.id);
+            int used=0; for(Enrollment e: batch) if(promote(c,e)) used++;
+            if(used<got) c.release(got-used);
+            if(used==0) return;
+        }
+    }
     // 选课：
-    /** 学生选课（并发安全）
+    /** 学生选课（并发安全，座位占用无锁）
      * - 冲突返回 status=conflict；课程不存在返回 null
      * - 未满直接 enrolled；满员加入候补队列 waitlist（FIFO）
      * - 若已存在该课程的选课/候补记录，直接返回该记录（避免重复）
      * @param userId 学生ID（未校验用户是否存在）
      * @param courseId 课程ID
-     * @return 选课记录（enrolled/waitlist/conflict），课程不存在返回 null
+     * @return 选课记录（enrolled/waitlist/conflict；选课期间课程被删除时为 aborted），课程不存在返回 null
      * 边界与并发：
-     * - 不去重：重复选课会产生多条记录并占容量；应用层需避免重复请求
-     * - 课程级锁保证 enrolled/候补与转正的一致性
+     * - 容量判断与 enrolled 加一是一次 CAS，不同学生抢同一门课互不阻塞
+     * - 同一用户的并发请求按用户串行（去重、冲突检测在用户级互斥内完成）
+     * - 有人候补时新来的请求不抢座，直接排队，保证候补 FIFO
+     * - 日志与候补补位在座位 CAS 之外进行
      */
     public static Enrollment enroll(String userId,String courseId){
-        // 避免重复：若用户已有该课程的记录，直接返回
-        List<Enrollment> existing = enrollmentsByUser.getOrDefault(userId, new ArrayList<>());
-        for(Enrollment e: existing){ if(e.courseId.equals(courseId)) { log("duplicate_enroll:"+userId+":"+courseId); return e; } }
-        Course c=courses.get(courseId); if(c==null) return null; courseLocks.putIfAbsent(courseId,new ReentrantLock()); ReentrantLock lock=courseLocks.get(courseId); lock.lock(); try{
-            if(conflict(userId,c)) { log("conflict:"+userId+":"+courseId); return new Enrollment(userId,courseId,"conflict"); }
-            if(c.enrolled<c.capacity){ c.enrolled++; Enrollment e=new Enrollment(userId,courseId,"enrolled"); enrollmentsByUser.computeIfAbsent(userId,k->new ArrayList<>()).add(e); log("enroll:"+userId+":"+courseId); return e; }
-            List<String> wl=waitlistByCourse.computeIfAbsent(courseId,k->new ArrayList<>()); wl.add(userId); Enrollment e=new Enrollment(userId,courseId,"waitlist"); enrollmentsByUser.computeIfAbsent(userId,k->new ArrayList<>()).add(e); log("waitlist:"+userId+":"+courseId); return e;
-        } finally { lock.unlock(); }
+        List<Enrollment> mine=userEnrollments(userId);
+        Course c; Enrollment e=null; String op;
+        synchronized(mine){
+            // 避免重复：若用户已有该课程的记录，直接返回
+            for(Enrollment x: mine){ if(x.courseId.equals(courseId)) { e=x; break; } }
+            if(e!=null){ c=null; op="duplicate_enroll"; }
+            else {
+                c=courses.get(courseId); if(c==null) return null;
+                WaitQueue wl=waitlistByCourse.computeIfAbsent(courseId,k->new WaitQueue());
+                if(conflict(userId,c)) { e=new Enrollment(userId,courseId,Enrollment.CONFLICT); op="conflict"; }
+                else if(wl.isEmpty() && c.tryReserve()) { e=new Enrollment(userId,courseId,Enrollment.ENROLLED); mine.add(e); indexEnrollment(e); linkCoEnrollment(mine,e,1); extendSchedule(userId,c); journalEnrollment(Journal.ENROLL,e); op="enroll"; }
+                else { e=new Enrollment(userId,courseId,Enrollment.WAITLIST); mine.add(e); indexEnrollment(e); linkCoEnrollment(mine,e,1); wl.offer(e); catalogChanges.record(courseId); journalEnrollment(Journal.ENROLL,e); op="waitlist"; }
+            }
+        }
+        // 以下均在座位 CAS 之外：日志、补位、与并发删课的收尾
+        log(op,userId,courseId,null);
+        if(c!=null && !Enrollment.CONFLICT.equals(op) && courses.get(courseId)!=c){ abortDeleted(mine,e,c); return e; }
+        if(c!=null && Enrollment.WAITLIST.equals(op)) fillFromWaitlist(c);
+        return e;
+    }
+    // 写入期间课程被删除：撤销本次记录并置为 aborted，避免留下孤立选课；
+    // computeIfAbsent 可能在删课之后重建了候补队列，课程仍不存在时一并移除（座位随课程对象一起丢弃，无需归还）
+    private static void abortDeleted(List<Enrollment> mine,Enrollment e,Course c){
+        synchronized(mine){ if(mine.remove(e)){ linkCoEnrollment(mine,e,-1); journalEnrollment(Journal.DROP,e); } scheduleByUser.remove(e.userId); }
+        unindexEnrollment(e);
+        e.getAndSetStatus(Enrollment.ABORTED);
+        WaitQueue wl=waitlistByCourse.get(c.id);
+        if(wl!=null && !courses.containsKey(c.id)) waitlistByCourse.remove(c.id,wl);
+        log("abort_deleted",e.userId,c.id,null);
+    }
+    // 批量选课：
+    /** 学生一次提交多门课程（整张计划课表），在同一次用户级互斥内完成校验与写入
+     * - 按提交顺序逐门检测冲突：既与已选课程比较，也与本批中排在前面的课程比较
+     * - 座位按课程ID的规范顺序依次 CAS 占用；两个批次争抢同几门课的最后座位时总在同一门课上分出先后，
+     *   不会各占一部分后双双失败
+     * - atomic=false：每门课独立处理，结果与逐门调用 enroll 相同（enrolled/waitlist/conflict）
+     * - atomic=true：只有全部课程都能直接选上才写入；否则归还已占座位，不写入任何记录，
+     *   失败原因为 conflict/full，其余课程返回 aborted
+     * @param userId 学生ID
+     * @param courseIds 课程ID列表（重复的ID只处理第一次）
+     * @param atomic 是否全部成功才提交
+     * @return 与去重后的 courseIds 一一对应的记录（不含 null，courseId 即对应的课程ID）；课程不存在的位置 status=not_found（不写入）；已有记录时返回原记录
+     * 边界：日志、候补补位与并发删课的收尾在互斥之外逐门进行，与 enroll 一致；
+     *   atomic 撤销时归还的座位也在互斥之外交给候补队首（占座期间并发的 enroll 可能因无座位进入了候补）
+     */
+    public static List<Enrollment> enrollBatch(String userId,List<String> courseIds,boolean atomic){
+        List<String> ids=new ArrayList<>(new LinkedHashSet<>(courseIds)); int n=ids.size();
+        Enrollment[] out=new Enrollment[n]; Course[] cs=new Course[n]; WaitQueue[] wls=new WaitQueue[n]; boolean[] seat=new boolean[n], dup=new boolean[n];
+        List<Enrollment> mine=userEnrollments(userId);
+        boolean ok=true; int full=-1;
+        synchronized(mine){
+            Map<String,Enrollment> existing=new HashMap<>(); for(Enrollment x: mine) existing.putIfAbsent(x.courseId,x);
+            // 第一遍（提交顺序）：已有记录、课程存在性、与已选课程及本批前序课程的时间冲突
+            WeekMask mask=userMask(userId);
+            for(int i=0;i<n;i++){
+                Enrollment x=existing.get(ids.get(i));
+                if(x!=null){ out[i]=x; dup[i]=true; if(!Enrollment.ENROLLED.equals(x.status)) ok=false; continue; }
+                Course c=courses.get(ids.get(i)); if(c==null){ out[i]=new Enrollment(userId,ids.get(i),Enrollment.NOT_FOUND); ok=false; continue; }
+                if(mask.intersects(c.mask)){ out[i]=new Enrollment(userId,c.id,Enrollment.CONFLICT); ok=false; continue; }
+                mask=mask.or(c.mask); cs[i]=c;
+            }
+            // 第二遍（课程ID顺序）：占座；atomic 模式下第一遍已失败则不再触碰座位
+            if(ok || !atomic){
+                Integer[] order=new Integer[n]; for(int i=0;i<n;i++) order[i]=i;
+                Arrays.sort(order,(x,y)->ids.get(x).compareTo(ids.get(y)));
+                for(int i: order){
+                    Course c=cs[i]; if(c==null) continue;
+                    wls[i]=waitlistByCourse.computeIfAbsent(c.id,k->new WaitQueue());
+                    seat[i]=wls[i].isEmpty() && c.tryReserve();
+                    if(!seat[i] && atomic){ ok=false; full=i; break; }
+                }
+            }
+            if(atomic && !ok){
+                for(int i=0;i<n;i++) if(cs[i]!=null){ if(seat[i]) cs[i].release(); out[i]=new Enrollment(userId,cs[i].id,i==full? Enrollment.FULL: Enrollment.ABORTED); }
+            } else {
+                List<Enrollment> added=new ArrayList<>(n);
+                for(int i=0;i<n;i++) if(cs[i]!=null){ out[i]=new Enrollment(userId,cs[i].id,seat[i]? Enrollment.ENROLLED: Enrollment.WAITLIST); added.add(out[i]); }
+                mine.addAll(added); // 写时复制列表：整批只复制一次
+                for(int i=0;i<n;i++){
+                    Course c=cs[i]; if(c==null) continue;
+                    Enrollment e=out[i]; indexEnrollment(e); linkCoEnrollment(mine,e,1);
+                    if(seat[i]) extendSchedule(userId,c); else { wls[i].offer(e); catalogChanges.record(c.id); }
+                    journalEnrollment(Journal.ENROLL,e);
+                }
+            }
+        }
+        // 以下在互斥之外：日志、补位、与并发删课的收尾（同 enroll）
+        boolean committed=ok || !atomic;
+        for(int i=0;i<n;i++){
+            Enrollment e=out[i]; if(Enrollment.NOT_FOUND.equals(e.status)) continue;
+            String op=dup[i]? "duplicate_enroll": Enrollment.ENROLLED.equals(e.status)? "enroll": e.status;
+            log(op,userId,e.courseId,"batch");
+            Course c=cs[i]; if(c==null) continue;
+            if(!committed){ if(seat[i]) fillFromWaitlist(c); continue; } // 已归还的座位
+            if(courses.get(c.id)!=c){ abortDeleted(mine,e,c); continue; }
+            if(!seat[i]) fillFromWaitlist(c);
+        }
+        return Arrays.asList(out);
     }
     // 退课：
     /** 学生退课（并发安全）
@@ -244,30 +627,62 @@ public final class Db {
      * @return 是否成功退课
      * 边界与并发：
      * - 若用户存在该课程的多条记录，只删除第一条匹配
-     * - 仅当删除的是已选记录时减少课程已选数与触发候补转正
+     * - 已选记录退课时座位直接交给候补队首（不归还再抢），候补队列为空时才归还座位
+     * - 记录状态在用户级互斥内、写 DROP 日志之前置为 dropped：并发的候补转正（同样在该互斥内 CAS）要么先完成（日志中 PROMOTE 在 DROP 之前），
+     *   要么 CAS 失败，不会在 DROP 之后再写出 PROMOTE
      */
     public static boolean drop(String userId,String courseId){
-        List<Enrollment> list=enrollmentsByUser.getOrDefault(userId, new ArrayList<>()); boolean removed=false; String removedStatus=null; Iterator<Enrollment> it=list.iterator(); while(it.hasNext()){Enrollment e=it.next(); if(e.courseId.equals(courseId)){removed=true; removedStatus=e.status; it.remove(); break;}}
-        Course c=courses.get(courseId); if(c!=null && removed){ courseLocks.putIfAbsent(courseId,new ReentrantLock()); ReentrantLock lock=courseLocks.get(courseId); lock.lock(); try{ if("enrolled".equals(removedStatus) && c.enrolled>0) c.enrolled--; if("enrolled".equals(removedStatus)){ List<String> wl=waitlistByCourse.getOrDefault(courseId,new ArrayList<>()); if(!wl.isEmpty()){ String next=wl.remove(0); List<Enrollment> en=enrollmentsByUser.getOrDefault(next,new ArrayList<>()); for(Enrollment e: en){ if(e.courseId.equals(courseId) && "waitlist".equals(e.status)){ e.status="enrolled"; c.enrolled++; log("promote:"+next+":"+courseId); break; } } } } } finally { lock.unlock(); } }
-        return removed;
+        List<Enrollment> mine=enrollmentsByUser.get(userId); if(mine==null) return false;
+        Enrollment removed=null; String prev=null;
+        synchronized(mine){
+            for(Enrollment e: mine){ if(e.courseId.equals(courseId)){ removed=e; break; } }
+            if(removed!=null){ mine.remove(removed); linkCoEnrollment(mine,removed,-1); scheduleByUser.remove(userId); prev=removed.getAndSetStatus(Enrollment.DROPPED); journalEnrollment(Journal.DROP,removed); }
+        }
+        if(removed==null) return false;
+        unindexEnrollment(removed);
+        log("drop",userId,courseId,null);
+        Course c=courses.get(courseId);
+        if(c!=null && Enrollment.ENROLLED.equals(prev)){ if(!transferSeat(c)){ c.release(); fillFromWaitlist(c); } }
+        else if(Enrollment.WAITLIST.equals(prev)){ WaitQueue wl=waitlistByCourse.get(courseId); if(wl!=null && wl.cancel(removed)) catalogChanges.record(courseId); }
+        return true;
     }
     /** 我的选课列表
      * @param userId 学生ID
      * @return 该用户的选课记录列表
      */
-    public static List<Enrollment> listUserEnrollments(String userId){ return new ArrayList<>(enrollmentsByUser.getOrDefault(userId,new ArrayList<>())); }
+    public static List<Enrollment> listUserEnrollments(String userId){ return new ArrayList<>(enrollmentsByUser.getOrDefault(userId,Collections.emptyList())); }
+
+    /** 我的候补排名
+     * @param userId 学生ID
+     * @return 每门候补课程一项：courseId/name/position（1 为队首）/length（当前排队人数）
+     * 边界：排名为查询瞬间的快照；记录恰好被转正或取消时不返回该项
+     */
+    public static List<Map<String,Object>> waitlistStatus(String userId){
+        List<Map<String,Object>> out=new ArrayList<>();
+        for(Enrollment e: enrollmentsByUser.getOrDefault(userId, Collections.emptyList())){
+            if(!Enrollment.WAITLIST.equals(e.status)) continue;
+            WaitQueue wl=waitlistByCourse.get(e.courseId); if(wl==null) continue;
+            int pos=wl.position(e); if(pos<0) continue;
+            Course c=courses.get(e.courseId);
+            Map<String,Object> m=new HashMap<>(); m.put("courseId", e.courseId); m.put("name", c!=null? c.name: null); m.put("position", pos); m.put("length", wl.size()); out.add(m);
+        }
+        return out;
+    }
 
     // 课表：将选课转换为日历事件（简化格式）
     /** 课表事件生成
-     * 将用户的已选课程映射为简化的日历事件
+     * 将用户的已选课程映射为简化的日历事件，按星期、开始小时排序（星期序号取自课表位图的解析规则）
      * @param userId 学生ID
      * @return 事件列表（title/day/start/end）；仅包含 status=enrolled 的记录
-     * 边界：同一课程的多个时间片会生成多条事件；重复选课会导致重复事件
+     * 边界：同一课程的多个时间片会生成多条事件；无法识别的星期排在最后
      */
     public static List<Map<String,Object>> calendar(String userId){
-        List<Map<String,Object>> events=new ArrayList<>();
-        for(Enrollment e: listUserEnrollments(userId)){ if(!"enrolled".equals(e.status)) continue; Course c=courses.get(e.courseId); if(c==null) continue; for(TimeSlot t: c.times){ Map<String,Object> ev=new HashMap<>(); ev.put("title", c.name); ev.put("day", t.day); ev.put("start", t.start); ev.put("end", t.end); events.add(ev); } }
-        return events;
+        List<Map<String,Object>> events=new ArrayList<>(); List<Integer> keys=new ArrayList<>();
+        for(Enrollment e: enrollmentsByUser.getOrDefault(userId, Collections.emptyList())){ if(!Enrollment.ENROLLED.equals(e.status)) continue; Course c=courses.get(e.courseId); if(c==null) continue; for(TimeSlot t: c.times){ Map<String,Object> ev=new HashMap<>(); ev.put("title", c.name); ev.put("day", t.day); ev.put("start", t.start); ev.put("end", t.end); int d=WeekMask.dayIndex(t.day); keys.add((d<0? 7: d)*32+Math.max(0,Math.min(31,t.start))); events.add(ev); } }
+        Integer[] order=new Integer[events.size()]; for(int i=0;i<order.length;i++) order[i]=i;
+        Arrays.sort(order,(x,y)->Integer.compare(keys.get(x),keys.get(y)));
+        List<Map<String,Object>> out=new ArrayList<>(order.length); for(int i: order) out.add(events.get(i));
+        return out;
     }
 
     // 成绩：在写入成绩时冗余记录课程名
@@ -278,52 +693,349 @@ public final class Db {
      */
     public static void setGrade(String userId,String courseId,double score){
         double s = score; if(s < 0) s = 0; if(s > 100) s = 100;
-        Grade g=new Grade(); g.userId=userId; g.courseId=courseId; g.score=s; Course c=courses.get(courseId); g.courseName=(c!=null? c.name: null); gradesByUser.computeIfAbsent(userId,k->new ArrayList<>()).add(g); log("grade:"+userId+":"+courseId+":"+s);
+        Grade g=new Grade(); g.userId=userId; g.courseId=courseId; g.score=s; g.seq=gradeSeq.incrementAndGet(); Course c=courses.get(courseId); g.courseName=(c!=null? c.name: null); List<Grade> gs=gradesByUser.computeIfAbsent(userId,k->new ArrayList<>()); synchronized(gs){ gs.add(g); } gradesByCourse.computeIfAbsent(courseId,k->ConcurrentHashMap.newKeySet()).add(g);
+        if(journal!=null) journal(new Journal.Record(Journal.GRADE).i64(g.seq).str(userId).str(courseId).f64(s).str(g.courseName)); log("grade",userId,courseId,String.valueOf(s));
+    }
+    /** 批量写入成绩（导入用）：按用户分组，每个用户只进入一次其成绩列表的监视器
+     * - 同一用户同一课程只保留一条成绩：已有则整条替换（含本批中靠前的同课程行），不再追加重复记录
+     * - 用户或课程不存在的行不写入；分数越界截断到 0-100
+     * @param rows 成绩行（只使用 userId/courseId/score）
+     * @return 与 rows 一一对应的结果：Grade.APPLIED/CLAMPED/UNKNOWN_USER/UNKNOWN_COURSE
+     * 边界：每行各写一条预写日志记录（重放时同样按替换处理），操作日志每批只记一条
+     */
+    public static List<String> setGrades(List<Grade> rows){
+        String[] out=new String[rows.size()];
+        Map<String,List<Integer>> byUser=new LinkedHashMap<>();
+        for(int i=0;i<out.length;i++){
+            Grade r=rows.get(i);
+            if(!users.containsKey(r.userId)) out[i]=Grade.UNKNOWN_USER;
+            else if(!courses.containsKey(r.courseId)) out[i]=Grade.UNKNOWN_COURSE;
+            else byUser.computeIfAbsent(r.userId,k->new ArrayList<>()).add(i);
+        }
+        int applied=0;
+        for(Map.Entry<String,List<Integer>> en: byUser.entrySet()){
+            List<Grade> gs=gradesByUser.computeIfAbsent(en.getKey(),k->new ArrayList<>());
+            synchronized(gs){
+                for(int i: en.getValue()){
+                    Grade r=rows.get(i); double sc=Math.max(0,Math.min(100,r.score));
+                    Course c=courses.get(r.courseId);
+                    Grade g=new Grade(); g.userId=r.userId; g.courseId=r.courseId; g.score=sc; g.courseName=c!=null? c.name: null; g.seq=gradeSeq.incrementAndGet();
+                    replaceGrade(gs,g);
+                    if(journal!=null) journal(new Journal.Record(Journal.GRADE_SET).i64(g.seq).str(g.userId).str(g.courseId).f64(sc).str(g.courseName));
+                    out[i]=sc==r.score? Grade.APPLIED: Grade.CLAMPED; applied++;
+                }
+            }
+        }
+        log("grades_import",null,null,"applied="+applied+",rejected="+(out.length-applied));
+        return Arrays.asList(out);
+    }
+    // 替换同一课程的已有成绩（调用方持有 gs 的监视器）：移除 seq 更小的同课程记录后加入 g
+    private static void replaceGrade(List<Grade> gs,Grade g){
+        for(Iterator<Grade> it=gs.iterator();it.hasNext();){
+            Grade o=it.next();
+            if(o.courseId.equals(g.courseId) && o.seq<g.seq){ it.remove(); Set<Grade> byCourse=gradesByCourse.get(o.courseId); if(byCourse!=null) byCourse.remove(o); }
+        }
+        gs.add(g); gradesByCourse.computeIfAbsent(g.courseId,k->ConcurrentHashMap.newKeySet()).add(g);
     }
     /** 查询学生成绩
      * @param userId 学生ID
      * @return 成绩列表（可能为空）
      * 边界：返回列表为当前快照；未保证排序稳定性
      */
-    public static List<Grade> getGrades(String userId){ return new ArrayList<>(gradesByUser.getOrDefault(userId,new ArrayList<>())); }
+    public static List<Grade> getGrades(String userId){ List<Grade> gs=gradesByUser.get(userId); if(gs==null) return new ArrayList<>(); synchronized(gs){ return new ArrayList<>(gs); } }
 
-    // 简单推荐：按照课程被选次数（热度）排序，过滤掉已经选过的课程
+    /** 逐条遍历成绩（导出用，不复制整个成绩集合）
+     * @param courseId 只遍历该课程的成绩；null 表示全部课程
+     * @param action 对每条成绩调用
+     * 边界：遍历课程反向索引（并发集合，弱一致），遍历期间的并发写入可能可见也可能不可见；顺序不保证
+     */
+    public static void forEachGrade(String courseId,java.util.function.Consumer<Grade> action){
+        if(courseId!=null){ Set<Grade> gs=gradesByCourse.get(courseId); if(gs!=null) for(Grade g: gs) action.accept(g); return; }
+        for(Set<Grade> gs: gradesByCourse.values()) for(Grade g: gs) action.accept(g);
+    }
+
+    // 推荐：先按共选邻居打分，再按热度补齐；均过滤已选/候补与时间冲突的课程
     /** 课程推荐
-     * 排除该用户已选与候补课程，按课程“热度”（被选次数）降序；热度相同按课程名升序、ID 升序稳定化
      * @param userId 学生ID
+     * @return 推荐课程列表（不限条数）
+     */
+    public static List<Course> recommend(String userId){ return recommend(userId,0); }
+    /** 课程推荐（取前 N 条）
+     * - 共选：累加该用户每门课程的预计算邻居相似度，得分高者优先
+     * - 热度：共选候选不足时顺序读取热度排行补齐（热度相同按课程名、ID 稳定排序）
+     * - 过滤：排除已选与候补课程，以及与已选课表时间冲突的课程
+     * @param userId 学生ID
+     * @param limit 最多返回条数；&lt;=0 表示不限
      * @return 推荐课程列表
+     * 边界：邻居列表由后台定期重算，刚发生的选课要到下一次重算后才影响共选推荐；
+     *   启动恢复后共选矩阵在后台重建，完成前只按热度推荐
      */
-    public static List<Course> recommend(String userId){
-        Map<String,Integer> popularity=new HashMap<>(); for(List<Enrollment> list: enrollmentsByUser.values()) for(Enrollment e:list){ popularity.put(e.courseId, popularity.getOrDefault(e.courseId,0)+1); }
-        Set<String> taken=new HashSet<>(); for(Enrollment e: enrollmentsByUser.getOrDefault(userId,new ArrayList<>())) taken.add(e.courseId);
-        List<Course> out=new ArrayList<>(); for(Course c: courses.values()) if(!taken.contains(c.id)) out.add(c);
-        out.sort((a,b)->{
-            int pb = popularity.getOrDefault(b.id,0);
-            int pa = popularity.getOrDefault(a.id,0);
-            int cmp = Integer.compare(pb, pa);
-            if(cmp != 0) return cmp;
-            cmp = a.name.compareTo(b.name);
-            if(cmp != 0) return cmp;
-            return a.id.compareTo(b.id);
+    public static List<Course> recommend(String userId,int limit){
+        List<Enrollment> mine=enrollmentsByUser.getOrDefault(userId,Collections.emptyList());
+        Set<String> taken=new HashSet<>(); for(Enrollment e: mine) taken.add(e.courseId);
+        WeekMask busy=WeekMask.EMPTY; if(!mine.isEmpty()) synchronized(mine){ busy=userMask(userId); }
+        Map<String,Double> score=new HashMap<>();
+        if(coEnrollmentReady) for(String cid: taken) for(CoEnrollment.Neighbour n: coEnrollment.neighbours(cid)) if(!taken.contains(n.courseId)) score.merge(n.courseId, n.score, Double::sum);
+        List<Map.Entry<String,Double>> ranked=new ArrayList<>(score.entrySet());
+        ranked.sort((x,y)->Double.compare(y.getValue(),x.getValue()));
+        List<Course> out=new ArrayList<>(); Set<String> picked=new HashSet<>();
+        final WeekMask mask=busy;
+        for(Map.Entry<String,Double> en: ranked){
+            if(limit>0 && out.size()>=limit) return out;
+            Course c=courses.get(en.getKey()); if(c==null || mask.intersects(c.mask)) continue;
+            out.add(c); picked.add(c.id);
+        }
+        popularity.forEachRanked(id->{
+            if(limit>0 && out.size()>=limit) return false;
+            if(taken.contains(id) || picked.contains(id)) return true;
+            Course c=courses.get(id); if(c!=null && !mask.intersects(c.mask)) out.add(c);
+            return true;
         });
         return out;
     }
 
     // 系统统计：用户数量、课程数量、选课总数
     /** 系统统计
-     * @return Map：users/courses/enrollments
-     * 边界：选课总数包含已选与候补记录；不区分状态
+     * @return Map：users/courses/enrollments/droppedLogs（因日志缓冲满被丢弃的条数）
+     * 边界：选课总数包含已选与候补记录；不区分状态；由计数器维护，无需遍历全部用户
      */
     public static Map<String,Object> stats(){
-        Map<String,Object> s=new HashMap<>(); s.put("users", users.size()); s.put("courses", courses.size()); int totalEnroll=0; for(List<Enrollment> l: enrollmentsByUser.values()) totalEnroll+=l.size(); s.put("enrollments", totalEnroll); return s;
+        Map<String,Object> s=new HashMap<>(); s.put("users", users.size()); s.put("courses", courses.size()); s.put("enrollments", enrollmentTotal.get()); s.put("droppedLogs", opLog.dropped()); return s;
+    }
+
+    /** 启动后台任务：操作日志追加线程与共选邻居定期重算；已启动时什么也不做
+     * 边界：open 与 seed 会自动调用；启动前记录的操作日志留在缓冲中（满则丢弃计数），启动后写入历史；shutdown 之后可再次调用
+     */
+    public static synchronized void start(){
+        opLog.open();
+        if(background!=null) return;
+        background=Executors.newSingleThreadScheduledExecutor(r->{ Thread t=new Thread(r,"db-background"); t.setDaemon(true); return t; });
+        background.scheduleWithFixedDelay(()->{
+            try { if(coEnrollmentReady) coEnrollment.recompute(ForkJoinPool.commonPool(), courses::containsKey, popularity::count); }
+            catch (RuntimeException e) { System.out.println("共选邻居重算失败："+e); }
+        }, COENROLL_REFRESH_MS, COENROLL_REFRESH_MS, TimeUnit.MILLISECONDS);
+    }
+
+    /** 打开数据目录：操作日志持久化到 dataDir/oplog 下的段文件；用户/课程/选课/成绩由 dataDir/db 下的快照与预写日志恢复，
+     * 此后的变更都写入预写日志
+     * @param dataDir 数据目录（不存在时创建）
+     * @param logRetentionDays 日志保留天数（<=0 取 14）
+     * @param logMaxMB 日志段文件总大小上限（MB，<=0 取 1024）；超出时即使未到保留期也从最旧的段删起
+     * @throws java.io.IOException 目录无法创建或读取
+     * 边界：应在 seed 之前、写入任何数据之前调用一次；恢复出数据后 seed 不再注入示例数据
+     */
+    public static void open(java.io.File dataDir,int logRetentionDays,int logMaxMB) throws java.io.IOException {
+        long days=logRetentionDays>0? logRetentionDays: 14, mb=logMaxMB>0? logMaxMB: 1024;
+        start();
+        opLog.attach(LogStore.open(new java.io.File(dataDir,"oplog"), TimeUnit.DAYS.toMillis(days), mb<<20));
+        recover(new java.io.File(dataDir,"db"));
+    }
+
+    /** 停止后台任务（容器关闭/重新部署时调用），可重复调用；之后可再次 start
+     * 已打开数据目录时：有未进入快照的变更则先写一次快照，再刷盘并关闭预写日志；最后排空操作日志并等待追加线程退出
+     */
+    public static synchronized void shutdown(){
+        if(background!=null){
+            background.shutdownNow();
+            try { background.awaitTermination(5, TimeUnit.SECONDS); } catch (InterruptedException ex) { Thread.currentThread().interrupt(); } // 等待进行中的定期快照结束
+            background=null;
+        }
+        Journal j=journal;
+        if(j!=null){
+            try { if(j.lastLsn()>lastSnapshotLsn) snapshot(); } catch (IOException ex) { System.out.println("关闭前快照失败："+ex); }
+            journal=null; j.close();
+        }
+        opLog.close();
+    }
+
+    /** 立即写一次全量快照，并截断已被快照覆盖的预写日志
+     * @return 快照覆盖到的 LSN
+     * @throws IOException 写入失败（原有快照与日志保持不变）
+     * @throws IllegalStateException 未打开数据目录
+     * 边界：快照期间不阻塞读写；并发变更的日志记录 LSN 均大于返回值，恢复时会在快照之上重放
+     */
+    public static long snapshot() throws IOException {
+        Journal j=journal; if(j==null) throw new IllegalStateException("未打开数据目录");
+        synchronized(snapshotLock){
+            long lsn=j.roll();
+            Iterable<Enrollment> es=()->enrollmentsByUser.values().stream().flatMap(List::stream).iterator();
+            Iterable<Grade> gs=()->gradesByUser.values().stream().flatMap(l->{ synchronized(l){ return new ArrayList<>(l).stream(); } }).iterator();
+            Snapshot.write(dbDir, lsn, gradeSeq.get(), users.values(), courses.values(), es, gs);
+            // 保留最近两个快照：最新快照损坏时可退回上一个，日志也只截断到上一个快照
+            j.truncate(Snapshot.prune(dbDir,2));
+            lastSnapshotLsn=lsn; lastSnapshotAt=System.currentTimeMillis();
+            return lsn;
+        }
+    }
+    // 后台定期检查：日志积累足够多或距上次快照足够久时写快照
+    private static void maybeSnapshot(){
+        Journal j=journal; if(j==null) return;
+        long pending=j.lastLsn()-lastSnapshotLsn;
+        if(pending>=SNAPSHOT_RECORDS || (pending>0 && System.currentTimeMillis()-lastSnapshotAt>=SNAPSHOT_MAX_AGE_MS)){
+            try { snapshot(); } catch (IOException ex) { System.out.println("定期快照失败："+ex); }
+        }
+    }
+
+    // 恢复：读取最新快照，再按 LSN 重放其后的日志记录；重放只写入主数据（用户/课程/选课/成绩），
+    // 座位计数、反向索引、热度、共选矩阵与候补队列在最后统一重建
+    private static void recover(java.io.File dir) throws IOException {
+        if(!users.isEmpty() || !courses.isEmpty()) throw new IllegalStateException("open 必须在写入任何数据之前调用");
+        long[] snap=Snapshot.loadLatest(dir, new Snapshot.Loader(){
+            @Override public void user(String id,String username,String password,String role,String email){ applyUser(id,username,password,role,email); }
+            @Override public void course(String id,String name,int credit,int capacity,List<TimeSlot> times){ applyCourse(id,name,credit,capacity,times); }
+            // 快照中每个用户的记录整体到达：直接建好列表（可能在多个线程上并发调用）
+            @Override public void enrollments(String userId,Enrollment[] es){
+                List<Enrollment> keep=new ArrayList<>(es.length); for(Enrollment e: es) if(courses.containsKey(e.courseId)) keep.add(e);
+                if(!keep.isEmpty()) enrollmentsByUser.put(userId,new CopyOnWriteArrayList<>(keep));
+            }
+            @Override public void grades(String userId,Grade[] gs){
+                long max=0; for(Grade g: gs) max=Math.max(max,g.seq);
+                gradesByUser.put(userId,new ArrayList<>(Arrays.asList(gs))); gradeSeq.accumulateAndGet(max,Math::max);
+            }
+        }, Db::clearData);
+        long lsn=snap!=null? snap[0]: 0;
+        if(snap!=null) gradeSeq.accumulateAndGet(snap[1],Math::max);
+        replayDeleted.clear();
+        long last=Journal.replay(dir, lsn, Db::applyRecord);
+        purgeDeleted();
+        rebuildDerived(); catalogChanges.record(null);
+        dbDir=dir; lastSnapshotLsn=lsn; lastSnapshotAt=System.currentTimeMillis();
+        journal=Journal.open(dir,last);
+        background.scheduleWithFixedDelay(Db::maybeSnapshot, SNAPSHOT_CHECK_MS, SNAPSHOT_CHECK_MS, TimeUnit.MILLISECONDS);
+    }
+    // 包内可见：测试用 Journal.replay 直接重放构造的日志
+    static void applyRecord(Journal.Reader r){
+        switch(r.type){
+            case Journal.USER: applyUser(r.str(),r.str(),r.str(),r.str(),r.str()); break;
+            case Journal.PASSWORD: { User u=users.get(r.str()); String pwd=r.str(); if(u!=null) u.password=pwd; break; }
+            case Journal.COURSE: {
+                String id=r.str(), name=r.str(); int credit=r.i32(), cap=r.i32(), n=r.i32();
+                List<TimeSlot> ts=new ArrayList<>(n);
+                for(int i=0;i<n;i++){ TimeSlot t=new TimeSlot(r.str(),r.i32(),r.i32()); t.date=r.str(); ts.add(t); }
+                applyCourse(id,name,credit,cap,ts); break;
+            }
+            case Journal.COURSE_DELETE: { String id=r.str(); if(courses.remove(id)!=null) replayDeleted.add(id); break; } // 级联清理在重放结束后统一进行
+            case Journal.ENROLL: { // 早期日志的候补记录不带入队键，以 LSN 代替
+                String userId=r.str(), courseId=r.str(), status=r.str();
+                applyEnrollment(userId,courseId,status,r.more()? r.i64(): r.lsn); break;
+            }
+            case Journal.PROMOTE: applyPromote(r.str(),r.str()); break;
+            case Journal.DROP: { List<Enrollment> l=enrollmentsByUser.get(r.str()); String cid=r.str(); if(l!=null) l.removeIf(e->e.courseId.equals(cid)); break; }
+            case Journal.GRADE: applyGrade(r.i64(),r.str(),r.str(),r.f64(),r.str()); break;
+            case Journal.GRADE_SET: {
+                long seq=r.i64(); String userId=r.str(), courseId=r.str(); double score=r.f64(); String name=r.str();
+                List<Grade> gs=gradesByUser.computeIfAbsent(userId,k->new ArrayList<>());
+                // 已有同课程且 seq 不小于本条的成绩（快照或先前重放已反映本条或更晚的写入）时跳过
+                boolean stale=false; for(Grade g: gs) if(g.courseId.equals(courseId) && g.seq>=seq){ stale=true; break; }
+                if(!stale){ Grade g=new Grade(); g.seq=seq; g.userId=userId; g.courseId=courseId; g.score=score; g.courseName=name; gs.removeIf(o->o.courseId.equals(courseId) && o.seq<seq); gs.add(g); gradeSeq.accumulateAndGet(seq,Math::max); }
+                break;
+            }
+            default: System.out.println("未知日志记录类型："+r.type+" @"+r.lsn);
+        }
+    }
+    // 以下 apply* 均为幂等写入：快照之后的日志可能已部分反映在快照中
+    private static void applyUser(String id,String username,String password,String role,String email){
+        User u=new User(id,username,password,role,email); users.put(id,u); usersByName.put(username,u); usersByFoldedName.putIfAbsent(fold(username),u);
+    }
+    private static void applyCourse(String id,String name,int credit,int capacity,List<TimeSlot> times){
+        Course c=courses.get(id);
+        if(c==null) courses.put(id,new Course(id,name,credit,capacity,times));
+        else { c.name=name; c.credit=credit; c.capacity=capacity; c.times=times; c.mask=WeekMask.of(times); }
+    }
+    // 重放中被删除的课程：逐条删除时不扫描全部用户，重放结束后按该集合一次性清理选课与成绩（课程ID不会复用）
+    private static final Set<String> replayDeleted=new HashSet<>();
+    private static void purgeDeleted(){
+        if(replayDeleted.isEmpty()) return;
+        List<List<Enrollment>> es=new ArrayList<>(enrollmentsByUser.values());
+        List<List<Grade>> gs=new ArrayList<>(gradesByUser.values());
+        Parallel.forRange(es.size(),(from,to)->{ for(int i=from;i<to;i++) es.get(i).removeIf(e->replayDeleted.contains(e.courseId)); });
+        Parallel.forRange(gs.size(),(from,to)->{ for(int i=from;i<to;i++) gs.get(i).removeIf(g->replayDeleted.contains(g.courseId)); });
+        replayDeleted.clear();
+    }
+    private static void applyEnrollment(String userId,String courseId,String status,long waitOrder){
+        if(!courses.containsKey(courseId)) return;
+        List<Enrollment> mine=userEnrollments(userId);
+        for(Enrollment e: mine) if(e.courseId.equals(courseId)){ e.status=status; e.waitOrder=waitOrder; return; }
+        if(Enrollment.ENROLLED.equals(status) || Enrollment.WAITLIST.equals(status)){ Enrollment e=new Enrollment(userId,courseId,status); e.waitOrder=waitOrder; mine.add(e); }
+    }
+    // 转正只作用于仍在候补的已有记录：记录已被退掉（不存在）时不新建，已是 enrolled 时不变
+    private static void applyPromote(String userId,String courseId){
+        List<Enrollment> mine=enrollmentsByUser.get(userId); if(mine==null) return;
+        for(Enrollment e: mine) if(e.courseId.equals(courseId)){ if(Enrollment.WAITLIST.equals(e.status)) e.status=Enrollment.ENROLLED; return; }
+    }
+    private static void applyGrade(long seq,String userId,String courseId,double score,String courseName){
+        List<Grade> gs=gradesByUser.computeIfAbsent(userId,k->new ArrayList<>());
+        for(Grade g: gs) if(g.seq==seq) return;
+        Grade g=new Grade(); g.seq=seq; g.userId=userId; g.courseId=courseId; g.score=score; g.courseName=courseName; gs.add(g);
+        gradeSeq.accumulateAndGet(seq,Math::max);
+    }
+    private static void clearData(){
+        users.clear(); usersByName.clear(); usersByFoldedName.clear(); courses.clear(); enrollmentsByUser.clear(); gradesByUser.clear(); courseIndex.clear();
+    }
+    // 由主数据重建派生结构：座位计数、课程反向索引与选课总数、热度、候补队列（按 waitOrder 排序），共选矩阵转到后台重建
+    // 先按用户切分并行扫描，各子任务把记录按课程归到本地分组；合并分组后再按课程并行建索引，课程间互不共享可变状态
+    private static void rebuildDerived(){
+        List<List<Enrollment>> lists=new ArrayList<>(enrollmentsByUser.values());
+        String[][] groups=new String[lists.size()][]; // 每个用户的课程ID，供共选矩阵批量登记
+        Queue<Map<String,List<Enrollment>>> parts=new ConcurrentLinkedQueue<>();
+        Parallel.forRange(lists.size(),(from,to)->{
+            Map<String,List<Enrollment>> local=new HashMap<>();
+            for(int u=from;u<to;u++){
+                List<Enrollment> mine=lists.get(u); String[] ids=new String[mine.size()]; int n=0;
+                for(Enrollment e: mine){
+                    if(!courses.containsKey(e.courseId)) continue;
+                    local.computeIfAbsent(e.courseId,k->new ArrayList<>()).add(e); ids[n++]=e.courseId;
+                }
+                groups[u]=n==ids.length? ids: Arrays.copyOf(ids,n);
+            }
+            parts.add(local);
+        });
+        Map<String,List<List<Enrollment>>> byCourse=new HashMap<>();
+        for(Map<String,List<Enrollment>> local: parts) for(Map.Entry<String,List<Enrollment>> en: local.entrySet()) byCourse.computeIfAbsent(en.getKey(),k->new ArrayList<>()).add(en.getValue());
+        List<Course> all=new ArrayList<>(courses.values());
+        Parallel.forRange(all.size(),16,(from,to)->{
+            for(int i=from;i<to;i++){
+                Course c=all.get(i); List<List<Enrollment>> chunks=byCourse.get(c.id); c.enrolled=0;
+                if(chunks==null) continue;
+                int size=0; for(List<Enrollment> l: chunks) size+=l.size();
+                Set<Enrollment> set=ConcurrentHashMap.newKeySet(size); List<Enrollment> waiting=new ArrayList<>(); int enrolled=0;
+                for(List<Enrollment> l: chunks) for(Enrollment e: l){ set.add(e); if(Enrollment.ENROLLED.equals(e.status)) enrolled++; else waiting.add(e); }
+                c.enrolled=enrolled; enrollmentsByCourse.put(c.id,set);
+                if(!waiting.isEmpty()){
+                    waiting.sort((x,y)->Long.compare(x.waitOrder,y.waitOrder));
+                    WaitQueue wl=waitlistByCourse.computeIfAbsent(c.id,k->new WaitQueue());
+                    for(Enrollment e: waiting) wl.restore(e);
+                }
+            }
+        });
+        int total=0;
+        for(Course c: all){ Set<Enrollment> es=enrollmentsByCourse.get(c.id); int n=es==null? 0: es.size(); total+=n; popularity.add(c.id,c.name,n); courseIndex.put(c); }
+        enrollmentTotal.set(total);
+        rebuildCoEnrollment(Arrays.asList(groups));
+        List<List<Grade>> grades=new ArrayList<>(gradesByUser.values());
+        Parallel.forRange(grades.size(),(from,to)->{
+            for(int i=from;i<to;i++) for(Grade g: grades.get(i)) gradesByCourse.computeIfAbsent(g.courseId,k->ConcurrentHashMap.newKeySet()).add(g);
+        });
+    }
+
+    // 共选矩阵交给后台线程批量登记，不占启动时间；此后的选课/退课照常增量 pair，与批量登记的计数可相加，
+    // 期间删除的课程会被批量登记重新建出行，登记完成后的重算发现课程已不存在再移除
+    private static void rebuildCoEnrollment(List<String[]> groups){
+        coEnrollmentReady=false;
+        background.execute(()->{
+            try { coEnrollment.addAll(groups); coEnrollment.recompute(ForkJoinPool.commonPool(), courses::containsKey, popularity::count); }
+            catch (RuntimeException e) { System.out.println("共选矩阵重建失败："+e); }
+            finally { coEnrollmentReady=true; }
+        });
     }
 
     // 初始化示例数据：默认创建管理员与两个学生，以及两门课程
     /** 初始化示例数据
      * 创建基础用户/课程并做部分选课与成绩
-     * 边界：仅在用户表为空时执行，避免重复注入数据
+     * 边界：仅在用户表为空时执行，避免重复注入数据；未启动后台任务时先调用 start
      */
     public static void seed(){
+        start();
         if(users.isEmpty()){
             addUser("admin","123456","admin","admin@example.com"); User u1=addUser("alice","123456","student","alice@example.com"); User u2=addUser("bob","123456","student","bob@example.com"); List<TimeSlot> t1=Arrays.asList(new TimeSlot("Mon",10,12),new TimeSlot("Wed",10,12)); List<TimeSlot> t2=Arrays.asList(new TimeSlot("Tue",14,16),new TimeSlot("Thu",14,16)); Course c1=addCourse("数据结构",3,2,t1); Course c2=addCourse("数据库原理",4,2,t2); enroll(u1.id,c1.id); enroll(u2.id,c1.id); enroll(u1.id,c2.id); setGrade(u1.id,c1.id,88.0);
         }
@@ -0,0 +1,220 @@
+package com.training.db;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+// 预写日志（WAL）：记录每次数据变更的“结果”，重启时在快照之上按序重放
+// - 文件 journal-<首条LSN>.wal 预分配 FILE_BYTES 并整体内存映射；写满后切换到新文件
+// - 记录格式：长度(int) + CRC32(int) + LSN(long) + 载荷（类型字节 + 字段）；长度为 0 表示文件内已无记录
+// - 业务线程在锁内只做 LSN 分配与内存拷贝（编码与 CRC 在锁外完成），不等待落盘
+// - 组提交：刷盘线程每 FLUSH_MS 检查一次，有新写入时 force 一次，同一窗口内的所有写入共享这次刷盘
+// - 切换下来的旧文件由刷盘线程做完最后一次 force 后立即解除映射，不等 GC 回收（否则每次切换预分配的 16MB 映射会堆积，
+//   已被 truncate 删除的文件也要到解除映射后才释放磁盘空间）
+/**
+ * 数据变更预写日志
+ * - 职责：追加变更记录；按 LSN 切换文件（配合快照截断）；启动时逐条重放
+ * - 并发：append 为短临界区；force 在刷盘线程中进行，不阻塞业务线程
+ * - 持久性（组提交语义）：append 返回、业务接口应答时记录只在页缓存中，尚未落盘；刷盘线程最迟约 FLUSH_MS（5ms）
+ *   加一次 force 的耗时后落盘。进程崩溃只要操作系统仍在，页缓存照常写回，不丢数据；断电或内核崩溃时可能丢失这一窗口内
+ *   已应答的变更。需要“应答即落盘”的调用方不应依赖本类
+ * - 边界：文件尾部不完整或校验失败的记录在重放时被忽略
+ */
+final class Journal {
+    // GRADE 为追加一条成绩；GRADE_SET 为替换该用户该课程的已有成绩（批量导入）
+    // ENROLL 为候补记录时末尾附带入队键（long），早期写出的记录没有这一字段
+    static final byte USER=1, PASSWORD=2, COURSE=3, COURSE_DELETE=4, ENROLL=5, PROMOTE=6, DROP=7, GRADE=8, GRADE_SET=9;
+
+    private static final int FILE_BYTES=16<<20;
+    private static final int HEADER=16;
+    private static final long FLUSH_MS=5;
+
+    private final File dir;
+    private MappedByteBuffer buf;  // 当前文件的映射（锁内读写 position）
+    private long lastLsn;          // 已分配的最大 LSN
+    private boolean closed;
+    // 刷盘线程读取：写入计数与已刷盘计数；切换文件时旧映射放入 retired，由刷盘线程补做最后一次 force
+    private volatile long written, forced;
+    private final List<MappedByteBuffer> retired=new ArrayList<>();
+    private final Thread flusher;
+    private volatile boolean running=true;
+
+    private Journal(File dir,long lastLsn) throws IOException {
+        this.dir=dir; this.lastLsn=lastLsn;
+        buf=map(lastLsn+1);
+        flusher=new Thread(this::flushLoop,"db-journal"); flusher.setDaemon(true); flusher.start();
+    }
+
+    /** 打开日志用于追加：总是新建文件，LSN 从 lastLsn+1 开始
+     * @param dir 日志目录
+     * @param lastLsn 已重放（或快照）到的最大 LSN
+     */
+    static Journal open(File dir,long lastLsn) throws IOException {
+        if(!dir.isDirectory() && !dir.mkdirs()) throw new IOException("无法创建日志目录："+dir);
+        return new Journal(dir,lastLsn);
+    }
+
+    /** 追加一条记录（不等待落盘：返回时记录尚在页缓存中，见类说明的组提交语义）
+     * @return 分配的 LSN；日志已关闭返回 -1
+     */
+    long append(Record r){
+        byte[] payload=r.bytes; int len=r.size;
+        CRC32 crc=new CRC32(); crc.update(payload,0,len); int sum=(int)crc.getValue();
+        synchronized(this){
+            if(closed) return -1;
+            if(buf.remaining()<HEADER+len+4){
+                try { roll(); } catch (IOException ex) { System.out.println("日志文件切换失败："+ex); return -1; }
+            }
+            long lsn=++lastLsn;
+            buf.putInt(len).putInt(sum).putLong(lsn).put(payload,0,len);
+            written++;
+            return lsn;
+        }
+    }
+    /** 切换到新文件并返回切换前的最大 LSN（此后的记录都在新文件中），供快照确定截断点
+     * @throws IOException 新文件创建失败，或日志已关闭
+     */
+    synchronized long roll() throws IOException {
+        if(closed) throw new IOException("日志已关闭");
+        synchronized(retired){ retired.add(buf); }
+        buf=map(lastLsn+1);
+        return lastLsn;
+    }
+    /** 已分配的最大 LSN */
+    synchronized long lastLsn(){ return lastLsn; }
+
+    /** 删除只包含 LSN &lt;= upTo 记录的旧文件（快照已覆盖） */
+    void truncate(long upTo){
+        File[] files=list(dir);
+        // 文件按首条 LSN 升序：某文件的全部记录 <= upTo 当且仅当下一个文件的首条 LSN <= upTo+1
+        for(int i=0;i+1<files.length;i++) if(firstLsnOf(files[i+1])<=upTo+1) files[i].delete();
+    }
+
+    /** 停止刷盘线程，强制落盘并解除全部映射后关闭，可重复调用 */
+    void close(){
+        synchronized(this){ if(closed) return; closed=true; }
+        running=false; LockSupport.unpark(flusher);
+        boolean interrupted=false;
+        while(flusher.isAlive()){ try { flusher.join(); } catch (InterruptedException ex) { interrupted=true; } } // 刷盘线程退出后才能安全解除映射
+        if(interrupted) Thread.currentThread().interrupt();
+        forceRetired();
+        synchronized(this){ buf.force(); unmap(buf); buf=null; }
+    }
+
+    /** 按 LSN 顺序重放日志目录中 LSN 大于 afterLsn 的记录
+     * @param dir 日志目录
+     * @param afterLsn 快照已包含的最大 LSN
+     * @param apply 记录处理函数
+     * @return 重放到的最大 LSN（无记录时返回 afterLsn）
+     */
+    static long replay(File dir,long afterLsn,Consumer<Reader> apply) throws IOException {
+        long last=afterLsn;
+        for(File f: list(dir)){
+            try (RandomAccessFile raf=new RandomAccessFile(f,"r"); FileChannel ch=raf.getChannel()) {
+                MappedByteBuffer in=ch.map(FileChannel.MapMode.READ_ONLY,0,ch.size());
+                CRC32 crc=new CRC32();
+                while(in.remaining()>=HEADER){
+                    int len=in.getInt(); if(len<=0 || len>in.remaining()-12) break;
+                    int sum=in.getInt(); long lsn=in.getLong();
+                    byte[] payload=new byte[len]; in.get(payload);
+                    crc.reset(); crc.update(payload,0,len); if((int)crc.getValue()!=sum) break; // 写入中途崩溃的尾部
+                    if(lsn<=last) continue;
+                    apply.accept(new Reader(lsn,payload)); last=lsn;
+                }
+                unmap(in);
+            }
+        }
+        return last;
+    }
+
+    /** 立即解除映射（映射不再被任何线程访问时调用）；当前 JDK 不支持时留给 GC 回收
+     * JDK 9+ 用 Unsafe.invokeCleaner，JDK 8 用 DirectBuffer.cleaner().clean()，均经反射调用以兼容两者的编译
+     */
+    static void unmap(MappedByteBuffer b){
+        if(b==null) return;
+        try {
+            if(UNMAP_UNSAFE!=null) UNMAP.invoke(UNMAP_UNSAFE, b);
+            else if(UNMAP!=null){ java.lang.reflect.Method cleaner=b.getClass().getMethod("cleaner"); cleaner.setAccessible(true); Object c=cleaner.invoke(b); if(c!=null) UNMAP.invoke(c); }
+        } catch (ReflectiveOperationException|RuntimeException ex) { /* 回退为 GC 回收 */ }
+    }
+    private static final Object UNMAP_UNSAFE; private static final java.lang.reflect.Method UNMAP;
+    static {
+        Object unsafe=null; java.lang.reflect.Method m=null;
+        try {
+            Class<?> u=Class.forName("sun.misc.Unsafe");
+            m=u.getMethod("invokeCleaner", ByteBuffer.class);
+            java.lang.reflect.Field f=u.getDeclaredField("theUnsafe"); f.setAccessible(true); unsafe=f.get(null);
+        } catch (ReflectiveOperationException|RuntimeException jdk8) {
+            unsafe=null;
+            try { m=Class.forName("sun.misc.Cleaner").getMethod("clean"); } catch (ReflectiveOperationException|RuntimeException none) { m=null; }
+        }
+        UNMAP_UNSAFE=unsafe; UNMAP=m;
+    }
+
+    private MappedByteBuffer map(long firstLsn) throws IOException {
+        File f=new File(dir,String.format("journal-%020d.wal",firstLsn));
+        try (RandomAccessFile raf=new RandomAccessFile(f,"rw"); FileChannel ch=raf.getChannel()) {
+            raf.setLength(FILE_BYTES);
+            return ch.map(FileChannel.MapMode.READ_WRITE,0,FILE_BYTES); // 映射在通道关闭后仍然有效
+        }
+    }
+    private static File[] list(File dir){
+        File[] files=dir.listFiles((d,n)->n.startsWith("journal-") && n.endsWith(".wal"));
+        if(files==null) return new File[0];
+        Arrays.sort(files); return files;
+    }
+    private static long firstLsnOf(File f){ String n=f.getName(); return Long.parseLong(n.substring(8,n.length()-4)); }
+
+    // 组提交：有新写入时刷一次盘；切换下来的旧文件在这里补做最后一次 force 并解除映射
+    private void flushLoop(){
+        while(running){
+            LockSupport.parkNanos(FLUSH_MS*1_000_000L);
+            try {
+                forceRetired();
+                long w=written; if(w!=forced){ MappedByteBuffer b; synchronized(this){ b=buf; } b.force(); forced=w; }
+            } catch (RuntimeException ex) { System.out.println("日志刷盘失败："+ex); }
+        }
+    }
+    // 旧映射只会在这里被访问（roll 之后 append 只写新映射），force 后即可解除映射
+    private void forceRetired(){
+        List<MappedByteBuffer> old;
+        synchronized(retired){ old=new ArrayList<>(retired); retired.clear(); }
+        for(MappedByteBuffer b: old){ b.force(); unmap(b); }
+    }
+
+    /** 记录编码器：类型字节 + 字段，字符串为“长度 + UTF-8”（-1 表示 null） */
+    static final class Record {
+        byte[] bytes=new byte[64]; int size;
+        Record(byte type){ bytes[size++]=type; }
+        Record str(String s){
+            if(s==null) return i32(-1);
+            byte[] b=s.getBytes(StandardCharsets.UTF_8); i32(b.length); ensure(b.length);
+            System.arraycopy(b,0,bytes,size,b.length); size+=b.length; return this;
+        }
+        Record i32(int v){ ensure(4); for(int i=3;i>=0;i--) bytes[size++]=(byte)(v>>>(i*8)); return this; }
+        Record i64(long v){ ensure(8); for(int i=7;i>=0;i--) bytes[size++]=(byte)(v>>>(i*8)); return this; }
+        Record f64(double v){ return i64(Double.doubleToLongBits(v)); }
+        private void ensure(int n){ if(size+n>bytes.length) bytes=Arrays.copyOf(bytes,Math.max(bytes.length*2,size+n)); }
+    }
+    /** 记录解码器：与 Record 的写入顺序一一对应 */
+    static final class Reader {
+        final long lsn; final byte type; private final ByteBuffer in;
+        Reader(long lsn,byte[] payload){ this.lsn=lsn; this.in=ByteBuffer.wrap(payload); this.type=in.get(); }
+        String str(){ int n=in.getInt(); if(n<0) return null; String s=new String(in.array(),in.position(),n,StandardCharsets.UTF_8); in.position(in.position()+n); return s; }
+        int i32(){ return in.getInt(); }
+        long i64(){ return in.getLong(); }
+        /** 记录中是否还有未读字段（用于读取后来追加在末尾的可选字段） */
+        boolean more(){ return in.hasRemaining(); }
+        double f64(){ return in.getDouble(); }
+    }
+}
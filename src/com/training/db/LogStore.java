@@ -0,0 +1,349 @@
+package com.training.db;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.training.db.Db.LogEntry;
+
+// 操作日志的磁盘存储：按序号切分的只追加段文件
+// - 段文件 oplog-<首条序号>.seg：记录依次写入，二进制格式（序号、时间、op、userId、courseId、detail）
+// - 每段在内存中保留一份索引：首尾序号、时间范围、每 BLOCK 条一个的稀疏块索引（偏移 + 块内时间范围），
+//   以及按 userId/courseId 的精确倒排（每个键出现过的块号，升序）；段封存时索引写入同名 .idx，重启时直接加载
+// - 按用户/课程查询只读取倒排列出的块；再按序号/时间范围跳过无关段与块，只顺序读取剩下的块
+// - 取最近 limit 条（无游标）时从最新段的最后一块往前读，凑满即停，不读整段
+// - 段超过 SEGMENT_BYTES 或 ROLL_MS 即封存；封存时删除最新时间早于保留期的旧段，总大小超过上限时再从最旧的段删起
+// - 每条先完整编码到内存缓冲，写入段文件后才登记到块索引与倒排：编码失败不会在段中留下半条记录或指向它的索引；
+//   字符串字段按修改版 UTF-8 超过 FIELD_MAX 字节时截断后写入（例如超长课程名作为 detail），内存中的条目不变
+/**
+ * 操作日志段文件存储
+ * - 职责：追加写入日志批次；按游标/时间/用户/课程/操作码查询；按时间滚动，按保留期与总大小清理
+ * - 并发：append 仅由日志追加线程调用；查询在监视器内取段元数据快照，文件读取在锁外进行
+ * - 边界：活动段按批次 flush，查询只读到最近一次 flush 的位置；查询期间恰被清理的段跳过，
+ *   其他读取错误向调用方抛出 IOException（不返回残缺的历史）；倒排索引常驻内存，大小与各段中不同用户/课程数成正比
+ */
+final class LogStore {
+    private static final int MAGIC=0x4F504C33; // "OPL3"（旧版 .idx 读取失败后按段文件重建）
+    private static final long SEGMENT_BYTES=4L<<20;
+    private static final long ROLL_MS=3600_000L;
+    private static final int BLOCK=256;
+    private static final int FIELD_MAX=8192; // 单个字符串字段落盘的上限（字节），远小于 writeUTF 的 65535
+    private static final String CLIPPED="…";
+
+    /** 某个键出现过的块号（升序、不重复） */
+    private static final class Postings {
+        int[] blocks; int n;
+        Postings(int capacity){ blocks=new int[Math.max(1,capacity)]; }
+        void add(int b){
+            if(n>0 && blocks[n-1]==b) return; // 同一块内多次出现只记一次
+            if(n==blocks.length) blocks=Arrays.copyOf(blocks,n*2);
+            blocks[n++]=b;
+        }
+        boolean has(int b){ return Arrays.binarySearch(blocks,0,n,b)>=0; }
+        Postings copy(){ Postings p=new Postings(n); System.arraycopy(blocks,0,p.blocks,0,n); p.n=n; return p; }
+    }
+
+    /** 段元数据（封存后不再变化；活动段由追加线程在监视器内更新） */
+    private static final class Segment {
+        final File file; final long firstSeq; final long created;
+        long lastSeq, minTime=Long.MAX_VALUE, maxTime=Long.MIN_VALUE, length; int count;
+        long[] blocks=new long[48]; int blockCount; // 每块三元组：起始偏移、块内最小时间、块内最大时间
+        Map<String,Postings> users=new HashMap<>(), courses=new HashMap<>();
+        volatile boolean expired; // 已被清理：查询中读不到该段文件时据此跳过
+        Segment(File file,long firstSeq,long created){this.file=file;this.firstSeq=firstSeq;this.created=created;this.lastSeq=firstSeq-1;}
+
+        void add(LogEntry e,long offset){
+            if(count%BLOCK==0){
+                if(blockCount*3==blocks.length) blocks=Arrays.copyOf(blocks,blocks.length*2);
+                blocks[blockCount*3]=offset; blocks[blockCount*3+1]=e.time; blocks[blockCount*3+2]=e.time; blockCount++;
+            }
+            int b=(blockCount-1)*3; blocks[b+1]=Math.min(blocks[b+1],e.time); blocks[b+2]=Math.max(blocks[b+2],e.time);
+            lastSeq=e.seq; count++; minTime=Math.min(minTime,e.time); maxTime=Math.max(maxTime,e.time);
+            if(e.userId!=null) users.computeIfAbsent(e.userId,k->new Postings(2)).add(blockCount-1);
+            if(e.courseId!=null) courses.computeIfAbsent(e.courseId,k->new Postings(2)).add(blockCount-1);
+        }
+        boolean mayContain(Query q){
+            if(count==0 || lastSeq<=q.cursor || maxTime<q.from || minTime>q.to) return false;
+            return (q.userId==null || users.containsKey(q.userId)) && (q.courseId==null || courses.containsKey(q.courseId));
+        }
+        boolean blockMayContain(int b,Query q){
+            if(firstSeq+(long)(b+1)*BLOCK-1<=q.cursor) return false; // 段内序号连续：整块都不超过游标
+            if(blocks[b*3+2]<q.from || blocks[b*3+1]>q.to) return false;
+            return (q.userId==null || users.get(q.userId).has(b)) && (q.courseId==null || courses.get(q.courseId).has(b));
+        }
+        // 待读的候选块：按用户/课程查询时取其倒排（两者都有时取较短的一个），否则为全部块
+        int[] candidates(Query q){
+            Postings u=q.userId!=null? users.get(q.userId): null, c=q.courseId!=null? courses.get(q.courseId): null;
+            Postings p=u==null? c: c==null || u.n<=c.n? u: c;
+            if(p!=null) return Arrays.copyOf(p.blocks,p.n);
+            int[] all=new int[blockCount]; for(int i=0;i<blockCount;i++) all[i]=i;
+            return all;
+        }
+        // 查询期间活动段仍在追加，故对可变字段做一份快照；倒排只复制本次查询用到的键
+        Segment snapshot(Query q){
+            Segment s=new Segment(file,firstSeq,created);
+            s.lastSeq=lastSeq; s.minTime=minTime; s.maxTime=maxTime; s.length=length; s.count=count;
+            s.blocks=Arrays.copyOf(blocks,blockCount*3); s.blockCount=blockCount;
+            if(q.userId!=null){ Postings p=users.get(q.userId); if(p!=null) s.users.put(q.userId,p.copy()); }
+            if(q.courseId!=null){ Postings p=courses.get(q.courseId); if(p!=null) s.courses.put(q.courseId,p.copy()); }
+            return s;
+        }
+    }
+
+    /** 查询条件：cursor 小于 0 表示取满足条件的最近 limit 条 */
+    static final class Query {
+        long cursor=-1, from=Long.MIN_VALUE, to=Long.MAX_VALUE; int limit=100;
+        String op, userId, courseId;
+        boolean matches(LogEntry e){
+            return e.seq>cursor && e.time>=from && e.time<=to && (op==null || op.equals(e.op))
+                && (userId==null || userId.equals(e.userId)) && (courseId==null || courseId.equals(e.courseId));
+        }
+    }
+
+    private final File dir;
+    private final long retentionMs, maxBytes;
+    private final List<Segment> sealed=new ArrayList<>();
+    private long sealedBytes; // sealed 中各段文件大小之和
+    private Segment active;
+    private DataOutputStream out; // size() 即活动段已写入的字节数（段远小于 2GB）
+    private final ByteArrayOutputStream encoded=new ByteArrayOutputStream(256); // 单条记录的编码缓冲（仅追加线程使用）
+    private final DataOutputStream enc=new DataOutputStream(encoded);
+
+    private LogStore(File dir,long retentionMs,long maxBytes){this.dir=dir;this.retentionMs=retentionMs;this.maxBytes=maxBytes;}
+
+    /** 打开（或创建）日志目录：加载各段索引，缺失 .idx 的段（上次未正常封存）扫描重建后封存
+     * @param dir 日志目录
+     * @param retentionMs 保留时长（毫秒）
+     * @param maxBytes 段文件总大小上限（字节）；超出时从最旧的段删起，活动段不删
+     */
+    static LogStore open(File dir,long retentionMs,long maxBytes) throws IOException {
+        if(!dir.isDirectory() && !dir.mkdirs()) throw new IOException("无法创建日志目录："+dir);
+        LogStore s=new LogStore(dir,retentionMs,maxBytes);
+        File[] files=dir.listFiles((d,n)->n.startsWith("oplog-") && n.endsWith(".seg"));
+        if(files!=null){
+            Arrays.sort(files);
+            for(File f: files){
+                File idx=indexFile(f);
+                Segment seg=idx.isFile()? readIndex(f,idx): null;
+                if(seg==null){ seg=rebuild(f); if(seg.count==0){ f.delete(); continue; } writeIndex(seg); }
+                s.sealed.add(seg); s.sealedBytes+=seg.length;
+            }
+        }
+        s.expire(System.currentTimeMillis());
+        return s;
+    }
+    /** 已持久化的最大序号（无记录返回 0） */
+    synchronized long lastSeq(){
+        if(active!=null && active.count>0) return active.lastSeq;
+        return sealed.isEmpty()? 0: sealed.get(sealed.size()-1).lastSeq;
+    }
+
+    /** 追加一批已分配序号的条目并 flush（仅由日志追加线程调用） */
+    synchronized void append(LogEntry[] batch,int n) throws IOException {
+        for(int i=0;i<n;i++){
+            LogEntry e=batch[i];
+            LogEntry w=clip(e);
+            encoded.reset(); writeEntry(enc,w); // 先编码：失败时段文件与索引都未改动
+            if(active==null || active.length>=SEGMENT_BYTES || e.time-active.created>=ROLL_MS) roll(e);
+            long at=active.length;
+            encoded.writeTo(out); active.length=out.size();
+            active.add(w,at);
+        }
+        out.flush();
+    }
+    /** 封存活动段并关闭文件，可重复调用 */
+    synchronized void close(){
+        try { seal(); } catch (IOException ex) { System.out.println("日志段封存失败："+ex); }
+    }
+
+    /** 查询日志（序号升序）
+     * @throws IOException 段文件读取失败（查询期间恰被清理的段除外）
+     */
+    List<LogEntry> query(Query q) throws IOException {
+        List<Segment> segs=new ArrayList<>();
+        synchronized(this){
+            for(Segment s: sealed) if(s.mayContain(q)) segs.add(s);
+            if(active!=null && active.mayContain(q)) segs.add(active.snapshot(q));
+        }
+        if(q.cursor>=0){
+            List<LogEntry> res=new ArrayList<>();
+            for(Segment s: segs){ scan(s,q,res,q.limit-res.size(),false); if(res.size()>=q.limit) break; }
+            return res;
+        }
+        // 最近 limit 条：从最新段的最后一块往前读，凑满即停
+        List<LogEntry> res=new ArrayList<>();
+        for(int i=segs.size()-1;i>=0 && res.size()<q.limit;i--) scan(segs.get(i),q,res,q.limit-res.size(),true);
+        Collections.reverse(res);
+        return res;
+    }
+
+    // 读取段内候选块，最多追加 max 条：正向时按序号升序追加；backward 时从最后一块往前、按序号降序追加
+    // 段文件在查询期间被清理时跳过该段，其他读取错误抛出
+    private static void scan(Segment s,Query q,List<LogEntry> res,int max,boolean backward) throws IOException {
+        if(max<=0) return;
+        int[] cand=s.candidates(q);
+        List<LogEntry> part=backward? new ArrayList<>(BLOCK): null;
+        try (RandomAccessFile raf=new RandomAccessFile(s.file,"r")) {
+            for(int k=0;k<cand.length && max>0;k++){
+                int b=backward? cand[cand.length-1-k]: cand[k];
+                if(!s.blockMayContain(b,q)) continue;
+                long start=s.blocks[b*3], end=b+1<s.blockCount? s.blocks[(b+1)*3]: s.length;
+                raf.seek(start);
+                RandomAccessInput block=new RandomAccessInput(raf,end-start);
+                DataInputStream in=new DataInputStream(new BufferedInputStream(block,8192));
+                List<LogEntry> to=backward? part: res;
+                int added=0;
+                for(;;){
+                    LogEntry e;
+                    try { e=readEntry(in); }
+                    catch (EOFException eof) { if(block.remaining>0) throw new EOFException("段文件比索引记录的短"); break; }
+                    if(q.matches(e)){ to.add(e); if(!backward && ++added>=max) return; }
+                }
+                if(backward){ for(int j=part.size()-1;j>=0 && max>0;j--,max--) res.add(part.get(j)); part.clear(); }
+                else max-=added;
+            }
+        } catch (IOException ex) {
+            if(s.expired) return;
+            throw new IOException("读取日志段失败："+s.file.getName(), ex);
+        }
+    }
+
+    private void roll(LogEntry first) throws IOException {
+        seal();
+        File f=new File(dir,String.format("oplog-%020d.seg",first.seq));
+        active=new Segment(f,first.seq,first.time);
+        out=new DataOutputStream(new BufferedOutputStream(new FileOutputStream(f),64<<10));
+    }
+    private void seal() throws IOException {
+        if(active==null) return;
+        out.close(); out=null;
+        if(active.count>0){ writeIndex(active); sealed.add(active); sealedBytes+=active.length; } else active.file.delete();
+        active=null;
+        expire(System.currentTimeMillis());
+    }
+    // 清理：整段最新时间早于保留期的段连同索引一起删除；总大小仍超过上限时继续删最旧的封存段
+    private void expire(long now){
+        while(!sealed.isEmpty() && (sealed.get(0).maxTime<now-retentionMs || sealedBytes+(active!=null? active.length: 0)>maxBytes)){
+            Segment s=sealed.remove(0); sealedBytes-=s.length;
+            s.expired=true; s.file.delete(); indexFile(s.file).delete();
+        }
+    }
+
+    private static File indexFile(File seg){ String n=seg.getName(); return new File(seg.getParentFile(),n.substring(0,n.length()-4)+".idx"); }
+    private static long firstSeqOf(File f){ String n=f.getName(); return Long.parseLong(n.substring(6,n.length()-4)); }
+
+    private static void writeEntry(DataOutputStream out,LogEntry e) throws IOException {
+        out.writeLong(e.seq); out.writeLong(e.time); out.writeUTF(e.op);
+        out.writeByte((e.userId!=null?1:0)|(e.courseId!=null?2:0)|(e.detail!=null?4:0));
+        if(e.userId!=null) out.writeUTF(e.userId); if(e.courseId!=null) out.writeUTF(e.courseId); if(e.detail!=null) out.writeUTF(e.detail);
+    }
+    // 超长字段截断到 FIELD_MAX 字节以内（不拆开代理对）；无需截断时返回原条目
+    static LogEntry clip(LogEntry e){
+        String op=clip(e.op), uid=clip(e.userId), cid=clip(e.courseId), detail=clip(e.detail);
+        if(op==e.op && uid==e.userId && cid==e.courseId && detail==e.detail) return e;
+        LogEntry c=new LogEntry(e.time,op,uid,cid,detail); c.seq=e.seq; return c;
+    }
+    private static String clip(String s){
+        if(s==null || s.length()*3<=FIELD_MAX || utfSize(s)-2<=FIELD_MAX) return s;
+        int budget=FIELD_MAX-(utfSize(CLIPPED)-2), n=0, i=0;
+        while(i<s.length()){
+            char c=s.charAt(i); int w=(c>=1 && c<=0x7F)? 1: c>0x7FF? 3: 2;
+            if(n+w>budget) break;
+            n+=w; i++;
+        }
+        if(i>0 && Character.isHighSurrogate(s.charAt(i-1))) i--;
+        return s.substring(0,i)+CLIPPED;
+    }
+    private static LogEntry readEntry(DataInputStream in) throws IOException {
+        long seq=in.readLong(), time=in.readLong(); String op=in.readUTF(); int flags=in.readUnsignedByte();
+        String uid=(flags&1)!=0? in.readUTF(): null, cid=(flags&2)!=0? in.readUTF(): null, detail=(flags&4)!=0? in.readUTF(): null;
+        LogEntry e=new LogEntry(time,op,uid,cid,detail); e.seq=seq; return e;
+    }
+
+    // 扫描段文件重建索引；末尾不完整的记录（写入中途进程退出）被截掉
+    private static Segment rebuild(File f) throws IOException {
+        Segment seg=null; long pos=0;
+        try (DataInputStream in=new DataInputStream(new BufferedInputStream(new FileInputStream(f),64<<10))) {
+            for(;;){
+                LogEntry e; long before=pos;
+                try { e=readEntry(in); } catch (EOFException eof) { break; }
+                pos=before+encodedSize(e);
+                if(seg==null) seg=new Segment(f,e.seq,e.time);
+                seg.add(e,before);
+            }
+        } catch (java.io.UTFDataFormatException bad) { /* 尾部损坏：保留之前的完整记录 */ }
+        if(seg==null) return new Segment(f,firstSeqOf(f),0);
+        seg.length=pos;
+        if(f.length()>pos) try (RandomAccessFile raf=new RandomAccessFile(f,"rw")) { raf.setLength(pos); }
+        return seg;
+    }
+    private static long encodedSize(LogEntry e){
+        return 8+8+utfSize(e.op)+1+(e.userId!=null? utfSize(e.userId): 0)+(e.courseId!=null? utfSize(e.courseId): 0)+(e.detail!=null? utfSize(e.detail): 0);
+    }
+    private static int utfSize(String s){
+        int n=2; for(int i=0;i<s.length();i++){ char c=s.charAt(i); n+= (c>=1 && c<=0x7F)? 1: c>0x7FF? 3: 2; } return n;
+    }
+
+    private static void writeIndex(Segment s) throws IOException {
+        try (DataOutputStream out=new DataOutputStream(new BufferedOutputStream(new FileOutputStream(indexFile(s.file))))) {
+            out.writeInt(MAGIC); out.writeLong(s.firstSeq); out.writeLong(s.lastSeq); out.writeLong(s.created);
+            out.writeLong(s.minTime); out.writeLong(s.maxTime); out.writeLong(s.length); out.writeInt(s.count);
+            out.writeInt(s.blockCount); for(int i=0;i<s.blockCount*3;i++) out.writeLong(s.blocks[i]);
+            writePostings(out,s.users); writePostings(out,s.courses);
+        }
+    }
+    private static void writePostings(DataOutputStream out,Map<String,Postings> m) throws IOException {
+        out.writeInt(m.size());
+        for(Map.Entry<String,Postings> e: m.entrySet()){
+            Postings p=e.getValue(); out.writeUTF(e.getKey()); out.writeInt(p.n);
+            for(int i=0;i<p.n;i++) out.writeInt(p.blocks[i]);
+        }
+    }
+    private static Map<String,Postings> readPostings(DataInputStream in,int blockCount) throws IOException {
+        int keys=in.readInt(); if(keys<0) throw new IOException("索引损坏");
+        Map<String,Postings> m=new HashMap<>(keys*4/3+1);
+        for(int k=0;k<keys;k++){
+            String key=in.readUTF(); int n=in.readInt(); if(n<0 || n>blockCount) throw new IOException("索引损坏");
+            Postings p=new Postings(n); for(int i=0;i<n;i++) p.blocks[i]=in.readInt(); p.n=n;
+            m.put(key,p);
+        }
+        return m;
+    }
+    // 索引损坏或与段文件长度不一致时返回 null，由调用方扫描重建
+    private static Segment readIndex(File f,File idx){
+        try (DataInputStream in=new DataInputStream(new BufferedInputStream(new FileInputStream(idx)))) {
+            if(in.readInt()!=MAGIC) return null;
+            long firstSeq=in.readLong(), lastSeq=in.readLong();
+            Segment s=new Segment(f,firstSeq,in.readLong()); s.lastSeq=lastSeq;
+            s.minTime=in.readLong(); s.maxTime=in.readLong(); s.length=in.readLong(); s.count=in.readInt();
+            s.blockCount=in.readInt(); s.blocks=new long[Math.max(3,s.blockCount*3)]; for(int i=0;i<s.blockCount*3;i++) s.blocks[i]=in.readLong();
+            s.users=readPostings(in,s.blockCount); s.courses=readPostings(in,s.blockCount);
+            if(s.length!=f.length()) return null;
+            return s;
+        } catch (IOException ex) { return null; }
+    }
+
+    // 从 RandomAccessFile 当前位置起最多读取 remaining 字节
+    private static final class RandomAccessInput extends java.io.InputStream {
+        private final RandomAccessFile raf; private long remaining;
+        RandomAccessInput(RandomAccessFile raf,long remaining){this.raf=raf;this.remaining=remaining;}
+        @Override public int read() throws IOException { if(remaining<=0) return -1; int b=raf.read(); if(b>=0) remaining--; return b; }
+        @Override public int read(byte[] b,int off,int len) throws IOException {
+            if(remaining<=0) return -1; int n=raf.read(b,off,(int)Math.min(len,remaining)); if(n>0) remaining-=n; return n;
+        }
+    }
+}
@@ -0,0 +1,147 @@
+package com.training.db;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+import com.training.db.Db.LogEntry;
+
+// 操作日志：有界无锁环形缓冲 + 后台追加线程
+// - 业务线程只做一次 CAS 领取槽位并写入引用，不加锁、不格式化字符串；缓冲满时直接丢弃并计数
+// - 追加线程空闲时定时轮询；积压越过半满时由生产者顺带唤醒
+// - 挂接 LogStore 后，追加线程把每批条目顺带写入磁盘段文件（业务线程不接触磁盘）
+// - 追加线程（单消费者）按领取顺序取出条目，分配递增序号后批量写入有界的历史环
+// - 查询只在历史环上按序号游标扫描，不复制全部日志
+/**
+ * 操作日志缓冲与历史
+ * - 职责：接收结构化日志条目；后台写入最近 historySize 条的历史；按游标/条件查询
+ * - 并发：多生产者 CAS 领取槽位，单消费者排空；历史环由追加线程在其监视器内批量写入
+ * - 生命周期：构造时不启动线程；open 启动追加线程，close 排空并等待其退出，之后可再次 open
+ * - 边界：写入为异步，刚记录的条目可能要稍后才能查到（open 之前记录的条目留在缓冲中，open 后写入）；超出历史容量的旧条目被覆盖
+ */
+final class OpLog {
+    // 追加线程空闲时的轮询间隔、每批最多搬运的条目数
+    private static final long IDLE_PARK_NANOS=1_000_000L;
+    private static final int BATCH=256;
+
+    private final AtomicReferenceArray<LogEntry> ring;
+    private final int mask;
+    private final AtomicLong tail=new AtomicLong(); // 下一个待领取的槽位
+    private volatile long head;                     // 下一个待消费的槽位（仅追加线程写）
+    private final LongAdder dropped=new LongAdder();
+
+    private final LogEntry[] history;
+    private long lastSeq; // 已写入历史的最大序号（在 history 监视器内读写）
+
+    private volatile Thread appender;   // open 之后才有；close 后置空
+    private volatile boolean running;
+    private volatile LogStore store; // 可选的磁盘段存储；挂接后查询改由磁盘回答
+
+    /**
+     * @param ringSize 缓冲槽位数（向上取 2 的幂）
+     * @param historySize 历史保留条数
+     */
+    OpLog(int ringSize,int historySize){
+        int n=Integer.highestOneBit(Math.max(2,ringSize-1))<<1;
+        ring=new AtomicReferenceArray<>(n); mask=n-1;
+        history=new LogEntry[historySize];
+    }
+
+    /** 启动追加线程；已启动时什么也不做 */
+    synchronized void open(){
+        if(appender!=null) return;
+        running=true;
+        Thread t=new Thread(this::drainLoop,"db-oplog"); t.setDaemon(true);
+        appender=t; t.start();
+    }
+
+    /** 记录一条日志（无锁、不阻塞）
+     * @return 缓冲已满被丢弃时返回 false
+     */
+    boolean record(LogEntry e){
+        for(;;){
+            long t=tail.get();
+            if(t-head>=ring.length()){ dropped.increment(); return false; }
+            if(tail.compareAndSet(t,t+1)){
+                ring.lazySet((int)(t&mask),e);
+                // 积压到半满时唤醒追加线程，不必等到下一次轮询（只有恰好越过半满的那一个生产者会唤醒）
+                if(t-head==ring.length()>>1){ Thread a=appender; if(a!=null) LockSupport.unpark(a); }
+                return true;
+            }
+        }
+    }
+    /** 因缓冲满被丢弃的条目数 */
+    long dropped(){ return dropped.sum(); }
+
+    /** 挂接磁盘段存储：此后排空的条目同时追加到磁盘，序号从已持久化的最大序号之后继续 */
+    void attach(LogStore s){
+        synchronized(history){ lastSeq=Math.max(lastSeq,s.lastSeq()); }
+        store=s;
+    }
+
+    /** 按条件查询日志（序号升序）：挂接了磁盘存储时查磁盘，否则只查内存中的最近历史
+     * @param q 查询条件（cursor 小于 0 表示返回最近的 limit 条）
+     * @return 匹配条目
+     * @throws IOException 磁盘段读取失败
+     */
+    List<LogEntry> query(LogStore.Query q) throws IOException {
+        LogStore s=store; if(s!=null) return s.query(q);
+        List<LogEntry> out=new ArrayList<>(Math.min(q.limit,64));
+        synchronized(history){
+            long oldest=Math.max(1,lastSeq-history.length+1);
+            if(q.cursor<0){
+                // 从新往旧收集最近 limit 条匹配项，再反转为升序
+                for(long i=lastSeq;i>=oldest && out.size()<q.limit;i--){ LogEntry e=history[slot(i)]; if(q.matches(e)) out.add(e); }
+                Collections.reverse(out);
+            } else {
+                for(long i=Math.max(q.cursor+1,oldest);i<=lastSeq && out.size()<q.limit;i++){ LogEntry e=history[slot(i)]; if(q.matches(e)) out.add(e); }
+            }
+        }
+        return out;
+    }
+    /** 当前已写入历史的最大序号 */
+    long lastSeq(){ synchronized(history){ return lastSeq; } }
+
+    /** 停止追加线程（先排空缓冲中已提交的条目，等待线程退出）并封存、卸下磁盘段存储；可重复调用，之后可再次 open */
+    synchronized void close(){
+        Thread t=appender;
+        if(t!=null){
+            running=false; LockSupport.unpark(t);
+            boolean interrupted=false;
+            while(t.isAlive()){ try { t.join(); } catch (InterruptedException ex) { interrupted=true; } } // 中断不放弃等待：保证排空完成后才关闭磁盘段
+            if(interrupted) Thread.currentThread().interrupt();
+            appender=null;
+        }
+        LogStore s=store; store=null; if(s!=null) s.close();
+    }
+
+    private int slot(long seq){ return (int)(seq%history.length); }
+
+    private void drainLoop(){
+        LogEntry[] batch=new LogEntry[BATCH];
+        for(;;){
+            int n=0; long h=head;
+            // 生产者领取槽位后才写入引用：遇到已领取但尚未写入的槽位时停下，下一轮再取
+            while(n<BATCH && h<tail.get()){
+                int i=(int)(h&mask); LogEntry e=ring.get(i); if(e==null) break;
+                ring.lazySet(i,null); batch[n++]=e; h++;
+            }
+            if(n>0){
+                head=h;
+                synchronized(history){ for(int i=0;i<n;i++){ LogEntry e=batch[i]; e.seq=++lastSeq; history[slot(e.seq)]=e; } }
+                LogStore s=store;
+                if(s!=null) try { s.append(batch,n); } catch (IOException ex) { System.out.println("日志写入磁盘失败："+ex); }
+                Arrays.fill(batch,0,n,null);
+                continue;
+            }
+            if(!running && head>=tail.get()) return;
+            LockSupport.parkNanos(IDLE_PARK_NANOS);
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package com.training.db;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+// 启动恢复用的 fork/join 小工具：按区间切分、按“相同键的连续段”切分、两个任务并行
+/**
+ * 并行区间处理（公共 ForkJoinPool）
+ * - forRange：[0,n) 二分切分，每个子任务至少 GRAIN 条（可指定）
+ * - forRuns：在 forRange 基础上把区间边界移到段首，同一段（如同一用户的记录）只交给一个任务
+ * - both：两个互不依赖的任务并行执行，全部完成后返回
+ * - 边界：子任务抛出异常时，同级的其余子任务也结束后才向上抛出（不同于 invokeAll），
+ *   调用返回或抛出时不会再有子任务在运行，调用方可以立即释放它们共用的资源（如内存映射）
+ */
+final class Parallel {
+    static final int GRAIN=8192;
+
+    interface Range { void run(int from,int to); }
+    interface Key { int at(int i); }
+
+    private Parallel(){}
+
+    static void forRange(int n,Range body){ forRange(n,GRAIN,body); }
+    /** @param grain 每个子任务至少处理的条数（单条开销大时取小值） */
+    static void forRange(int n,int grain,Range body){
+        if(n<=grain){ body.run(0,n); return; }
+        ForkJoinPool.commonPool().invoke(new Split(0,n,grain,body));
+    }
+    static void forRuns(int n,Key key,Range perRun){
+        forRange(n,(from,to)->{
+            int i=from;
+            if(i>0) while(i<n && key.at(i)==key.at(i-1)) i++;
+            while(i<to){ int j=i+1; while(j<n && key.at(j)==key.at(i)) j++; perRun.run(i,j); i=j; }
+        });
+    }
+    static void both(Runnable a,Runnable b){
+        ForkJoinPool.commonPool().invoke(new RecursiveAction(){
+            @Override protected void compute(){ joinBoth(new Leaf(a), new Leaf(b)); }
+        });
+    }
+
+    // 在当前线程执行 a、并行执行 b，无论 a 是否失败都等 b 结束；两者都失败时 b 的异常作为 suppressed 附上
+    private static void joinBoth(RecursiveAction a,RecursiveAction b){
+        b.fork();
+        Throwable failed=null;
+        try { a.invoke(); } catch (Throwable t) { failed=t; }
+        b.quietlyJoin();
+        Throwable other=b.isCompletedAbnormally()? b.getException(): null;
+        if(failed==null) failed=other; else if(other!=null && other!=failed) failed.addSuppressed(other);
+        if(failed instanceof RuntimeException) throw (RuntimeException)failed;
+        if(failed instanceof Error) throw (Error)failed;
+        if(failed!=null) throw new IllegalStateException(failed);
+    }
+
+    private static final class Split extends RecursiveAction {
+        final int from,to,grain; final Range body;
+        Split(int from,int to,int grain,Range body){this.from=from;this.to=to;this.grain=grain;this.body=body;}
+        @Override protected void compute(){
+            if(to-from<=grain){ body.run(from,to); return; }
+            int mid=(from+to)>>>1; joinBoth(new Split(from,mid,grain,body), new Split(mid,to,grain,body));
+        }
+    }
+    private static final class Leaf extends RecursiveAction {
+        final Runnable r; Leaf(Runnable r){this.r=r;}
+        @Override protected void compute(){ r.run(); }
+    }
+}
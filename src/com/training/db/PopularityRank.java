@@ -0,0 +1,81 @@
+package com.training.db;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Predicate;
+import java.util.function.UnaryOperator;
+
+// 课程热度排行：选课/退课时增量维护，推荐时只需从排行头部顺序读取
+// - 排行键为（热度降序、课程名升序、ID 升序），保存在跳表中
+// - 每门课程的当前键放在 AtomicReference 中，通过 CAS 替换；跳表里短暂残留的旧键在读取时按“是否为当前键”过滤
+// - 键额外携带全局递增序号，保证两个键永不相等，避免删除旧键时误删数值相同的新键
+/**
+ * 课程热度排行（无锁增量维护）
+ * - 职责：记录每门课程的选课记录数（含候补），按热度提供有序遍历
+ * - 并发：adjust/rename 为 CAS 循环，不阻塞选课主流程
+ * - 边界：并发更新瞬间某门课程可能短暂缺席遍历结果，适用于推荐等允许近似的场景
+ */
+final class PopularityRank {
+    private static final AtomicLong SEQ=new AtomicLong();
+
+    static final class Key implements Comparable<Key> {
+        final int count; final String name; final String id; final long seq;
+        Key(int count,String name,String id){this.count=count;this.name=name==null? "": name;this.id=id;this.seq=SEQ.incrementAndGet();}
+        @Override public int compareTo(Key o){
+            int cmp=Integer.compare(o.count,count); if(cmp!=0) return cmp;
+            cmp=name.compareTo(o.name); if(cmp!=0) return cmp;
+            cmp=id.compareTo(o.id); if(cmp!=0) return cmp;
+            return Long.compare(seq,o.seq);
+        }
+    }
+
+    private final ConcurrentSkipListSet<Key> ranking=new ConcurrentSkipListSet<>();
+    private final Map<String,AtomicReference<Key>> current=new ConcurrentHashMap<>();
+
+    /** 登记新课程（热度为 0） */
+    void add(String id,String name){ add(id,name,0); }
+    /** 登记课程并给定初始热度（启动恢复时一次性写入，避免逐条 adjust） */
+    void add(String id,String name,int count){
+        AtomicReference<Key> ref=new AtomicReference<>(new Key(count,name,id));
+        if(current.putIfAbsent(id,ref)==null) ranking.add(ref.get());
+    }
+    /** 移除课程 */
+    void remove(String id){
+        AtomicReference<Key> ref=current.remove(id); if(ref!=null) ranking.remove(ref.get());
+    }
+    /** 调整热度
+     * @param delta 选课 +1，退课 -1
+     */
+    void adjust(String id,int delta){ update(id, k->new Key(Math.max(0,k.count+delta),k.name,k.id)); }
+    /** 课程改名后同步排行键 */
+    void rename(String id,String name){ update(id, k->new Key(k.count,name,k.id)); }
+    /** 当前热度（不存在返回 0） */
+    int count(String id){ AtomicReference<Key> ref=current.get(id); return ref==null? 0: ref.get().count; }
+
+    /** 按热度从高到低遍历课程ID
+     * @param visitor 返回 false 时停止遍历
+     */
+    void forEachRanked(Predicate<String> visitor){
+        for(Key k: ranking){
+            AtomicReference<Key> ref=current.get(k.id);
+            if(ref==null || ref.get()!=k) continue; // 过期键
+            if(!visitor.test(k.id)) return;
+        }
+    }
+
+    private void update(String id,UnaryOperator<Key> f){
+        AtomicReference<Key> ref=current.get(id); if(ref==null) return;
+        for(;;){
+            Key old=ref.get(); Key next=f.apply(old);
+            if(ref.compareAndSet(old,next)){
+                ranking.add(next); ranking.remove(old);
+                // 若期间又被其他线程替换或课程已移除，撤回本线程刚插入的键
+                if(ref.get()!=next || current.get(id)!=ref) ranking.remove(next);
+                return;
+            }
+        }
+    }
+}
@@ -0,0 +1,341 @@
+package com.training.db;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.training.db.Db.Course;
+import com.training.db.Db.Enrollment;
+import com.training.db.Db.Grade;
+import com.training.db.Db.TimeSlot;
+import com.training.db.Db.User;
+
+// 全量快照：把内存中的用户/课程/选课/成绩写成一个文件，配合预写日志限制重启时的重放量
+// - 文件 snapshot-<LSN>.snap：LSN 为开始快照前日志切换点，此前的所有变更都已反映在快照中
+// - 快照是“模糊”的：写出期间仍有并发变更，它们的日志记录 LSN 都大于快照 LSN，重放时以幂等方式覆盖
+// - 先写临时文件并 fsync，再原子改名，崩溃时不会留下半个快照
+// 版本 2：
+// - 所有字符串（ID、用户名、课程名、星期……）去重后放入字符串表，其余位置只存 int 下标（-1 表示 null）
+// - 各实体按列存放：先写条数，再逐列写出同类型的原始数组；时间片存为 (星期, 开始, 时长)
+// - 选课与成绩按用户分组连续写出，读取时可按用户边界切分并行重建
+// - 文件末尾为分区目录与尾标（目录偏移 + 魔数），缺少尾标即视为不完整
+// - 读取时整体内存映射，字符串表与各分区以 fork/join 并行解码；版本 1 的流式格式仍可读取
+// 版本 3（当前写出格式）：与版本 2 相同，只是选课分区的次序列改为 long，保存候补记录的入队键；
+// 版本 2 在这一列保存的是写出时的排名（会随并发出队变化，仍可读取，恢复后的次序只是近似）
+/**
+ * 数据快照读写
+ * - 职责：写出/读取全量数据；按 LSN 选择最新快照、清理旧快照
+ * - 格式：魔数 + 版本 + LSN + 成绩序号；版本 2/3 为列式分区 + 字符串表，版本 1 为带标签的记录流
+ * - 并发：Loader 回调可能在多个线程上同时调用（用户与课程先于选课与成绩完成）
+ * - 边界：版本 2/3 的偏移与下标均为 int，单个快照文件不超过 2GB（MAX_BYTES）；写出前按条数算出文件大小，超出时直接报错，
+ *   不写出截断的文件。读取时遇到未知版本或格式不完整视为损坏，打印原因后退回更早的快照；目录中有快照却一个都读不出时报错，
+ *   不静默地只重放日志（日志已截断到较早的快照，只重放会丢数据）
+ */
+final class Snapshot {
+    private static final int MAGIC=0x534E5031; // "SNP1"
+    private static final int VERSION=3;
+    private static final byte END=0, USER=1, COURSE=2, ENROLLMENT=3, GRADE=4; // 版本 1 的记录标签
+    private static final int S_STRINGS=1, S_USERS=2, S_COURSES=3, S_ENROLLMENTS=4, S_GRADES=5; // 版本 2/3 的分区
+    private static final byte ST_ENROLLED=0, ST_WAITLIST=1;
+    private static final long MAX_BYTES=Integer.MAX_VALUE;
+
+    /** 读取快照时接收各实体；回调可能并发执行，实现需线程安全 */
+    interface Loader {
+        void user(String id,String username,String password,String role,String email);
+        void course(String id,String name,int credit,int capacity,List<TimeSlot> times);
+        /** 某用户的全部选课记录（候补记录已设置 waitOrder：越小越靠前） */
+        void enrollments(String userId,Enrollment[] es);
+        /** 某用户的全部成绩 */
+        void grades(String userId,Grade[] gs);
+    }
+
+    private Snapshot(){}
+
+    /** 写出快照（版本 3）
+     * @param dir 快照目录
+     * @param lsn 快照覆盖到的日志 LSN
+     * @param gradeSeq 当前成绩序号
+     * @param enrollments 选课记录（同一用户的记录应相邻）
+     * @param grades 成绩（同一用户的成绩应相邻）
+     * @return 快照文件
+     * 边界：候补记录写出其入队键（Enrollment.waitOrder）；键在入队后、写 ENROLL 日志前分配，
+     *   日志 LSN 不大于快照 LSN 的记录其键对本线程可见，更晚的记录由重放覆盖
+     * @throws IOException 写入失败，或数据量使文件超过 MAX_BYTES（此时不写出任何文件）
+     */
+    static File write(File dir,long lsn,long gradeSeq,Iterable<User> users,Iterable<Course> courses,Iterable<Enrollment> enrollments,Iterable<Grade> grades) throws IOException {
+        if(!dir.isDirectory() && !dir.mkdirs()) throw new IOException("无法创建快照目录："+dir);
+        Strings st=new Strings();
+        Ints uId=new Ints(), uName=new Ints(), uPwd=new Ints(), uRole=new Ints(), uEmail=new Ints();
+        for(User u: users){ uId.add(st.id(u.id)); uName.add(st.id(u.username)); uPwd.add(st.id(u.password)); uRole.add(st.id(u.role)); uEmail.add(st.id(u.email)); }
+        Ints cId=new Ints(), cName=new Ints(), cCredit=new Ints(), cCap=new Ints(), cSlots=new Ints(), tDay=new Ints(), tStart=new Ints(), tLen=new Ints(), tDate=new Ints();
+        for(Course c: courses){
+            cId.add(st.id(c.id)); cName.add(st.id(c.name)); cCredit.add(c.credit); cCap.add(c.capacity);
+            List<TimeSlot> ts=c.times==null? new ArrayList<>(): c.times; cSlots.add(ts.size());
+            for(TimeSlot t: ts){ tDay.add(st.id(t.day)); tStart.add(t.start); tLen.add(t.end-t.start); tDate.add(st.id(t.date)); }
+        }
+        Ints eUser=new Ints(), eCourse=new Ints(); Longs eOrder=new Longs(); ByteList eStatus=new ByteList();
+        for(Enrollment e: enrollments){
+            String s=e.status; boolean w=Enrollment.WAITLIST.equals(s);
+            if(!w && !Enrollment.ENROLLED.equals(s)) continue; // 快照期间刚被退掉的记录
+            eUser.add(st.id(e.userId)); eCourse.add(st.id(e.courseId)); eStatus.add(w? ST_WAITLIST: ST_ENROLLED);
+            eOrder.add(w? e.waitOrder: 0);
+        }
+        Ints gUser=new Ints(), gCourse=new Ints(), gName=new Ints(); Longs gSeq=new Longs(); Longs gScore=new Longs();
+        for(Grade g: grades){ gSeq.add(g.seq); gUser.add(st.id(g.userId)); gCourse.add(st.id(g.courseId)); gScore.add(Double.doubleToLongBits(g.score)); gName.add(st.id(g.courseName)); }
+
+        // 文件大小可由条数精确算出：超过 int 偏移能表示的范围时报错，而不是写出读取时才发现损坏的文件
+        long bytes=24+4+4L*(st.bytes.size()+1)+st.total
+            +4+20L*uId.n +4+20L*cId.n +4+16L*tDay.n +4+17L*eUser.n +4+28L*gUser.n +4+12*5+12;
+        if(bytes>MAX_BYTES) throw new IOException("快照约 "+(bytes>>20)+"MB，超过格式上限 "+(MAX_BYTES>>20)+"MB（偏移为 int）："
+            +uId.n+" 个用户、"+eUser.n+" 条选课、"+gUser.n+" 条成绩");
+        File f=new File(dir,String.format("snapshot-%020d.snap",lsn)), tmp=new File(dir,f.getName()+".tmp");
+        try (FileOutputStream fos=new FileOutputStream(tmp); DataOutputStream out=new DataOutputStream(new BufferedOutputStream(fos,256<<10))) {
+            out.writeInt(MAGIC); out.writeInt(VERSION); out.writeLong(lsn); out.writeLong(gradeSeq);
+            long[] dirOffsets=new long[6];
+            dirOffsets[S_STRINGS]=out.size(); st.write(out);
+            dirOffsets[S_USERS]=out.size(); out.writeInt(uId.n); uId.write(out); uName.write(out); uPwd.write(out); uRole.write(out); uEmail.write(out);
+            dirOffsets[S_COURSES]=out.size(); out.writeInt(cId.n); cId.write(out); cName.write(out); cCredit.write(out); cCap.write(out); cSlots.write(out);
+            out.writeInt(tDay.n); tDay.write(out); tStart.write(out); tLen.write(out); tDate.write(out);
+            dirOffsets[S_ENROLLMENTS]=out.size(); out.writeInt(eUser.n); eUser.write(out); eCourse.write(out); eOrder.write(out); out.write(eStatus.a,0,eStatus.n);
+            dirOffsets[S_GRADES]=out.size(); out.writeInt(gUser.n); gSeq.write(out); gUser.write(out); gCourse.write(out); gScore.write(out); gName.write(out);
+            long dirOffset=out.size();
+            out.writeInt(5); for(int s=S_STRINGS;s<=S_GRADES;s++){ out.writeInt(s); out.writeLong(dirOffsets[s]); }
+            out.writeLong(dirOffset); out.writeInt(MAGIC);
+            out.flush(); fos.getFD().sync();
+        }
+        if(tmp.length()!=bytes){ tmp.delete(); throw new IOException("快照大小与预计不符："+tmp.length()+" != "+bytes); }
+        if(!tmp.renameTo(f)) throw new IOException("快照改名失败："+f);
+        return f;
+    }
+
+    /** 读取最新的完整快照；最新快照损坏时打印原因并退回更早的一个
+     * @param dir 快照目录
+     * @param loader 实体回调
+     * @param reset 放弃已部分读取的快照时调用，用于清空已回调的数据
+     * @return 快照中的 {LSN, 成绩序号}；目录中没有快照返回 null
+     * @throws IOException 有快照但全部无法读取
+     */
+    static long[] loadLatest(File dir,Loader loader,Runnable reset) throws IOException {
+        File[] files=list(dir);
+        IOException last=null;
+        for(int i=files.length-1;i>=0;i--){
+            try { return load(files[i],loader); }
+            catch (IOException ex) {
+                System.out.println("警告：快照无法读取，退回更早的快照："+files[i].getName()+"（"+ex.getMessage()+"）");
+                if(last!=null) ex.addSuppressed(last);
+                last=ex; reset.run();
+            }
+        }
+        if(last!=null) throw new IOException("目录中的 "+files.length+" 个快照都无法读取："+dir, last);
+        return null;
+    }
+    /** 保留最新的 keep 个快照，删除其余
+     * @return 保留的快照中最早一个的 LSN（日志只能截断到这里，以便最新快照损坏时退回）；没有快照返回 0
+     */
+    static long prune(File dir,int keep){
+        File[] files=list(dir);
+        for(int i=0;i<files.length-keep;i++) files[i].delete();
+        return files.length==0? 0: lsnOf(files[Math.max(0,files.length-keep)]);
+    }
+
+    // 按版本分派；格式不符时抛出 IOException 说明原因（此前已回调的实体由调用方丢弃）
+    private static long[] load(File f,Loader loader) throws IOException {
+        int version;
+        try (DataInputStream in=new DataInputStream(new FileInputStream(f))) {
+            if(in.readInt()!=MAGIC) throw new IOException("魔数不符"); version=in.readInt();
+        } catch (java.io.EOFException eof) { throw new IOException("文件不完整", eof); }
+        if(version==1) return loadV1(f,loader);
+        if(version==2 || version==3) return loadV2(f,loader,version);
+        throw new IOException("未知版本 "+version);
+    }
+
+    private static long[] loadV2(File f,Loader loader,int version) throws IOException {
+        try (RandomAccessFile raf=new RandomAccessFile(f,"r"); FileChannel ch=raf.getChannel()) {
+            long size=ch.size(); if(size<24+12) throw new IOException("文件不完整");
+            if(size>MAX_BYTES) throw new IOException("文件 "+(size>>20)+"MB 超过格式上限（偏移为 int）");
+            MappedByteBuffer buf=ch.map(FileChannel.MapMode.READ_ONLY,0,size);
+            try { return decodeV2(buf,(int)size,loader,version==3); }
+            finally { Journal.unmap(buf); } // Parallel 在全部子任务结束后才返回或抛出：此时已无线程访问映射，立即释放
+        }
+    }
+    // wideOrder：次序列为 long 入队键（版本 3）；否则为 int 排名（版本 2）
+    // 先校验各分区条数与偏移都落在目录之前，再开始回调；解码中的任何运行时异常（越界、负数组长度等）都按格式损坏报告
+    private static long[] decodeV2(MappedByteBuffer buf,int size,Loader loader,boolean wideOrder) throws IOException {
+        try {
+            if(buf.getInt(size-4)!=MAGIC) throw new IOException("缺少尾标（写出未完成）");
+            long lsn=buf.getLong(8), gradeSeq=buf.getLong(16);
+            long dirOff=buf.getLong(size-12); if(dirOff<24 || dirOff>size-16) throw new IOException("目录偏移越界："+dirOff);
+            int dirAt=(int)dirOff, sections=buf.getInt(dirAt);
+            if(sections<0 || dirAt+4L+12L*sections>size-12) throw new IOException("目录项数非法："+sections);
+            int[] at=new int[S_GRADES+1];
+            for(int i=0;i<sections;i++){
+                int id=buf.getInt(dirAt+4+i*12); long off=buf.getLong(dirAt+8+i*12);
+                if(id<0 || id>=at.length) continue;
+                if(off<24 || off>=dirAt) throw new IOException("分区 "+id+" 偏移越界："+off);
+                at[id]=(int)off;
+            }
+            for(int s=S_STRINGS;s<=S_GRADES;s++) if(at[s]==0) throw new IOException("缺少分区 "+s);
+            count(buf,at[S_STRINGS],4,dirAt,"字符串");
+            count(buf,at[S_USERS],20,dirAt,"用户");
+            int courses=count(buf,at[S_COURSES],20,dirAt,"课程");
+            count(buf,at[S_COURSES]+4+20*courses,16,dirAt,"时间片");
+            count(buf,at[S_ENROLLMENTS],wideOrder? 17: 13,dirAt,"选课");
+            count(buf,at[S_GRADES],28,dirAt,"成绩");
+            String[] strings=readStrings(buf,at[S_STRINGS]);
+            // 第一阶段：用户与课程；第二阶段：选课与成绩（需要课程已就绪以过滤已删课程）
+            Parallel.both(()->readUsers(buf,at[S_USERS],strings,loader), ()->readCourses(buf,at[S_COURSES],strings,loader));
+            Parallel.both(()->readEnrollments(buf,at[S_ENROLLMENTS],strings,loader,wideOrder), ()->readGrades(buf,at[S_GRADES],strings,loader));
+            return new long[]{lsn,gradeSeq};
+        } catch (RuntimeException bad) { throw new IOException("格式损坏："+bad, bad); }
+    }
+    // 读取分区开头的条数：不能为负，且 rowBytes 字节一行的定长列不能越过 end
+    private static int count(ByteBuffer buf,int at,int rowBytes,int end,String what) throws IOException {
+        if(at<0 || at+4L>end) throw new IOException(what+"分区越界："+at);
+        int n=buf.getInt(at);
+        if(n<0 || at+4L+(long)rowBytes*n>end) throw new IOException(what+"条数非法："+n);
+        return n;
+    }
+
+    private static String[] readStrings(ByteBuffer buf,int at){
+        int n=buf.getInt(at); int offs=at+4, data=offs+(n+1)*4;
+        String[] out=new String[n];
+        Parallel.forRange(n,(from,to)->{
+            ByteBuffer b=buf.duplicate(); byte[] tmp=new byte[64];
+            for(int i=from;i<to;i++){
+                int s=buf.getInt(offs+i*4), e=buf.getInt(offs+(i+1)*4), len=e-s;
+                if(len>tmp.length) tmp=new byte[len];
+                b.position(data+s); b.get(tmp,0,len); out[i]=new String(tmp,0,len,StandardCharsets.UTF_8);
+            }
+        });
+        return out;
+    }
+    private static String str(String[] strings,int i){ return i<0? null: strings[i]; }
+    private static void readUsers(ByteBuffer buf,int at,String[] s,Loader loader){
+        int n=buf.getInt(at), col=at+4;
+        Parallel.forRange(n,(from,to)->{
+            for(int i=from;i<to;i++) loader.user(str(s,buf.getInt(col+i*4)), str(s,buf.getInt(col+(n+i)*4)), str(s,buf.getInt(col+(2*n+i)*4)), str(s,buf.getInt(col+(3*n+i)*4)), str(s,buf.getInt(col+(4*n+i)*4)));
+        });
+    }
+    private static void readCourses(ByteBuffer buf,int at,String[] s,Loader loader){
+        int n=buf.getInt(at), col=at+4, slots=col+5*n*4, m=buf.getInt(slots), scol=slots+4;
+        int[] first=new int[n+1]; for(int i=0;i<n;i++) first[i+1]=first[i]+buf.getInt(col+(4*n+i)*4);
+        for(int i=0;i<n;i++){
+            List<TimeSlot> ts=new ArrayList<>(first[i+1]-first[i]);
+            for(int k=first[i];k<first[i+1];k++){
+                int start=buf.getInt(scol+(m+k)*4);
+                TimeSlot t=new TimeSlot(str(s,buf.getInt(scol+k*4)), start, start+buf.getInt(scol+(2*m+k)*4)); t.date=str(s,buf.getInt(scol+(3*m+k)*4)); ts.add(t);
+            }
+            loader.course(str(s,buf.getInt(col+i*4)), str(s,buf.getInt(col+(n+i)*4)), buf.getInt(col+(2*n+i)*4), buf.getInt(col+(3*n+i)*4), ts);
+        }
+    }
+    private static void readEnrollments(ByteBuffer buf,int at,String[] s,Loader loader,boolean wideOrder){
+        int n=buf.getInt(at), users=at+4, courses=users+n*4, orders=courses+n*4, status=orders+n*(wideOrder? 8: 4);
+        Parallel.forRuns(n,i->buf.getInt(users+i*4),(from,to)->{
+            Enrollment[] es=new Enrollment[to-from]; String uid=str(s,buf.getInt(users+from*4));
+            for(int i=from;i<to;i++){
+                boolean w=buf.get(status+i)==ST_WAITLIST;
+                Enrollment e=new Enrollment(uid,str(s,buf.getInt(courses+i*4)),w? Enrollment.WAITLIST: Enrollment.ENROLLED);
+                e.waitOrder=wideOrder? buf.getLong(orders+i*8): buf.getInt(orders+i*4); es[i-from]=e;
+            }
+            loader.enrollments(uid,es);
+        });
+    }
+    private static void readGrades(ByteBuffer buf,int at,String[] s,Loader loader){
+        int n=buf.getInt(at), seqs=at+4, users=seqs+n*8, courses=users+n*4, scores=courses+n*4, names=scores+n*8;
+        Parallel.forRuns(n,i->buf.getInt(users+i*4),(from,to)->{
+            Grade[] gs=new Grade[to-from]; String uid=str(s,buf.getInt(users+from*4));
+            for(int i=from;i<to;i++){
+                Grade g=new Grade(); g.seq=buf.getLong(seqs+i*8); g.userId=uid; g.courseId=str(s,buf.getInt(courses+i*4));
+                g.score=Double.longBitsToDouble(buf.getLong(scores+i*8)); g.courseName=str(s,buf.getInt(names+i*4)); gs[i-from]=g;
+            }
+            loader.grades(uid,gs);
+        });
+    }
+
+    // 版本 1：带标签的记录流（只读兼容）；选课与成绩按相邻的同一用户归组后回调
+    private static long[] loadV1(File f,Loader loader) throws IOException {
+        try (DataInputStream in=new DataInputStream(new BufferedInputStream(new FileInputStream(f),64<<10))) {
+            in.readInt(); in.readInt();
+            long lsn=in.readLong(), gradeSeq=in.readLong();
+            List<Enrollment> es=new ArrayList<>(); List<Grade> gs=new ArrayList<>();
+            for(;;){
+                byte tag=in.readByte();
+                if(tag!=ENROLLMENT && !es.isEmpty()){ loader.enrollments(es.get(0).userId,es.toArray(new Enrollment[0])); es.clear(); }
+                if(tag!=GRADE && !gs.isEmpty()){ loader.grades(gs.get(0).userId,gs.toArray(new Grade[0])); gs.clear(); }
+                switch(tag){
+                    case END: return new long[]{lsn,gradeSeq};
+                    case USER: loader.user(str(in),str(in),str(in),str(in),str(in)); break;
+                    case COURSE: {
+                        String id=str(in), name=str(in); int credit=in.readInt(), cap=in.readInt(), n=in.readInt();
+                        List<TimeSlot> ts=new ArrayList<>(n);
+                        for(int i=0;i<n;i++){ TimeSlot t=new TimeSlot(str(in),in.readInt(),in.readInt()); t.date=str(in); ts.add(t); }
+                        loader.course(id,name,credit,cap,ts); break;
+                    }
+                    case ENROLLMENT: {
+                        Enrollment e=new Enrollment(str(in),str(in),str(in)); e.waitOrder=in.readLong();
+                        if(!es.isEmpty() && !es.get(0).userId.equals(e.userId)){ loader.enrollments(es.get(0).userId,es.toArray(new Enrollment[0])); es.clear(); }
+                        es.add(e); break;
+                    }
+                    case GRADE: {
+                        Grade g=new Grade(); g.seq=in.readLong(); g.userId=str(in); g.courseId=str(in); g.score=in.readDouble(); g.courseName=str(in);
+                        if(!gs.isEmpty() && !gs.get(0).userId.equals(g.userId)){ loader.grades(gs.get(0).userId,gs.toArray(new Grade[0])); gs.clear(); }
+                        gs.add(g); break;
+                    }
+                    default: throw new IOException("未知记录标签 "+tag);
+                }
+            }
+        } catch (java.io.EOFException eof) { throw new IOException("文件不完整", eof); }
+    }
+
+    private static File[] list(File dir){
+        File[] files=dir.listFiles((d,n)->n.startsWith("snapshot-") && n.endsWith(".snap"));
+        if(files==null) return new File[0];
+        Arrays.sort(files); return files;
+    }
+    private static long lsnOf(File f){ String n=f.getName(); return Long.parseLong(n.substring(9,n.length()-5)); }
+    private static String str(DataInputStream in) throws IOException { return in.readBoolean()? in.readUTF(): null; }
+
+    // ---- 写出辅助：字符串表与原始类型列 ----
+    private static final class Strings {
+        final Map<String,Integer> ids=new HashMap<>(); final List<byte[]> bytes=new ArrayList<>(); int total;
+        int id(String s){
+            if(s==null) return -1;
+            Integer i=ids.get(s); if(i!=null) return i;
+            byte[] b=s.getBytes(StandardCharsets.UTF_8); ids.put(s,bytes.size()); bytes.add(b); total+=b.length; return bytes.size()-1;
+        }
+        void write(DataOutputStream out) throws IOException {
+            out.writeInt(bytes.size()); int off=0; out.writeInt(0);
+            for(byte[] b: bytes){ off+=b.length; out.writeInt(off); }
+            for(byte[] b: bytes) out.write(b);
+        }
+    }
+    private static final class Ints {
+        int[] a=new int[1024]; int n;
+        void add(int v){ if(n==a.length) a=Arrays.copyOf(a,n*2); a[n++]=v; }
+        void write(DataOutputStream out) throws IOException { for(int i=0;i<n;i++) out.writeInt(a[i]); }
+    }
+    private static final class Longs {
+        long[] a=new long[1024]; int n;
+        void add(long v){ if(n==a.length) a=Arrays.copyOf(a,n*2); a[n++]=v; }
+        void write(DataOutputStream out) throws IOException { for(int i=0;i<n;i++) out.writeLong(a[i]); }
+    }
+    private static final class ByteList {
+        byte[] a=new byte[1024]; int n;
+        void add(byte v){ if(n==a.length) a=Arrays.copyOf(a,n*2); a[n++]=v; }
+    }
+}
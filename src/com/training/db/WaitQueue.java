@@ -0,0 +1,126 @@
+package com.training.db;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.training.db.Db.Enrollment;
+
+// 课程候补队列：双向链表实现的 FIFO，节点直接指向候补的 Enrollment 记录
+// - 入队、队首转正、从中间取消（退掉候补）的链表操作都是 O(1)：Enrollment 持有自己的链表节点
+// - 队列内部用一把短小的锁保护链表指针；锁内只做指针操作，不做日志与其它记账
+// - size 为 volatile，选课时判断“是否有人排队”无需加锁
+// - 排名查询：每个节点带一个槽位号（按入队顺序递增），树状数组（Fenwick）按槽位记录“仍在排队”的人数，
+//   前面有人取消时只需在其槽位处减一，查询排名为一次前缀和，O(log n)
+// - 槽位用尽时把仍在排队的节点从 0 起紧凑重新编号，树状数组大小只与排队人数有关，与历史入队总数无关
+// - 入队键：入队时在队列锁内从全局计数器取一个递增值记在记录上（waitOrder），此后不变；
+//   同一队列中键的大小顺序即排队顺序，快照与日志保存的是键而不是会随出队变化的排名，恢复时按键排序重建
+/**
+ * 课程候补队列（FIFO）
+ * - 职责：按到达顺序保存候补记录，支持单个/批量出队、按记录取消与排名查询
+ * - 并发：offer/poll/pollBatch/cancel/position 在队列锁内完成；入队/出队/取消更新树状数组为 O(log n)
+ * - 边界：出队得到的记录可能已被并发退课，调用方需以 CAS 校验状态后再转正；入队键全局递增，
+ *   恢复后须经 restore 把计数器推进到已有的最大键之后，新入队的记录才会排在恢复出的记录后面
+ */
+final class WaitQueue {
+    static final class Node {
+        final Enrollment e; int slot; Node prev,next;
+        Node(Enrollment e,int slot){this.e=e;this.slot=slot;}
+    }
+
+    // 入队键计数器：所有队列共用，恢复时推进到已有的最大键
+    private static final AtomicLong KEYS=new AtomicLong();
+
+    private final ReentrantLock lock=new ReentrantLock();
+    private Node head,tail;
+    private volatile int size;
+    // 树状数组：下标 i（从 1 开始）对应槽位 i-1；槽位用尽时重新编号并重建
+    private int nextSlot;
+    private int[] tree=new int[65];
+
+    /** 队尾入队，并为记录分配入队键（e.waitOrder） */
+    void offer(Enrollment e){
+        lock.lock();
+        try { e.waitOrder=KEYS.incrementAndGet(); append(e); } finally { lock.unlock(); }
+    }
+    /** 恢复时按入队键升序逐个放回：保留记录原有的键，并把计数器推进到该键 */
+    void restore(Enrollment e){
+        lock.lock();
+        try { KEYS.accumulateAndGet(e.waitOrder,Math::max); append(e); } finally { lock.unlock(); }
+    }
+    /** 队首出队
+     * @return 队首记录；队列为空返回 null
+     */
+    Enrollment poll(){
+        lock.lock();
+        try { return head==null? null: unlink(head); } finally { lock.unlock(); }
+    }
+    /** 批量出队（一次加锁）
+     * @param max 最多出队个数
+     * @return 按队列顺序排列的记录
+     */
+    List<Enrollment> pollBatch(int max){
+        if(max<=0 || size==0) return Collections.emptyList();
+        List<Enrollment> out=new ArrayList<>(Math.min(max,size));
+        lock.lock();
+        try { while(head!=null && out.size()<max) out.add(unlink(head)); } finally { lock.unlock(); }
+        return out;
+    }
+    /** 从队列中取消某条候补记录（O(1)）
+     * @return 记录仍在队列中并被移除返回 true
+     */
+    boolean cancel(Enrollment e){
+        lock.lock();
+        try {
+            Node n=e.waitNode; if(n==null) return false;
+            unlink(n); return true;
+        } finally { lock.unlock(); }
+    }
+    /** 查询某条候补记录的当前排名
+     * @return 1 表示队首；记录不在队列中返回 -1
+     */
+    int position(Enrollment e){
+        lock.lock();
+        try {
+            Node n=e.waitNode; if(n==null) return -1;
+            int sum=0; for(int i=n.slot+1;i>0;i-=i&-i) sum+=tree[i];
+            return sum;
+        } finally { lock.unlock(); }
+    }
+    /** 当前排队人数 */
+    int size(){ return size; }
+    boolean isEmpty(){ return size==0; }
+    /** 树状数组当前的槽位数（随排队人数伸缩，供测试观察） */
+    int capacity(){
+        lock.lock();
+        try { return tree.length-1; } finally { lock.unlock(); }
+    }
+
+    // 调用方持有锁
+    private void append(Enrollment e){
+        if(nextSlot>=tree.length-1) rebuild();
+        Node n=new Node(e,nextSlot++); fenwickAdd(n.slot,1);
+        n.prev=tail; if(tail==null) head=n; else tail.next=n; tail=n;
+        e.waitNode=n; size++;
+    }
+    private Enrollment unlink(Node n){
+        if(n.prev==null) head=n.next; else n.prev.next=n.next;
+        if(n.next==null) tail=n.prev; else n.next.prev=n.prev;
+        n.prev=n.next=null; n.e.waitNode=null; size--;
+        fenwickAdd(n.slot,-1);
+        return n.e;
+    }
+    private void fenwickAdd(int slot,int delta){
+        for(int i=slot+1;i<tree.length;i+=i&-i) tree[i]+=delta;
+    }
+    // 槽位用尽：按队列顺序把仍在排队的节点重新编号为 0..size-1，按“排队人数的两倍”（至少 64）重建树状数组；
+    // 重建后至少还有 size 个空槽位，均摊到每次入队为 O(1)。前 size 个槽位都有人，逐项向父节点累加线性建树 O(n)
+    private void rebuild(){
+        int live=0; for(Node n=head;n!=null;n=n.next) n.slot=live++;
+        tree=new int[Math.max(64,live*2)+1];
+        for(int i=1;i<tree.length;i++){ if(i<=live) tree[i]++; int j=i+(i&-i); if(j<tree.length) tree[j]+=tree[i]; }
+        nextSlot=live;
+    }
+}
@@ -0,0 +1,78 @@
+package com.training.db;
+
+import java.util.List;
+
+import com.training.db.Db.TimeSlot;
+
+// 周课表占用位图：把“星期 × 小时”压缩为 168 位（7 天 × 24 小时），拆在 3 个 long 中
+// - 第 d 天（0=Mon … 6=Sun）第 h 小时对应第 d*24+h 位
+// - 两张课表是否冲突只需按位与，不再逐个比较 TimeSlot 与星期字符串
+// - 对象不可变，可在线程间安全共享；课程在创建/修改时间片时编译一次
+/**
+ * 周课表占用位图
+ * - 职责：将课程时间片编译为位图，支持冲突检测、按星期/小时查询
+ * - 星期解析：只识别英文三字母缩写或完整名称（Mon/Monday，大小写不敏感），在编译时完成一次
+ * - 边界：无法识别的星期不会进入位图（不参与冲突检测与按星期过滤）；小时截断到 0..24
+ */
+public final class WeekMask {
+    public static final String[] DAYS={"Mon","Tue","Wed","Thu","Fri","Sat","Sun"};
+    private static final String[] DAY_NAMES={"Monday","Tuesday","Wednesday","Thursday","Friday","Saturday","Sunday"};
+    public static final WeekMask EMPTY=new WeekMask(0L,0L,0L);
+    private static final long DAY_BITS=(1L<<24)-1;
+
+    private final long w0,w1,w2;
+
+    private WeekMask(long w0,long w1,long w2){this.w0=w0;this.w1=w1;this.w2=w2;}
+
+    /** 解析星期
+     * @param day 星期文本，如 Mon/tue/MONDAY（整体匹配，Monkey、Mo 等不识别）
+     * @return 0..6（Mon..Sun），无法识别返回 -1
+     */
+    public static int dayIndex(String day){
+        if(day==null) return -1;
+        for(int i=0;i<DAYS.length;i++) if(DAYS[i].equalsIgnoreCase(day) || DAY_NAMES[i].equalsIgnoreCase(day)) return i;
+        return -1;
+    }
+
+    /** 将时间片列表编译为位图
+     * @param times 时间片列表（可为 null）
+     * @return 位图；无有效时间片时返回 EMPTY
+     */
+    public static WeekMask of(List<TimeSlot> times){
+        if(times==null || times.isEmpty()) return EMPTY;
+        long[] w=new long[3];
+        for(TimeSlot t: times){
+            int d=dayIndex(t.day); if(d<0) continue;
+            int from=Math.max(0,t.start), to=Math.min(24,t.end);
+            for(int h=from;h<to;h++){ int bit=d*24+h; w[bit>>>6]|=1L<<(bit&63); }
+        }
+        return new WeekMask(w[0],w[1],w[2]);
+    }
+
+    /** 两张课表是否有重叠的小时 */
+    public boolean intersects(WeekMask o){ return ((w0&o.w0)|(w1&o.w1)|(w2&o.w2))!=0; }
+    /** 合并两张课表 */
+    public WeekMask or(WeekMask o){ return new WeekMask(w0|o.w0, w1|o.w1, w2|o.w2); }
+    /** 是否为空课表 */
+    public boolean isEmpty(){ return (w0|w1|w2)==0; }
+    /** 某小时是否被占用
+     * @param day 0..6
+     * @param hour 0..23
+     */
+    public boolean occupied(int day,int hour){
+        if(day<0 || day>6 || hour<0 || hour>23) return false;
+        int bit=day*24+hour; return (word(bit>>>6)&(1L<<(bit&63)))!=0;
+    }
+    /** 某天是否有课
+     * @param day 0..6
+     */
+    public boolean hasDay(int day){
+        if(day<0 || day>6) return false;
+        int bit=day*24; int i=bit>>>6, off=bit&63;
+        long bits=word(i)>>>off;
+        if(off>40) bits|=word(i+1)<<(64-off); // 跨越两个 long 的一天
+        return (bits&DAY_BITS)!=0;
+    }
+
+    private long word(int i){ return i==0? w0: i==1? w1: i==2? w2: 0L; }
+}
@@ -3,6 +3,8 @@ package com.training.web;
 import lw.web.restful.SimpleRestful;
 import lw.web.lwWebException;
 import com.training.dao.DaoFactory;
+import com.training.db.Db.LogEntry;
+import org.json.JSONArray;
 import org.json.JSONObject;
 
 import javax.servlet.http.HttpServletRequest;
@@ -16,7 +18,8 @@ import javax.servlet.http.HttpSession;
  * - 职责：提供系统统计与操作日志查询入口
  * - 支持 action：
  *   - stats：返回用户数、课程数、选课总数（Map<String,Object>）
- *   - logs_query：返回系统操作日志（List<String>）
+ *   - logs_query：按游标分页查询操作日志，可按时间范围与 op/userId/courseId 过滤，返回 {items, next}
+ *   - snapshot：立即写一次数据快照，返回 {lsn, ms}
  * - 认证与权限：需已登录且 Session 中 `role=admin`，否则 401/403
  * - 依赖：通过 `DaoFactory.admin()` 访问数据层，避免直接依赖 `Db`
  */
@@ -24,7 +27,9 @@ public class AdminServlet extends SimpleRestful {
     /** 处理管理员端请求
      * 支持 action：
      * - stats：系统统计（users/courses/enrollments）
-     * - logs_query：操作日志列表
+     * - logs_query：操作日志（参数 cursor 可选，缺省返回最近 limit 条；limit 默认 100、最大 1000；
+     *   from/to 为毫秒时间戳（含），op/userId/courseId 可选过滤）
+     * - snapshot：立即写快照（未打开数据目录时 409）
      * 会话：需登录且 role=admin
      * @param req HTTP 请求
      * @param resp HTTP 响应
@@ -39,8 +44,34 @@ public class AdminServlet extends SimpleRestful {
         String action=jreq!=null? jreq.optString("action", ""): "";
         switch(action){
             case "stats": return DaoFactory.admin().stats();   // 返回用户数量、课程数量、选课总数
-            case "logs_query": return DaoFactory.admin().getLogs(); // 返回系统操作日志（简单字符串列表）
+            case "logs_query": {
+                // 游标分页：next 为本页最后一条的序号（无结果时为当前最新序号），下次以 cursor=next 继续拉取
+                long cursor=jreq.optLong("cursor", -1); int limit=Math.min(1000, jreq.optInt("limit", 100));
+                Long from=jreq.has("from")? jreq.getLong("from"): null, to=jreq.has("to")? jreq.getLong("to"): null;
+                java.util.List<LogEntry> items=DaoFactory.admin().getLogs(cursor, limit, from, to, opt(jreq,"op"), opt(jreq,"userId"), opt(jreq,"courseId"));
+                JSONArray arr=new JSONArray(); for(LogEntry e: items) arr.put(toJson(e));
+                JSONObject out=new JSONObject(); out.put("items", arr);
+                out.put("next", items.isEmpty()? Math.max(cursor, DaoFactory.admin().lastLogSeq()): items.get(items.size()-1).seq);
+                return out;
+            }
+            case "snapshot": {
+                long t0=System.currentTimeMillis(), lsn;
+                try { lsn=DaoFactory.admin().snapshot(); } catch (IllegalStateException ex) { throw new lwWebException(409, "未打开数据目录"); }
+                DaoFactory.admin().log("管理员触发快照 lsn="+lsn);
+                JSONObject out=new JSONObject(); out.put("lsn", lsn); out.put("ms", System.currentTimeMillis()-t0);
+                return out;
+            }
             default: throw new lwWebException(400, "未知action:"+action);
         }
     }
+    // 空字符串视为不过滤
+    private static String opt(JSONObject jreq,String key){ String v=jreq.optString(key, ""); return v.isEmpty()? null: v; }
+    // 日志条目 -> JSON：结构化字段 + 便于直接展示的 text
+    private JSONObject toJson(LogEntry e){
+        JSONObject j=new JSONObject();
+        j.put("seq", e.seq); j.put("time", e.time); j.put("op", e.op);
+        if(e.userId!=null) j.put("userId", e.userId); if(e.courseId!=null) j.put("courseId", e.courseId); if(e.detail!=null) j.put("detail", e.detail);
+        j.put("text", e.toString());
+        return j;
+    }
 }
\ No newline at end of file
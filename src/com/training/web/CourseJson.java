@@ -0,0 +1,68 @@
+package com.training.web;
+
+import com.training.dao.DaoFactory;
+import com.training.db.Db.CatalogDelta;
+import com.training.db.Db.Course;
+import com.training.db.Db.TimeSlot;
+import lw.web.restful.JsonWriter;
+
+import java.io.IOException;
+import java.util.Collection;
+
+// 课程相关的 JSON 序列化：课程列表、推荐、目录增量、座位推送共用，字段在此一处定义
+/**
+ * 课程 JSON 序列化器（流式，基于 JsonWriter）
+ * - course：id/name/credit/capacity/enrolled/waitlist/times[{day,start,end,date?}]
+ * - seats：只含座位信息 id/enrolled/capacity/waitlist（座位推送用）
+ * - courses/delta：包装为 JsonWriter.Writable，业务方法直接返回即可流式输出
+ * - 边界：读取课程字段时不加锁，并发修改中的课程可能输出修改前后的混合值（与原 JSONObject 转换相同）
+ */
+final class CourseJson {
+    private CourseJson(){}
+
+    /** 写出一门课程（明确字段，避免前端出现 undefined） */
+    static void course(JsonWriter w,Course c) throws IOException {
+        w.beginObject();
+        w.name("id").value(c.id);
+        w.name("name").value(c.name);
+        w.name("credit").value(c.credit);
+        w.name("capacity").value(c.capacity);
+        w.name("enrolled").value(c.enrolled);
+        w.name("waitlist").value(DaoFactory.course().waitlistLength(c.id));
+        w.name("times").beginArray();
+        for(TimeSlot t: c.times){
+            w.beginObject();
+            w.name("day").value(t.day);
+            w.name("start").value(t.start);
+            w.name("end").value(t.end);
+            if(t.date!=null) w.name("date").value(t.date);
+            w.endObject();
+        }
+        w.endArray();
+        w.endObject();
+    }
+    /** 写出一门课程的座位信息 */
+    static void seats(JsonWriter w,Course c) throws IOException {
+        w.beginObject();
+        w.name("id").value(c.id);
+        w.name("enrolled").value(c.enrolled);
+        w.name("capacity").value(c.capacity);
+        w.name("waitlist").value(DaoFactory.course().waitlistLength(c.id));
+        w.endObject();
+    }
+    /** 课程数组 */
+    static JsonWriter.Writable courses(Collection<Course> list){
+        return w->{ w.beginArray(); for(Course c: list) course(w,c); w.endArray(); };
+    }
+    /** 目录增量 {version, full, courses:[...], deleted:[id...]} */
+    static JsonWriter.Writable delta(CatalogDelta d){
+        return w->{
+            w.beginObject();
+            w.name("version").value(d.version);
+            w.name("full").value(d.full);
+            w.name("courses").beginArray(); for(Course c: d.changed) course(w,c); w.endArray();
+            w.name("deleted").beginArray(); for(String id: d.deleted) w.value(id); w.endArray();
+            w.endObject();
+        };
+    }
+}
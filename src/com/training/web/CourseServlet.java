@@ -1,16 +1,29 @@
 package com.training.web;
 
+import lw.web.restful.Compression;
+import lw.web.restful.JsonWriter;
 import lw.web.restful.SimpleRestful;
+import lw.web.lwFormData;
 import lw.web.lwWebException;
 import com.training.dao.DaoFactory;
 import com.training.db.Db.Course;
 import com.training.db.Db.TimeSlot;
+import com.training.db.WeekMask;
+import org.json.JSONException;
 import org.json.JSONObject;
 import org.json.JSONArray;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import javax.servlet.http.HttpSession;
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
 
 // 课程管理接口：管理员发布/修改/删除课程，学生可查询与筛选课程
@@ -22,36 +35,34 @@ import java.util.*;
  *   - create：管理员发布课程
  *   - update：管理员修改课程（支持部分字段）
  *   - delete：管理员删除课程
- *   - list：列出所有课程（明确 JSON 字段）
- *   - filter：按学分区间与星期过滤
- * - 会话与权限：仅管理员可进行 create/update/delete；查询无需登录
+ *   - list：列出所有课程（明确 JSON 字段）；响应体按课程目录版本缓存为字节，带 ETag，If-None-Match 命中返回 304；
+ *     带 sinceVersion 时只返回该版本之后变化的课程 {version, full, courses, deleted}（落后太多时 full=true 返回全部）
+ *   - filter：按学分区间、星期/小时、空闲时段（freeDay/freeHour）与是否有空位（seatsLeft）过滤
+ *   - import：管理员批量导入（action 放在查询字符串中，请求体为 CSV 或 JSON Lines，流式读取、大小不限）
+ * - 会话与权限：仅管理员可进行 create/update/delete/import；查询无需登录
  * - 依赖：通过 `DaoFactory.course()` 访问数据层；时间段 `TimeSlot(day,start,end,date?)`
  */
 public class CourseServlet extends SimpleRestful {
-    // 将课程对象转换为明确的JSON结构，避免默认反射序列化遗漏字段
-    /** 将课程对象转换为明确 JSON 结构
-     * @param c 课程对象
-     * @return 包含 id/name/credit/capacity/enrolled/times 的 JSON
-     */
-    private JSONObject toJson(Course c){
-        JSONObject j=new JSONObject();
-        j.put("id", c.id);
-        j.put("name", c.name);
-        j.put("credit", c.credit);
-        j.put("capacity", c.capacity);
-        j.put("enrolled", c.enrolled);
-        JSONArray times=new JSONArray();
-        for(TimeSlot t: c.times){
-            JSONObject jt=new JSONObject();
-            jt.put("day", t.day);
-            jt.put("start", t.start);
-            jt.put("end", t.end);
-            if(t.date!=null) jt.put("date", t.date);
-            times.put(jt);
+    // 批量导入：每批写入的课程数、响应中最多列出的错误行数
+    private static final int IMPORT_BATCH=500;
+    private static final int MAX_ERRORS=1000;
+
+    // 课程列表缓存：某一目录版本下完整响应（含 error/reason 外壳）的 UTF-8 字节与对应 ETag
+    // 版本未变时直接写出同一数组；ETag 带进程启动时间，重启后旧 ETag 不会误命中
+    // 压缩后的字节按编码在首次需要时生成并随本版本保留，同一版本只压缩一次；压缩表示的 ETag 加编码后缀以区分
+    private static final class Catalog {
+        final long version; final byte[] body; final String etag;
+        private byte[] gzip, deflate;
+        Catalog(long version,byte[] body){this.version=version;this.body=body;this.etag="\""+BOOT+"-"+version+"\"";}
+        synchronized byte[] encoded(String encoding){
+            if(Compression.GZIP.equals(encoding)){ if(gzip==null) gzip=Compression.compress(body, encoding); return gzip; }
+            if(deflate==null) deflate=Compression.compress(body, encoding);
+            return deflate;
         }
-        j.put("times", times);
-        return j;
+        String etag(String encoding){ return encoding==null? etag: etag.substring(0, etag.length()-1)+"-"+encoding+"\""; }
     }
+    private static final String BOOT=Long.toHexString(System.currentTimeMillis());
+    private static volatile Catalog catalog;
 
     @Override
     /** 处理课程管理请求
@@ -60,7 +71,7 @@ public class CourseServlet extends SimpleRestful {
      * - update：修改课程（管理员）
      * - delete：删除课程（管理员）
      * - list：列出所有课程（明确字段）
-     * - filter：按学分/星期过滤（明确字段）
+     * - filter：按学分/星期/小时/空闲时段/空位过滤（明确字段）
      * 权限：create/update/delete 需管理员；查询无需登录
      * @param req HTTP 请求
      * @param resp HTTP 响应
@@ -105,23 +116,163 @@ public class CourseServlet extends SimpleRestful {
                 String id=jreq.getString("id"); boolean ok=DaoFactory.course().deleteCourse(id); if(!ok) throw new lwWebException(404, "课程不存在"); return new JSONObject().put("ok", true);
             }
             case "list":{
-                // 列出所有课程（明确JSON字段，避免前端出现undefined）
-                List<Course> list=DaoFactory.course().listCourses();
-                JSONArray arr=new JSONArray();
-                for(Course c: list){ arr.put(toJson(c)); }
-                return arr;
+                // 列出所有课程（明确JSON字段，避免前端出现undefined）；直接写出缓存的响应字节
+                if(jreq.has("sinceVersion")) return CourseJson.delta(DaoFactory.course().catalogSince(jreq.getLong("sinceVersion")));
+                return writeCatalog(req, resp);
             }
             case "filter":{
-                // 基于学分区间和星期过滤课程（明确JSON字段，避免前端出现undefined）
+                // 基于学分区间、星期/小时、空闲时段与空位过滤课程（明确JSON字段，避免前端出现undefined）
                 Integer min=jreq.has("minCredit")? jreq.getInt("minCredit"): null;
                 Integer max=jreq.has("maxCredit")? jreq.getInt("maxCredit"): null;
                 String day=jreq.optString("day", null);
-                List<Course> list=DaoFactory.course().filterCourses(min,max,day);
-                JSONArray arr=new JSONArray();
-                for(Course c: list){ arr.put(toJson(c)); }
-                return arr;
+                Integer hour=jreq.has("hour")? jreq.getInt("hour"): null;
+                String freeDay=jreq.optString("freeDay", null);
+                Integer freeHour=jreq.has("freeHour")? jreq.getInt("freeHour"): null;
+                boolean seatsLeft=jreq.optBoolean("seatsLeft", false);
+                return CourseJson.courses(DaoFactory.course().filterCourses(min,max,day,hour,freeDay,freeHour,seatsLeft));
             }
             default: throw new lwWebException(400, "未知action:"+action);
         }
     }
-}
\ No newline at end of file
+
+    /** 输出课程列表：目录版本未变时直接复制缓存的字节（每次请求不做序列化与分配）
+     * 响应带 ETag 与 Cache-Control: no-cache；If-None-Match 与当前 ETag 相同时返回 304 且无响应体
+     * 客户端接受 gzip/deflate 且列表超过压缩阈值时输出本版本预先压缩好的字节
+     */
+    private Object writeCatalog(HttpServletRequest req, HttpServletResponse resp) throws IOException {
+        Catalog c=currentCatalog();
+        String encoding=acceptedEncoding(req, c.body.length), etag=c.etag(encoding);
+        resp.setHeader("ETag", etag);
+        resp.setHeader("Cache-Control", "no-cache");
+        if(compress_threshold>=0) resp.setHeader("Vary", "Accept-Encoding");
+        String inm=req.getHeader("If-None-Match");
+        if(inm!=null && (inm.indexOf(etag)>=0 || "*".equals(inm.trim()))){ resp.setStatus(HttpServletResponse.SC_NOT_MODIFIED); return RESPONSE_WRITTEN; }
+        byte[] body=encoding==null? c.body: c.encoded(encoding);
+        resp.setContentType("application/json;charset=UTF-8");
+        if(encoding!=null) resp.setHeader("Content-Encoding", encoding);
+        resp.setContentLength(body.length);
+        resp.getOutputStream().write(body);
+        return RESPONSE_WRITTEN;
+    }
+    // 版本变化后由第一个请求重建（其余请求在类监视器上等待同一次重建）；先读版本再读课程，保证缓存内容不旧于所标版本
+    private Catalog currentCatalog() throws IOException {
+        long v=DaoFactory.course().catalogVersion(); Catalog c=catalog;
+        if(c!=null && c.version==v) return c;
+        synchronized(CourseServlet.class){
+            v=DaoFactory.course().catalogVersion(); c=catalog;
+            if(c!=null && c.version==v) return c;
+            ByteArrayOutputStream buf=new ByteArrayOutputStream(64*1024);
+            Writer out=new OutputStreamWriter(buf, StandardCharsets.UTF_8);
+            JsonWriter w=new JsonWriter(out, JsonFormat);
+            w.beginObject().name("error").value(0).name("reason").value("ok").name("data");
+            CourseJson.courses(DaoFactory.course().listCourses()).writeJson(w);
+            w.endObject().flush();
+            c=new Catalog(v, buf.toByteArray());
+            catalog=c; return c;
+        }
+    }
+    /** 查询字符串中 action=import 时按流读取请求体（不受 max_req_size 限制）；action=list 时不读请求体，直接走课程列表缓存（GET 可用浏览器缓存协商） */
+    @Override
+    protected boolean streamBody(HttpServletRequest req){
+        String action=lwFormData.parse(req.getQueryString(), charset).get("action");
+        return "import".equals(action) || "list".equals(action);
+    }
+    /** 批量导入课程（管理员）
+     * 请求：POST api/course?action=import[&format=csv|jsonl]；format 缺省时 Content-Type 含 csv 按 CSV，否则按 JSON Lines
+     * - CSV：name,credit,capacity,times；times 形如 "Mon 8-10;Wed 14-16"，时间段后可附日期 "Mon 8-10 2025/10/25"；
+     *   首行以 name 开头时视为表头跳过；字段可用双引号包裹（"" 转义），不支持字段内换行
+     * - JSON Lines：每行一个与 create 相同结构的对象 {name,credit,capacity,times:[{day,start,end,date?}]}
+     * 逐行解析与校验，合法行每 IMPORT_BATCH 条通过 addCourses 写入一次；非法行不影响其他行
+     * @return {inserted, failed, errors:[{line, error}]}（errors 最多列出 MAX_ERRORS 条，行号从 1 开始）
+     * @throws lwWebException 非管理员（403）
+     */
+    @Override
+    protected Object executeStream(HttpServletRequest req, HttpServletResponse resp, InputStream body) throws Exception {
+        lwFormData q=lwFormData.parse(req.getQueryString(), charset);
+        if("list".equals(q.get("action"))){
+            String since=q.get("sinceVersion");
+            if(since==null || since.isEmpty()) return writeCatalog(req, resp);
+            try { return CourseJson.delta(DaoFactory.course().catalogSince(Long.parseLong(since))); }
+            catch (NumberFormatException ex) { throw new lwWebException(400, "sinceVersion 不是整数："+since); }
+        }
+        HttpSession s=req.getSession(false);
+        if(s==null || !"admin".equals(s.getAttribute("role"))) throw new lwWebException(403, "仅管理员可导入课程");
+        String format=q.get("format");
+        if(format==null || format.isEmpty()){ String ct=req.getContentType(); format=ct!=null && ct.toLowerCase(Locale.ROOT).contains("csv")? "csv": "jsonl"; }
+        boolean csv="csv".equals(format);
+        BufferedReader in=new BufferedReader(new InputStreamReader(body, charset));
+        List<Course> batch=new ArrayList<>(IMPORT_BATCH); JSONArray errors=new JSONArray();
+        int inserted=0, failed=0, lineNo=0; String line;
+        while((line=in.readLine())!=null){
+            lineNo++;
+            if(lineNo==1 && line.startsWith("\uFEFF")) line=line.substring(1); // UTF-8 BOM
+            if(line.trim().isEmpty()) continue;
+            if(csv && lineNo==1 && line.trim().toLowerCase(Locale.ROOT).startsWith("name")) continue;
+            try {
+                batch.add(csv? parseCsvRow(line): parseJsonRow(line));
+            } catch (IllegalArgumentException | JSONException ex) {
+                failed++;
+                if(errors.length()<MAX_ERRORS) errors.put(new JSONObject().put("line", lineNo).put("error", ex.getMessage()));
+                continue;
+            }
+            if(batch.size()>=IMPORT_BATCH){ inserted+=DaoFactory.course().addCourses(batch).size(); batch=new ArrayList<>(IMPORT_BATCH); }
+        }
+        if(!batch.isEmpty()) inserted+=DaoFactory.course().addCourses(batch).size();
+        return new JSONObject().put("inserted", inserted).put("failed", failed).put("errors", errors);
+    }
+    // CSV 行 -> 待导入课程
+    private static Course parseCsvRow(String line){
+        List<String> f=splitCsv(line);
+        if(f.size()<4) throw new IllegalArgumentException("需要 4 列：name,credit,capacity,times");
+        List<TimeSlot> times=new ArrayList<>();
+        for(String part: f.get(3).split(";")){
+            part=part.trim(); if(part.isEmpty()) continue;
+            String[] p=part.split("\\s+"); String[] h=p.length>=2? p[1].split("-"): new String[0];
+            if(h.length!=2) throw new IllegalArgumentException("时间段格式应为 \"Mon 8-10\"："+part);
+            TimeSlot t=new TimeSlot(p[0], toInt(h[0],"开始小时"), toInt(h[1],"结束小时")); if(p.length>2) t.date=p[2];
+            times.add(t);
+        }
+        return draft(f.get(0).trim(), toInt(f.get(1),"学分"), toInt(f.get(2),"容量"), times);
+    }
+    // JSON 行 -> 待导入课程（字段同 create）
+    private static Course parseJsonRow(String line){
+        JSONObject j=new JSONObject(line);
+        List<TimeSlot> times=new ArrayList<>(); JSONArray ts=j.optJSONArray("times");
+        if(ts!=null) for(int i=0;i<ts.length();i++){ JSONObject t=ts.getJSONObject(i); TimeSlot slot=new TimeSlot(t.getString("day"), t.getInt("start"), t.getInt("end")); if(t.has("date")) slot.date=t.getString("date"); times.add(slot); }
+        return draft(j.optString("name","").trim(), j.getInt("credit"), j.getInt("capacity"), times);
+    }
+    // 校验并构造待导入课程：名称非空、学分为正、容量非负；星期可识别、0<=start<end<=24，同一课程的时间段互不重叠
+    private static Course draft(String name,int credit,int capacity,List<TimeSlot> times){
+        if(name.isEmpty()) throw new IllegalArgumentException("课程名为空");
+        if(credit<=0) throw new IllegalArgumentException("学分必须为正数："+credit);
+        if(capacity<0) throw new IllegalArgumentException("容量不能为负数："+capacity);
+        for(int i=0;i<times.size();i++){
+            TimeSlot t=times.get(i); int d=WeekMask.dayIndex(t.day);
+            if(d<0) throw new IllegalArgumentException("无法识别的星期："+t.day);
+            if(t.start<0 || t.end>24 || t.start>=t.end) throw new IllegalArgumentException("时间段无效："+t.day+" "+t.start+"-"+t.end);
+            for(int k=0;k<i;k++){
+                TimeSlot o=times.get(k);
+                if(WeekMask.dayIndex(o.day)==d && Objects.equals(o.date,t.date) && o.start<t.end && t.start<o.end) throw new IllegalArgumentException("时间段重叠："+o.day+" "+o.start+"-"+o.end+" 与 "+t.start+"-"+t.end);
+            }
+        }
+        return new Course(null,name,credit,capacity,times);
+    }
+    private static int toInt(String v,String field){
+        try { return Integer.parseInt(v.trim()); } catch (NumberFormatException ex) { throw new IllegalArgumentException(field+"不是整数："+v); }
+    }
+    // 拆分一行 CSV：逗号分隔，字段可用双引号包裹，"" 表示一个双引号（成绩导入同样使用）
+    static List<String> splitCsv(String line){
+        List<String> out=new ArrayList<>(); StringBuilder cur=new StringBuilder(); boolean quoted=false;
+        for(int i=0;i<line.length();i++){
+            char ch=line.charAt(i);
+            if(quoted){
+                if(ch=='"'){ if(i+1<line.length() && line.charAt(i+1)=='"'){ cur.append('"'); i++; } else quoted=false; }
+                else cur.append(ch);
+            } else if(ch=='"') quoted=true;
+            else if(ch==','){ out.add(cur.toString()); cur.setLength(0); }
+            else cur.append(ch);
+        }
+        out.add(cur.toString());
+        return out;
+    }
+}
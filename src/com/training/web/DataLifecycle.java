@@ -0,0 +1,41 @@
+package com.training.web;
+
+import com.training.dao.DaoFactory;
+
+import java.io.File;
+
+import javax.servlet.ServletContext;
+import javax.servlet.ServletContextEvent;
+import javax.servlet.ServletContextListener;
+
+// 数据层生命周期：应用启动时（任何 Servlet 初始化、任何请求到达之前）打开数据目录并恢复数据，关闭时停止后台任务
+// - 恢复必须先于一切写入：若等到某个 Servlet 首次被访问时才打开，其它接口可能已写入课程，恢复会被拒绝，
+//   随后注入的示例数据会掩盖磁盘上的真实数据
+// - 数据目录打不开或恢复失败时直接抛出，使应用启动失败（容器日志中可见原因），不带着空库继续运行
+/**
+ * 数据层启动/关闭监听器（在 web.xml 中登记）
+ * - 启动：按 context-param 打开数据目录（恢复快照与预写日志），再注入示例数据（已有数据时不注入）
+ * - 关闭：写最后一次快照、刷盘并停止数据层后台线程，避免重新部署后线程泄漏
+ * - 配置：`dataDir`（缺省 ${catalina.base}/data/training，再退回系统临时目录）、`logRetentionDays`（缺省 14）、`logMaxMB`（缺省 1024）
+ */
+public class DataLifecycle implements ServletContextListener {
+    @Override
+    public void contextInitialized(ServletContextEvent sce){
+        ServletContext ctx=sce.getServletContext();
+        String dir=ctx.getInitParameter("dataDir");
+        if(dir==null || dir.trim().isEmpty()){ String base=System.getProperty("catalina.base", System.getProperty("java.io.tmpdir")); dir=new File(base, "data"+File.separator+"training").getPath(); }
+        File dataDir=new File(dir.trim());
+        try { DaoFactory.admin().open(dataDir, intParam(ctx,"logRetentionDays"), intParam(ctx,"logMaxMB")); }
+        catch (Exception e) { throw new IllegalStateException("数据目录无法打开或恢复失败，应用停止启动："+dataDir, e); }
+        DaoFactory.admin().seed();
+        ctx.log("数据目录已打开："+dataDir);
+    }
+    @Override
+    public void contextDestroyed(ServletContextEvent sce){ DaoFactory.admin().shutdown(); }
+
+    // 未配置或为空时返回 0（由数据层取默认值）
+    private static int intParam(ServletContext ctx,String name){
+        String v=ctx.getInitParameter(name);
+        return v==null || v.trim().isEmpty()? 0: Integer.parseInt(v.trim());
+    }
+}
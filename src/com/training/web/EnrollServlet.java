@@ -20,17 +20,24 @@ import java.util.List;
  * - 职责：学生选课、退课、查询我的选课
  * - 支持 action：
  *   - enroll：选课（返回 status=enrolled/waitlist/conflict）
+ *   - enroll_batch：一次提交多门课程，返回每门课程的状态；atomic=true 时全部成功才提交
  *   - drop：退课（返回 ok；可触发候补转正）
  *   - mylist：我的选课列表（包含课程名称）
+ *   - waitlist：我的候补课程及当前排名（position/length）
  * - 会话与权限：需登录并从 Session 读取 `uid`
  * - 依赖：通过 `DaoFactory.enrollment()` 与 `DaoFactory.course()` 访问数据层
  */
 public class EnrollServlet extends SimpleRestful {
+    // 单次批量选课的课程数上限
+    private static final int MAX_BATCH=50;
     /** 处理选课相关请求
      * 支持 action：
-     * - enroll：选课（返回 status=enrolled/waitlist/conflict）
+     * - enroll：选课（返回 status=enrolled/waitlist/conflict；课程恰被并发删除时为 aborted）
+     * - enroll_batch：批量选课（参数 courseIds 数组，最多 MAX_BATCH 门；atomic 可选，默认 false），
+     *   返回 {committed, items:[{courseId, status}]}，课程不存在时 status=not_found
      * - drop：退课（返回 ok；可触发候补转正）
      * - mylist：我的选课列表（包含课程名称）
+     * - waitlist：我的候补排名（每门候补课程的 position 与队列长度 length）
      * 会话：需登录（从 Session 读取 uid）
      * @param req HTTP 请求
      * @param resp HTTP 响应
@@ -52,6 +59,22 @@ public class EnrollServlet extends SimpleRestful {
                 if(e==null) throw new lwWebException(404, "课程不存在");
                 return new JSONObject().put("status", e.status);
             }
+            case "enroll_batch":{
+                // 批量选课：一次往返提交整张计划课表；逐门返回状态
+                JSONArray arr=jreq.optJSONArray("courseIds");
+                if(arr==null || arr.length()==0) throw new lwWebException(400, "缺少courseIds");
+                if(arr.length()>MAX_BATCH) throw new lwWebException(400, "一次最多提交"+MAX_BATCH+"门课程");
+                List<String> ids=new java.util.ArrayList<>(); for(int i=0;i<arr.length();i++) ids.add(arr.getString(i));
+                boolean atomic=jreq.optBoolean("atomic", false);
+                List<Enrollment> res=DaoFactory.enrollment().enrollBatch(uid, ids, atomic);
+                // committed：atomic 模式下仅当每门课程都处于已选状态时为 true（否则本次未写入任何记录）
+                JSONArray items=new JSONArray(); boolean committed=true;
+                for(Enrollment e: res){
+                    if(atomic && !Enrollment.ENROLLED.equals(e.status)) committed=false;
+                    items.put(new JSONObject().put("courseId", e.courseId).put("status", e.status));
+                }
+                return new JSONObject().put("committed", committed).put("items", items);
+            }
             case "drop":{
                 // 退课：若课程有人候补，会自动将候补队列首位转为已选
                 String courseId=jreq.getString("courseId"); boolean ok=DaoFactory.enrollment().drop(uid,courseId); return new JSONObject().put("ok", ok);
@@ -72,6 +95,10 @@ public class EnrollServlet extends SimpleRestful {
                 }
                 return arr;
             }
+            case "waitlist":{
+                // 候补排名：直接查询各课程候补队列，无需再拉取完整 mylist
+                return DaoFactory.enrollment().waitlistStatus(uid);
+            }
             default: throw new lwWebException(400, "未知action:"+action);
         }
     }
@@ -0,0 +1,56 @@
+package com.training.web;
+
+import lw.web.restful.SimpleRestful;
+import lw.web.lwWebException;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.InputStream;
+
+// 座位变化推送接口：GET api/seats 建立 SSE 连接（text/event-stream），替代前端轮询课程列表
+// 需在 web.xml 中为本 Servlet 开启 async-supported；连接建立后请求线程立即返回，推送由 SeatEvents 完成
+/**
+ * 座位变化推送 Servlet（Server-Sent Events）
+ * - 职责：把请求转为异步连接并登记到 SeatEvents；不读取请求体，无需登录（与课程列表一样公开）
+ * - 事件：
+ *   - snapshot：连接建立时及客户端落后太多时发送，data 为 {version, courses:[{id, enrolled, capacity, waitlist}], deleted:[]}
+ *   - seats：每 500ms 合并一次的变化，data 结构同上，courses 只含变化的课程，deleted 为已删除的课程ID
+ * - 边界：订阅数达到上限时返回 503；容器未开启异步支持时返回 500
+ */
+public class SeatEventServlet extends SimpleRestful {
+    private SeatEvents hub;
+
+    @Override
+    public void init(){ hub=new SeatEvents(); }
+    /** 容器关闭时停止推送线程并结束全部连接 */
+    @Override
+    public void destroy(){ hub.shutdown(); super.destroy(); }
+
+    /** 所有请求都不读请求体，直接进入 executeStream 建立连接 */
+    @Override
+    protected boolean streamBody(HttpServletRequest req){ return true; }
+
+    /** 建立 SSE 连接
+     * @return RESPONSE_WRITTEN（响应由 SeatEvents 异步写出）
+     * @throws lwWebException 未开启异步支持（500）/订阅数已满（503）
+     */
+    @Override
+    protected Object executeStream(HttpServletRequest req, HttpServletResponse resp, InputStream body) throws Exception {
+        if(!req.isAsyncSupported()) throw new lwWebException(500, "未开启异步支持");
+        if(hub.size()>=SeatEvents.MAX_SUBSCRIBERS) throw new lwWebException(503, "订阅数已满，请稍后重试");
+        resp.setCharacterEncoding(charset);
+        resp.setContentType("text/event-stream");
+        resp.setHeader("Cache-Control", "no-cache");
+        resp.setHeader("X-Accel-Buffering", "no"); // 反向代理（nginx）不缓冲事件流
+        AsyncContext ctx=req.startAsync();
+        ctx.setTimeout(0); // 不超时：断开的连接由定时的注释行写出失败来发现
+        hub.subscribe(ctx);
+        return RESPONSE_WRITTEN;
+    }
+
+    @Override
+    protected Object execute(HttpServletRequest req, HttpServletResponse resp, org.json.JSONObject jreq) throws Exception {
+        throw new lwWebException(400, "请使用 EventSource 订阅");
+    }
+}
@@ -0,0 +1,166 @@
+package com.training.web;
+
+import com.training.dao.DaoFactory;
+import com.training.db.Db.CatalogDelta;
+import com.training.db.Db.Course;
+import lw.web.restful.JsonWriter;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+// 座位变化推送（SSE）：一个定时线程按课程目录版本取增量，合并成一条事件广播给全部订阅者
+// - 订阅者只持有 AsyncContext 与一个很小的待发队列，不占用线程；写出走 Servlet 3.1 非阻塞 I/O（isReady + WriteListener）
+// - 事件在广播前编码一次，所有订阅者共享同一个字节数组
+// - 慢客户端：待发事件超过 MAX_PENDING 条时清空队列，改为在可写时发送一份当前快照（快照已包含被丢弃的变化）
+// - 增量跨越变更环（落后太多或重启恢复）时同样让所有订阅者改收快照
+/**
+ * 座位变化事件中心
+ * - 职责：维护订阅者；每 PUSH_MS 合并一次座位数/候补人数变化并推送；空闲时每 PING_MS 发送注释行探测断开的连接
+ * - 事件：snapshot（全部课程的 id/enrolled/capacity/waitlist）、seats（变化的课程与已删除的课程ID）
+ * - 并发：推送线程与容器的可写回调在订阅者监视器内交替写出；快照按目录版本缓存，不早于已推送的增量
+ * - 边界：订阅数超过 MAX_SUBSCRIBERS 时拒绝新订阅；事件只保证最终一致，同一课程的多次变化合并为最新值
+ */
+final class SeatEvents {
+    private static final long PUSH_MS=500, PING_MS=15_000;
+    private static final int MAX_PENDING=8;
+    static final int MAX_SUBSCRIBERS=50_000;
+    private static final byte[] PING=": ping\n\n".getBytes(StandardCharsets.UTF_8);
+
+    private static final class Frame { final long version; final byte[] bytes; Frame(long version,byte[] bytes){this.version=version;this.bytes=bytes;} }
+
+    private final Set<Subscriber> subscribers=ConcurrentHashMap.newKeySet();
+    private final ScheduledExecutorService timer=Executors.newSingleThreadScheduledExecutor(r->{ Thread t=new Thread(r,"seat-events"); t.setDaemon(true); return t; });
+    private volatile long lastVersion; // 已推送到的目录版本（构造后仅推送线程写）
+    private volatile Frame snapshot;
+    private long lastPush;
+
+    SeatEvents(){
+        lastVersion=DaoFactory.course().catalogVersion();
+        timer.scheduleWithFixedDelay(this::tick, PUSH_MS, PUSH_MS, TimeUnit.MILLISECONDS);
+    }
+
+    /** 当前订阅数 */
+    int size(){ return subscribers.size(); }
+
+    /** 登记订阅：连接可写后先收到一份快照，之后收增量
+     * @param ctx 已开始的异步上下文（响应头已设置）
+     * 边界：先登记异步与写监听、最后才加入订阅集合——推送线程只会看到已设置 WriteListener 的连接
+     *   （未设置前调用 isReady 会抛出 IllegalStateException，连接会被误关）；登记期间连接已结束的不再加入
+     */
+    void subscribe(AsyncContext ctx) throws IOException {
+        Subscriber s=new Subscriber(ctx);
+        ctx.addListener(s);
+        s.out.setWriteListener(s); // 容器随后回调 onWritePossible，由其写出首份快照
+        s.register();
+    }
+
+    /** 停止推送并结束所有连接 */
+    void shutdown(){
+        timer.shutdownNow();
+        for(Subscriber s: subscribers) s.close();
+    }
+
+    private void tick(){
+        try {
+            if(subscribers.isEmpty()){ lastVersion=DaoFactory.course().catalogVersion(); return; }
+            CatalogDelta d=DaoFactory.course().catalogSince(lastVersion);
+            lastVersion=d.version;
+            long now=System.currentTimeMillis();
+            byte[] ev;
+            if(d.full) ev=null; // 让每个订阅者改收快照
+            else if(!d.changed.isEmpty() || !d.deleted.isEmpty()) ev=encode("seats", d.version, d.changed, d.deleted);
+            else if(now-lastPush>=PING_MS) ev=PING;
+            else return;
+            lastPush=now;
+            for(Subscriber s: subscribers) s.push(ev);
+        } catch (RuntimeException ex) { System.out.println("座位事件推送失败："+ex); }
+    }
+
+    // 当前全部课程的快照：版本不早于已推送的增量时复用，避免每个落后的订阅者各自重建
+    private byte[] snapshot(){
+        Frame f=snapshot;
+        if(f!=null && f.version>=lastVersion) return f.bytes;
+        synchronized(this){
+            f=snapshot;
+            if(f!=null && f.version>=lastVersion) return f.bytes;
+            long v=DaoFactory.course().catalogVersion();
+            f=new Frame(v, encode("snapshot", v, DaoFactory.course().listCourses(), Collections.<String>emptyList()));
+            snapshot=f; return f.bytes;
+        }
+    }
+
+    private static byte[] encode(String event,long version,Collection<Course> courses,Collection<String> deleted){
+        StringWriter out=new StringWriter(256+courses.size()*96);
+        out.write("retry: 3000\nevent: "+event+"\nid: "+version+"\ndata: ");
+        try {
+            JsonWriter w=new JsonWriter(out, false); // 紧凑输出：SSE 的 data 行内不能有换行
+            w.beginObject().name("version").value(version);
+            w.name("courses").beginArray(); for(Course c: courses) CourseJson.seats(w,c); w.endArray();
+            w.name("deleted").beginArray(); for(String id: deleted) w.value(id); w.endArray();
+            w.endObject().flush();
+        } catch (IOException ex) { throw new IllegalStateException(ex); } // StringWriter 不会抛出
+        out.write("\n\n");
+        return out.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    // 一个 SSE 连接：待发队列与写出状态都在本对象监视器内修改
+    private final class Subscriber implements WriteListener, AsyncListener {
+        final AsyncContext ctx; final ServletOutputStream out;
+        private final ArrayDeque<byte[]> pending=new ArrayDeque<>(MAX_PENDING);
+        private boolean wantSnapshot=true, flushNeeded, closed;
+
+        Subscriber(AsyncContext ctx) throws IOException { this.ctx=ctx; this.out=ctx.getResponse().getOutputStream(); }
+
+        // 与 close 同在监视器内：已关闭的连接不加入，加入后的关闭总能把它移除
+        synchronized void register(){ if(!closed) subscribers.add(this); }
+
+        // ev 为 null 表示改发快照；积压过多同样改发快照（快照在写出时生成，已包含被丢弃的变化）
+        synchronized void push(byte[] ev){
+            if(closed) return;
+            if(ev==null || pending.size()>=MAX_PENDING){ pending.clear(); wantSnapshot=true; }
+            else if(!wantSnapshot) pending.add(ev);
+            drain();
+        }
+        // 非阻塞写出：每次 isReady 为 true 只写一段；为 false 时由容器稍后回调 onWritePossible 继续
+        private void drain(){
+            try {
+                while(!closed && out.isReady()){
+                    byte[] next;
+                    if(wantSnapshot){ wantSnapshot=false; pending.clear(); next=snapshot(); }
+                    else next=pending.poll();
+                    if(next==null){
+                        if(!flushNeeded) return;
+                        flushNeeded=false; out.flush(); continue;
+                    }
+                    out.write(next); flushNeeded=true;
+                }
+            } catch (IOException|RuntimeException ex) { close(); }
+        }
+        synchronized void close(){
+            if(closed) return;
+            closed=true; subscribers.remove(this);
+            try { ctx.complete(); } catch (RuntimeException ignore) { }
+        }
+
+        @Override public synchronized void onWritePossible(){ drain(); }
+        @Override public void onError(Throwable t){ close(); }
+        @Override public void onComplete(AsyncEvent e){ close(); }
+        @Override public void onTimeout(AsyncEvent e){ close(); }
+        @Override public void onError(AsyncEvent e){ close(); }
+        @Override public void onStartAsync(AsyncEvent e){ }
+    }
+}
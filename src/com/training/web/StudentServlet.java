@@ -1,58 +1,41 @@
 package com.training.web;
 
 import lw.web.restful.SimpleRestful;
+import lw.web.lwFormData;
 import lw.web.lwWebException;
-import lw.util.TextFile;
 import com.training.dao.DaoFactory;
 import com.training.db.Db.Course;
 import com.training.db.Db.Enrollment;
-import com.training.db.Db.TimeSlot;
+import com.training.db.Db.Grade;
 import org.json.JSONObject;
 import org.json.JSONArray;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import javax.servlet.http.HttpSession;
-import java.io.File;
+import java.io.BufferedReader;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
 import java.util.*;
 
 // 学生视图接口：课表、成绩、课程推荐、成绩导出
-// 导出成绩为CSV到 WebRoot/exports 目录，前端可直接下载
+// 导出成绩直接以 text/csv 流式写入响应（GET api/student?action=grades_export），不生成中间字符串或文件
 /**
  * 学生端综合接口 Servlet
  * - 职责：课表查询、成绩查询、成绩导出
  * - 支持 action：
  *   - schedule：我的课表
  *   - grades_query：查询成绩列表
- *   - grades_export：导出成绩为 CSV
- * - 会话与权限：需登录并从 Session 读取 `uid`
+ *   - grades_export：导出成绩为 CSV（查询字符串调用时直接下载；管理员可按课程或全部导出）
+ *   - grades_import：管理员批量导入成绩（action 放在查询字符串中，请求体为 CSV，流式读取）
+ * - 会话与权限：需登录并从 Session 读取 `uid`；grades_import 需管理员
  * - 依赖：通过 `DaoFactory.grade()`、`DaoFactory.enrollment()`、`DaoFactory.course()` 访问数据层
  */
 public class StudentServlet extends SimpleRestful {
-    // 将课程对象转换为明确 JSON 结构
-    /** 将课程对象转换为明确 JSON 结构
-     * @param c 课程对象
-     * @return 包含 id/name/credit/capacity/enrolled/times 的 JSON
-     */
-    private JSONObject toJson(Course c){
-        JSONObject j=new JSONObject();
-        j.put("id", c.id);
-        j.put("name", c.name);
-        j.put("credit", c.credit);
-        j.put("capacity", c.capacity);
-        j.put("enrolled", c.enrolled);
-        JSONArray times=new JSONArray();
-        for(TimeSlot t: c.times){
-            JSONObject jt=new JSONObject();
-            jt.put("day", t.day);
-            jt.put("start", t.start);
-            jt.put("end", t.end);
-            if(t.date!=null) jt.put("date", t.date);
-            times.put(jt);
-        }
-        j.put("times", times);
-        return j;
-    }
+    // 成绩导入：每批写入的行数、响应中最多列出的错误行数
+    private static final int IMPORT_BATCH=1000;
+    private static final int MAX_ERRORS=1000;
 
     @Override
     /** 处理学生端请求
@@ -60,8 +43,8 @@ public class StudentServlet extends SimpleRestful {
      * - calendar：返回我的课表事件（title/day/start/end）
      * - grades：查询成绩列表（含未评分返回 null）
      * - set_grade：设定成绩（仅管理员可为他人设定）
-     * - recommend：课程推荐（明确字段）
-     * - grades_export：导出成绩为 CSV 文件
+     * - recommend：课程推荐（明确字段，可选 limit 取前 N 条）
+     * - grades_export：返回下载地址 {file}（CSV 由 GET api/student?action=grades_export 流式输出）
      * 会话：需登录（从 Session 读取 uid/role）
      * @param req HTTP 请求
      * @param resp HTTP 响应
@@ -116,24 +99,104 @@ public class StudentServlet extends SimpleRestful {
                 return new JSONObject().put("ok", true);
             }
             case "recommend":{
-                // 返回明确字段的推荐课程，避免前端出现 undefined
-                java.util.List<Course> list=DaoFactory.course().recommend(uid);
-                JSONArray arr=new JSONArray();
-                for(Course c: list){ arr.put(toJson(c)); }
-                return arr;
+                // 返回明确字段的推荐课程，避免前端出现 undefined；limit 可选（不传或 <=0 表示不限）
+                int limit=jreq.optInt("limit", 0);
+                return CourseJson.courses(DaoFactory.course().recommend(uid, limit));
             }
             case "grades_export":{
-                // 将成绩导出为CSV文件，并返回下载路径
-                java.util.List<com.training.db.Db.Grade> list=DaoFactory.grade().getGrades(uid);
-                StringBuilder sb=new StringBuilder(); sb.append("courseId,score\n");
-                for(com.training.db.Db.Grade g: list){ sb.append(g.courseId).append(",").append(g.score).append("\n"); }
-                String real=req.getServletContext().getRealPath("/exports");
-                File dir=new File(real); if(!dir.exists()) dir.mkdirs();
-                File f=new File(dir, "grades_"+uid+".csv");
-                TextFile.write(f, sb.toString(), charset);
-                Map<String,Object> r=new HashMap<>(); r.put("file", "/exports/"+f.getName()); return r;
+                // 兼容旧调用：不再写文件，返回可直接下载的流式导出地址
+                Map<String,Object> r=new HashMap<>(); r.put("file", "api/student?action=grades_export"); return r;
             }
             default: throw new lwWebException(400, "未知action:"+action);
         }
     }
-}
\ No newline at end of file
+
+    /** 查询字符串中 action=grades_import/grades_export 时走流式处理（前者流式读取请求体，后者流式写出响应） */
+    @Override
+    protected boolean streamBody(HttpServletRequest req){
+        String action=lwFormData.parse(req.getQueryString(), charset).get("action");
+        return "grades_import".equals(action) || "grades_export".equals(action);
+    }
+    /** 批量导入成绩（管理员）
+     * 请求：POST api/student?action=grades_import，请求体为 CSV：userId,courseId,score（首行以 userId 开头时视为表头跳过）
+     * 逐行解析，每 IMPORT_BATCH 行通过 GradeDao.setGrades 写入一次；同一学生同一课程的成绩被替换而不是重复追加
+     * @return {applied, clamped, rejected, errors:[{line, error}]}：applied 为原样写入行数，clamped 为分数越界截断后写入的行数，
+     *         rejected 为格式错误或用户/课程不存在而未写入的行数（errors 最多列出 MAX_ERRORS 条）
+     * @throws lwWebException 未登录（401）/非管理员（403）
+     */
+    @Override
+    protected Object executeStream(HttpServletRequest req, HttpServletResponse resp, InputStream body) throws Exception {
+        HttpSession s=req.getSession(false); if(s==null || s.getAttribute("uid")==null) throw new lwWebException(401, "未登录");
+        lwFormData q=lwFormData.parse(req.getQueryString(), charset);
+        if("grades_export".equals(q.get("action"))) return exportGrades(resp, s, q);
+        if(!"admin".equals(s.getAttribute("role"))) throw new lwWebException(403, "仅管理员可导入成绩");
+        BufferedReader in=new BufferedReader(new InputStreamReader(body, charset));
+        List<Grade> batch=new ArrayList<>(IMPORT_BATCH); List<Integer> lines=new ArrayList<>(IMPORT_BATCH);
+        int[] counts=new int[3]; JSONArray errors=new JSONArray(); // counts: applied/clamped/rejected
+        int lineNo=0; String line;
+        while((line=in.readLine())!=null){
+            lineNo++;
+            if(lineNo==1 && line.startsWith("\uFEFF")) line=line.substring(1); // UTF-8 BOM
+            if(line.trim().isEmpty()) continue;
+            if(lineNo==1 && line.trim().toLowerCase(Locale.ROOT).startsWith("userid")) continue;
+            List<String> f=CourseServlet.splitCsv(line); // 字段可用双引号包裹（与导出的转义一致）
+            String err=null; Grade g=null;
+            if(f.size()<3) err="需要 3 列：userId,courseId,score";
+            else {
+                g=new Grade(); g.userId=f.get(0).trim(); g.courseId=f.get(1).trim();
+                try { g.score=Double.parseDouble(f.get(2).trim()); if(Double.isNaN(g.score) || Double.isInfinite(g.score)) err="分数无效："+f.get(2); }
+                catch (NumberFormatException ex) { err="分数不是数字："+f.get(2); }
+            }
+            if(err!=null){ counts[2]++; if(errors.length()<MAX_ERRORS) errors.put(new JSONObject().put("line", lineNo).put("error", err)); continue; }
+            batch.add(g); lines.add(lineNo);
+            if(batch.size()>=IMPORT_BATCH){ applyGrades(batch,lines,counts,errors); batch.clear(); lines.clear(); }
+        }
+        if(!batch.isEmpty()) applyGrades(batch,lines,counts,errors);
+        return new JSONObject().put("applied", counts[0]).put("clamped", counts[1]).put("rejected", counts[2]).put("errors", errors);
+    }
+    /** 流式导出成绩 CSV（chunked text/csv，逐行写入响应，不在内存中拼接整份文件）
+     * - 无参数：当前用户的成绩，列 courseId,score
+     * - courseId=...（管理员）：该课程全部成绩；all=1（管理员）：全部成绩；列 userId,courseId,courseName,score
+     * 管理员导出按课程索引逐条遍历成绩存储，内存占用与导出行数无关
+     */
+    private Object exportGrades(HttpServletResponse resp,HttpSession s,lwFormData q) throws Exception {
+        String courseId=q.get("courseId"); if(courseId!=null && courseId.isEmpty()) courseId=null;
+        boolean all="1".equals(q.get("all")), admin=courseId!=null || all;
+        if(admin && !"admin".equals(s.getAttribute("role"))) throw new lwWebException(403, "仅管理员可导出全部成绩");
+        String name=admin? "grades_"+(all? "all": courseId)+".csv": "grades_"+s.getAttribute("uid")+".csv";
+        resp.setCharacterEncoding(charset);
+        resp.setContentType("text/csv");
+        resp.setHeader("Content-Disposition", "attachment; filename=\""+name.replaceAll("[^A-Za-z0-9._-]","_")+"\"");
+        PrintWriter w=resp.getWriter();
+        if(!admin){
+            w.write("courseId,score\n");
+            for(Grade g: DaoFactory.grade().getGrades((String)s.getAttribute("uid"))){ w.write(csv(g.courseId)); w.write(','); w.write(String.valueOf(g.score)); w.write('\n'); }
+        } else {
+            w.write("userId,courseId,courseName,score\n");
+            int[] n={0};
+            DaoFactory.grade().forEachGrade(all? null: courseId, g->{
+                w.write(csv(g.userId)); w.write(','); w.write(csv(g.courseId)); w.write(','); w.write(csv(g.courseName)); w.write(','); w.write(String.valueOf(g.score)); w.write('\n');
+                // 定期检查连接：客户端断开后停止遍历（checkError 会顺带 flush 已缓冲的数据）
+                if(++n[0]%1000==0 && w.checkError()) throw new IllegalStateException("客户端已断开");
+            });
+        }
+        w.flush();
+        return RESPONSE_WRITTEN;
+    }
+    // CSV 字段转义：含逗号/引号/换行时用双引号包裹，内部引号加倍
+    private static String csv(String v){
+        if(v==null) return "";
+        if(v.indexOf(',')<0 && v.indexOf('"')<0 && v.indexOf('\n')<0 && v.indexOf('\r')<0) return v;
+        return "\""+v.replace("\"","\"\"")+"\"";
+    }
+    // 写入一批成绩并汇总每行结果
+    private static void applyGrades(List<Grade> batch,List<Integer> lines,int[] counts,JSONArray errors){
+        List<String> res=DaoFactory.grade().setGrades(batch);
+        for(int i=0;i<res.size();i++){
+            String r=res.get(i);
+            if(Grade.APPLIED.equals(r)) counts[0]++;
+            else if(Grade.CLAMPED.equals(r)) counts[1]++;
+            else { counts[2]++; if(errors.length()<MAX_ERRORS) errors.put(new JSONObject().put("line", lines.get(i)).put("error", Grade.UNKNOWN_USER.equals(r)? "用户不存在："+batch.get(i).userId: "课程不存在："+batch.get(i).courseId)); }
+        }
+    }
+}
@@ -15,22 +15,16 @@ import javax.servlet.http.HttpSession;
 // 使用会话(HttpSession)保存登录状态；所有响应均由基础类输出统一JSON格式
 /**
  * 用户接口 Servlet
- * - 职责：注册、登录、注销、密码重置；启动时进行示例数据种子初始化
+ * - 职责：注册、登录、注销、密码重置（数据目录的打开与示例数据初始化见 DataLifecycle）
  * - 支持 action：
  *   - register：注册用户，返回 id/username/role
  *   - login：登录并写入 Session（uid/username/role），返回基本用户信息
  *   - logout：注销，销毁 Session
  *   - reset：按用户名重置密码，返回 ok
  * - 会话与安全：使用 HttpSession 维护登录状态；登录失败返回 401
- * - 依赖：通过 `DaoFactory.user()` 与 `DaoFactory.admin().seed()` 与数据层交互
+ * - 依赖：通过 `DaoFactory.user()` 与数据层交互
  */
 public class UserServlet extends SimpleRestful {
-    /** 初始化示例数据
-     * 在容器启动时调用，便于演示与联调
-     */
-    @Override
-    public void init(){ DaoFactory.admin().seed(); }
-
     /** 处理用户相关请求
      * 支持 action：
      * - register：注册用户（username/password 必填；role 默认 student）
@@ -61,8 +55,9 @@ public class UserServlet extends SimpleRestful {
                 String password=jreq.getString("password");
                 String email=jreq.optString("email","");
                 String role=jreq.optString("role","student");
-                if(DaoFactory.user().findByName(username)!=null) throw new lwWebException(409, "用户已存在");
+                // 用户名唯一性由数据层原子保证：并发注册同名用户时只有一个成功
                 User u=DaoFactory.user().addUser(username,password,role,email);
+                if(u==null) throw new lwWebException(409, "用户已存在");
                 return new JSONObject().put("id",u.id).put("username",u.username).put("role",u.role);
             }
             case "login":{
@@ -10,27 +10,28 @@ public class TextFile {
 	
 	// 读取整个文件为字符串，指定字符集
 	public static String read(File f,String charset) throws Exception {
-		FileInputStream fStream=new FileInputStream(f);
-		
 		int filesize=(int)f.length();
 		if (filesize>1024*512) 
 			throw new Exception("文件过大"+filesize);
 		
-		byte[] buffer=new byte[filesize];
-		fStream.read(buffer);
-		return new String(buffer, charset);
+		// try-with-resources：读取完成或出错都会关闭文件
+		try (FileInputStream fStream=new FileInputStream(f)) {
+			byte[] buffer=new byte[filesize];
+			int n=0;
+			while (n<filesize) {
+				int k=fStream.read(buffer, n, filesize-n);
+				if (k<0) break;
+				n+=k;
+			}
+			return new String(buffer, 0, n, charset);
+		}
 	}
 	
-	// 写入文本到文件（覆盖写），指定字符集
+	// 写入文本到文件（覆盖写），指定字符集；写入失败时异常抛给调用方
 	public static void write(File f,String text,String charset) throws Exception {
-			FileOutputStream fStream=new FileOutputStream(f);
-			try {
-				fStream.write(text.getBytes(charset));
-			} catch (Exception e) {
-				fStream.close();
-			}
-			
-		
+		try (FileOutputStream fStream=new FileOutputStream(f)) {
+			fStream.write(text.getBytes(charset));
+		}
 	}
 
 }
\ No newline at end of file
@@ -52,7 +52,8 @@ public class lwFormData extends  HashMap<String, String>{
 		}
 	}
 	
-	// 从输入流读取文本（用于POST请求体），限制最大读取字节避免内存过度占用
+	// 从输入流读取文本，限制最大读取字节避免内存过度占用；超过上限时抛出 IOException（不再静默截断）
+	// 注：SimpleRestful 已改用缓冲池中复用的字节缓冲直接解析请求体，本方法保留给需要整段文本的场景
 	public static String readAsText(InputStream stream,String charset ,int maxsize) throws IOException {
 		ByteArrayOutputStream cache=new ByteArrayOutputStream(maxsize);
 		byte[] data=new byte[1024];
@@ -62,7 +63,7 @@ public class lwFormData extends  HashMap<String, String>{
 			if (n==0) continue; // 无数据继续读取
 			cache.write(data,0,n);
 			if (cache.size()>maxsize) 
-				break; // 保护：超过上限立即停止
+				throw new IOException("请求体超过 "+maxsize+" 字节"); // 保护：超过上限立即停止
 		}
 		return cache.toString(charset);
 		
@@ -8,11 +8,17 @@ public class lwWebException extends Exception{
 public int error;
 // 错误原因的文本描述
 public String reason;
+// 建议客户端多少秒后重试（>0 时框架输出 Retry-After 响应头，用于 429/503 等过载错误）
+public int retryAfter;
 
 public lwWebException(int error,String reason) {
 	this.error=error;
 	this.reason=reason;
 }
+public lwWebException(int error,String reason,int retryAfter) {
+	this(error, reason);
+	this.retryAfter=retryAfter;
+}
 @Override
 public String getMessage() {
 	// 返回异常信息。当前实现仅返回 "reason:"+错误码，用于演示；实际可改为返回 reason 文本
@@ -0,0 +1,310 @@
+package lw.web.restful;
+
+// 一次异步模式下的请求：非阻塞读请求体 → 执行器中运行 execute → 非阻塞写响应
+// - 读：ReadListener 在容器回调中把已到达的字节读入从缓冲池借出的缓冲，读完后解析JSON、归还缓冲并提交给执行器
+// - 写：响应先编码（必要时压缩）到借出的缓冲，再由 WriteListener 在连接可写时写出，慢客户端不占用执行器线程；请求结束时归还
+// - 缓冲池与同步模式共用（SimpleRestful.borrowBuffer/returnBuffer），每个请求不再各自分配并逐次扩容
+// - 状态用 CAS 推进，超时与业务线程同时结束时只有一方写响应
+// - 超时后容器会回收请求/响应对象，而业务线程可能还在运行：提交执行器之前把 execute 要用的会话、请求头、查询串等复制到 DetachedRequest，
+//   业务线程不再直接读原始请求；仍需访问原始请求/响应的少数方法与超时在同一把 guard 锁下互斥，超时之后调用抛出 IllegalStateException
+// - 在途许可由“请求”与“已提交的任务”共同持有：请求结束且 run 返回后才归还，超时不会让仍在运行的任务脱离在途上限
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.ReadListener;
+import javax.servlet.ServletInputStream;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.Cookie;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletRequestWrapper;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+import javax.servlet.http.HttpSession;
+
+import org.json.JSONObject;
+
+import lw.web.lwWebException;
+
+/**
+ * 异步请求处理
+ * - 职责：在 AsyncContext 上完成一次 SimpleRestful 请求，请求结束（无论成功、出错、超时）且业务任务返回后归还一个在途许可
+ * - 响应：与同步模式相同的 {"error","reason","data"}；业务方法返回 RESPONSE_WRITTEN 时视为已自行写出（阻塞写）
+ * - 边界：请求体上限、限流与同步模式相同（超限 413、超速 429）；超时时返回 503，业务线程不会被中断，其结果被丢弃；
+ *   超时前尚未开始执行的任务直接丢弃，不调用 execute。业务方法拿到的请求为提交前的快照（会话、请求头、查询串、地址与路径），
+ *   创建会话、读写属性/参数/Cookie 以及修改响应在超时后抛出 IllegalStateException；已取得的输出流在超时后不再受保护，
+ *   自行写出响应的业务方法应在 async_timeout 内完成
+ */
+final class AsyncCall implements ReadListener, WriteListener, AsyncListener, Runnable {
+    private static final int READING=0, RUNNING=1, WRITING=2, DONE=3;
+    private static final String EXPIRED="异步请求已超时结束";
+
+    private final SimpleRestful servlet;
+    private final HttpServletRequest req;
+    private final HttpServletResponse resp;
+    private final AtomicInteger state=new AtomicInteger(READING);
+    private final AtomicBoolean released=new AtomicBoolean();
+    // 在途许可的持有者：请求本身（1）+ 已提交的任务（1）；归零时归还许可
+    private final AtomicInteger holders=new AtomicInteger(1);
+    // 超时结束请求与“访问原始请求/响应”互斥：离开 RUNNING 之后不再有任何线程触碰原始对象
+    private final Object guard=new Object();
+    private AsyncContext ctx;
+    private ServletInputStream in;
+    // 借出的缓冲：body 归本对象监视器保护，answer 在 guard 与本对象监视器下替换；归还后置 null，不再访问
+    private byte[] body;
+    private int count;
+    private JSONObject jreq;
+    private ServletOutputStream out;
+    private SimpleRestful.Bytes answer;
+    private boolean written;
+    private HttpServletRequest view;
+    private HttpServletResponse viewResp;
+
+    AsyncCall(SimpleRestful servlet,HttpServletRequest req,HttpServletResponse resp){ this.servlet=servlet; this.req=req; this.resp=resp; }
+
+    /** 开始异步处理并登记读监听；声明长度超限时直接返回 413 */
+    void start() throws IOException {
+        try {
+            ctx=req.startAsync(req, resp);
+            ctx.setTimeout(servlet.async_timeout);
+            ctx.addListener(this);
+            long len=req.getContentLengthLong();
+            if(len>servlet.max_req_size){ fail(new lwWebException(413, "请求体过大（上限 "+servlet.max_req_size+" 字节）")); return; }
+            byte[] b=SimpleRestful.borrowBuffer();
+            if(len>b.length){ SimpleRestful.returnBuffer(b); b=new byte[(int)len+1]; } // 多留 1 字节用于发现超限
+            synchronized(this){ body=b; }
+            in=req.getInputStream();
+            in.setReadListener(this); // 容器随后回调 onDataAvailable/onAllDataRead
+        } catch (IOException|RuntimeException e) {
+            if(ctx==null){ release(); throw e; }
+            finish();
+        }
+    }
+
+    @Override
+    public void onDataAvailable() throws IOException {
+        synchronized(this){
+            while(body!=null && in.isReady()){ // body 为 null：请求已结束，缓冲已归还
+                if(count==body.length){
+                    if(count>servlet.max_req_size) break;
+                    byte[] old=body; body=Arrays.copyOf(body, Math.min(count*2, servlet.max_req_size+1)); SimpleRestful.returnBuffer(old);
+                }
+                int n=in.read(body, count, body.length-count);
+                if(n<0) return;
+                count+=n;
+            }
+            if(body==null || count<=servlet.max_req_size) return;
+        }
+        fail(new lwWebException(413, "请求体过大（上限 "+servlet.max_req_size+" 字节）")); // 在本对象监视器之外：写出要先取 guard
+    }
+
+    @Override
+    public void onAllDataRead() {
+        byte[] b; int n;
+        synchronized(this){ b=body; n=count; body=null; } // 取走缓冲：解析后即归还，不必等到请求结束
+        if(b==null) return; // 请求已结束
+        try {
+            if(n>servlet.max_req_size) throw new lwWebException(413, "请求体过大（上限 "+servlet.max_req_size+" 字节）");
+            try { jreq=servlet.parseJson(b, n); } finally { SimpleRestful.returnBuffer(b); } // 解析结果不引用缓冲
+            servlet.admit(req, jreq!=null? jreq.optString("action", null): null); // 限流在提交执行器之前，被拒绝的请求不占执行器
+        } catch (lwWebException e) { fail(e); return; }
+        synchronized(guard){
+            if(state.get()!=READING) return; // 已超时或已出错结束
+            view=new DetachedRequest(req); viewResp=new GuardedResponse(resp);
+            state.set(RUNNING);
+        }
+        holders.incrementAndGet();
+        try { servlet.executor.execute(this); }
+        catch (RejectedExecutionException e) { unhold(); respond(RUNNING, 503, "服务繁忙，请稍后重试", null, servlet.retry_after); } // 执行器已关闭
+    }
+
+    // 执行器线程：运行业务方法，结果编码后交给写监听；任务返回后才放下对在途许可的持有
+    @Override
+    public void run() {
+        try {
+            if(state.get()!=RUNNING) return; // 排队期间已超时：丢弃，不调用 execute
+            Object data=servlet.execute(view, viewResp, jreq);
+            if(data==SimpleRestful.RESPONSE_WRITTEN){ if(state.compareAndSet(RUNNING, DONE)) finish(); return; }
+            respond(RUNNING, 0, "ok", data, 0);
+        } catch (lwWebException e) {
+            respond(RUNNING, e.error, e.reason!=null? e.reason: e.getMessage(), null, e.retryAfter);
+        } catch (Exception e) {
+            servlet.log("异步请求执行出错", e);
+            respond(RUNNING, -1, e.getMessage()!=null? e.getMessage(): e.getClass().getName(), null, 0);
+        } finally {
+            unhold();
+        }
+    }
+
+    private void fail(lwWebException e){ respond(READING, e.error, e.reason, null, e.retryAfter); }
+
+    // 从 from 状态进入写出：编码响应到借出的缓冲、设置状态码与响应头，然后登记写监听（与超时互斥，超时后不再触碰响应）
+    // 缓冲一借出即挂到 answer 上，出错时也由请求结束时的 recycle 归还（recycle 同样要取 guard，不会在编码中途收走缓冲）
+    private void respond(int from,int error,String reason,Object data,int retryAfter){
+        synchronized(guard){
+            if(!state.compareAndSet(from, WRITING)) return; // 已超时或已出错结束
+            try {
+                SimpleRestful.Bytes bytes=new SimpleRestful.Bytes(SimpleRestful.borrowBuffer()); hold(bytes);
+                servlet.encodeResponse(error, reason, data, bytes);
+                SimpleRestful.errorStatus(resp, error, retryAfter);
+                resp.setCharacterEncoding("UTF-8");
+                resp.setContentType("application/json");
+                String encoding=data!=null? servlet.acceptedEncoding(req, bytes.size()): null;
+                if(encoding!=null){
+                    SimpleRestful.Bytes packed=new SimpleRestful.Bytes(SimpleRestful.borrowBuffer());
+                    try { Compression.compress(bytes.array(), 0, bytes.size(), encoding, packed); }
+                    catch (IOException|RuntimeException e) { SimpleRestful.returnBuffer(packed.array()); throw e; }
+                    hold(packed); SimpleRestful.returnBuffer(bytes.array()); // 换下未压缩的那块
+                    bytes=packed;
+                    resp.setHeader("Vary", "Accept-Encoding");
+                    resp.setHeader("Content-Encoding", encoding);
+                }
+                resp.setContentLength(bytes.size());
+                out=resp.getOutputStream();
+                out.setWriteListener(this); // 容器随后回调 onWritePossible
+            } catch (IOException|RuntimeException e) {
+                servlet.log("异步响应写出失败", e);
+                finish();
+            }
+        }
+    }
+
+    // 调用方持有 guard：登记待写出的缓冲
+    private void hold(SimpleRestful.Bytes b){ synchronized(this){ answer=b; } }
+
+    // 可写时一次交出全部字节（容器负责分段发送）；再次可写即表示已写完
+    // 锁顺序总是 guard → 本对象监视器：finish 可能同步触发 onComplete → recycle（取 guard），须在监视器之外调用
+    @Override
+    public void onWritePossible() throws IOException {
+        boolean done;
+        synchronized(this){
+            done=answer==null; // 请求已结束，缓冲已归还
+            while(!done && out.isReady()){
+                if(written) done=true; else { answer.writeTo(out); written=true; }
+            }
+        }
+        if(done) finish();
+    }
+
+    @Override
+    public void onError(Throwable t) { finish(); }
+
+    @Override
+    public void onTimeout(AsyncEvent event) throws IOException {
+        // 仍在读或执行中：直接写 503（此时尚未登记写监听，可阻塞写出这段很短的响应）；业务线程此后不再触碰原始请求/响应
+        synchronized(guard){
+            int s=state.get();
+            if((s==READING || s==RUNNING) && state.compareAndSet(s, DONE)){
+                resp.setStatus(503);
+                resp.setHeader("Retry-After", String.valueOf(servlet.retry_after));
+                resp.setContentType("application/json");
+                resp.setCharacterEncoding("UTF-8");
+                resp.getOutputStream().write(servlet.encodeResponse(503, "处理超时，请稍后重试", null));
+            }
+            finish();
+        }
+    }
+    @Override
+    public void onComplete(AsyncEvent event) { state.set(DONE); recycle(); release(); }
+    @Override
+    public void onError(AsyncEvent event) { finish(); }
+    @Override
+    public void onStartAsync(AsyncEvent event) { }
+
+    private void finish(){
+        state.set(DONE);
+        try { ctx.complete(); } catch (RuntimeException ignore) { } // 已完成时容器会抛出 IllegalStateException
+        release();
+    }
+    // 请求结束时归还借出的缓冲（可重复调用）：与编码（guard）和写出（本对象监视器）互斥，归还后不再访问
+    private void recycle(){
+        byte[] b; SimpleRestful.Bytes a;
+        synchronized(guard){ synchronized(this){ b=body; body=null; a=answer; answer=null; } }
+        SimpleRestful.returnBuffer(b);
+        if(a!=null) SimpleRestful.returnBuffer(a.array());
+    }
+    // 请求一方结束（可重复调用）；任务一方在 run 返回时调用 unhold
+    private void release(){ if(released.compareAndSet(false, true)) unhold(); }
+    private void unhold(){ if(holders.decrementAndGet()==0) servlet.inflight.release(); }
+
+    // 仍需访问原始请求/响应时调用（调用方持有 guard）：请求已离开 RUNNING 则原始对象可能已被容器回收
+    private void checkLive(){ if(state.get()!=RUNNING) throw new IllegalStateException(EXPIRED); }
+
+    // 提交执行器之前的请求快照：会话与 uid 等属性经 HttpSession 读取（会话对象不随请求回收），请求头、查询串、地址与路径为复制的值；
+    // 创建会话与读写属性/参数/Cookie 仍委托原始请求，与超时互斥
+    private final class DetachedRequest extends HttpServletRequestWrapper {
+        private HttpSession session;
+        private final Map<String,List<String>> headers=new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        private final String query, method, uri, contextPath, servletPath, pathInfo, remoteAddr, contentType, encoding;
+
+        DetachedRequest(HttpServletRequest req){
+            super(req);
+            session=req.getSession(false);
+            for(Enumeration<String> names=req.getHeaderNames(); names!=null && names.hasMoreElements();){
+                String n=names.nextElement(); headers.put(n, Collections.list(req.getHeaders(n)));
+            }
+            query=req.getQueryString(); method=req.getMethod(); uri=req.getRequestURI(); contextPath=req.getContextPath();
+            servletPath=req.getServletPath(); pathInfo=req.getPathInfo(); remoteAddr=req.getRemoteAddr();
+            contentType=req.getContentType(); encoding=req.getCharacterEncoding();
+        }
+        @Override public HttpSession getSession(){ return getSession(true); }
+        @Override public HttpSession getSession(boolean create){
+            if(session!=null || !create) return session;
+            synchronized(guard){ checkLive(); session=super.getSession(true); return session; } // 登录等需要新建会话（写 Cookie）
+        }
+        @Override public String getHeader(String name){ List<String> v=headers.get(name); return v==null || v.isEmpty()? null: v.get(0); }
+        @Override public Enumeration<String> getHeaders(String name){ List<String> v=headers.get(name); return Collections.enumeration(v!=null? v: Collections.<String>emptyList()); }
+        @Override public Enumeration<String> getHeaderNames(){ return Collections.enumeration(headers.keySet()); }
+        @Override public int getIntHeader(String name){ String v=getHeader(name); return v==null? -1: Integer.parseInt(v.trim()); }
+        @Override public long getDateHeader(String name){ synchronized(guard){ checkLive(); return super.getDateHeader(name); } }
+        @Override public String getQueryString(){ return query; }
+        @Override public String getMethod(){ return method; }
+        @Override public String getRequestURI(){ return uri; }
+        @Override public String getContextPath(){ return contextPath; }
+        @Override public String getServletPath(){ return servletPath; }
+        @Override public String getPathInfo(){ return pathInfo; }
+        @Override public String getRemoteAddr(){ return remoteAddr; }
+        @Override public String getContentType(){ return contentType; }
+        @Override public String getCharacterEncoding(){ return encoding; }
+        @Override public Object getAttribute(String name){ synchronized(guard){ checkLive(); return super.getAttribute(name); } }
+        @Override public void setAttribute(String name,Object o){ synchronized(guard){ checkLive(); super.setAttribute(name, o); } }
+        @Override public void removeAttribute(String name){ synchronized(guard){ checkLive(); super.removeAttribute(name); } }
+        @Override public String getParameter(String name){ synchronized(guard){ checkLive(); return super.getParameter(name); } }
+        @Override public String[] getParameterValues(String name){ synchronized(guard){ checkLive(); return super.getParameterValues(name); } }
+        @Override public Map<String,String[]> getParameterMap(){ synchronized(guard){ checkLive(); return super.getParameterMap(); } }
+        @Override public Enumeration<String> getParameterNames(){ synchronized(guard){ checkLive(); return super.getParameterNames(); } }
+        @Override public Cookie[] getCookies(){ synchronized(guard){ checkLive(); return super.getCookies(); } }
+    }
+
+    // 业务方法自行写出响应时使用：设置状态/响应头与取输出流在超时之后抛出 IllegalStateException
+    private final class GuardedResponse extends HttpServletResponseWrapper {
+        GuardedResponse(HttpServletResponse resp){ super(resp); }
+        @Override public void setStatus(int sc){ synchronized(guard){ checkLive(); super.setStatus(sc); } }
+        @Override public void setHeader(String name,String value){ synchronized(guard){ checkLive(); super.setHeader(name, value); } }
+        @Override public void addHeader(String name,String value){ synchronized(guard){ checkLive(); super.addHeader(name, value); } }
+        @Override public void setIntHeader(String name,int value){ synchronized(guard){ checkLive(); super.setIntHeader(name, value); } }
+        @Override public void setDateHeader(String name,long date){ synchronized(guard){ checkLive(); super.setDateHeader(name, date); } }
+        @Override public void setContentType(String type){ synchronized(guard){ checkLive(); super.setContentType(type); } }
+        @Override public void setCharacterEncoding(String charset){ synchronized(guard){ checkLive(); super.setCharacterEncoding(charset); } }
+        @Override public void setContentLength(int len){ synchronized(guard){ checkLive(); super.setContentLength(len); } }
+        @Override public void setContentLengthLong(long len){ synchronized(guard){ checkLive(); super.setContentLengthLong(len); } }
+        @Override public void addCookie(Cookie cookie){ synchronized(guard){ checkLive(); super.addCookie(cookie); } }
+        @Override public void sendError(int sc) throws IOException { synchronized(guard){ checkLive(); super.sendError(sc); } }
+        @Override public void sendError(int sc,String msg) throws IOException { synchronized(guard){ checkLive(); super.sendError(sc, msg); } }
+        @Override public ServletOutputStream getOutputStream() throws IOException { synchronized(guard){ checkLive(); return super.getOutputStream(); } }
+        @Override public PrintWriter getWriter() throws IOException { synchronized(guard){ checkLive(); return super.getWriter(); } }
+    }
+}
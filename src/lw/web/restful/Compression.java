@@ -0,0 +1,165 @@
+package lw.web.restful;
+
+// 响应压缩：按 Accept-Encoding 协商 gzip/deflate，Deflater 放在池中复用（不为每个请求创建）
+// 面向初学者说明：
+// - negotiate：从请求头选出压缩方式（优先 gzip），客户端不接受时返回 null
+// - compress：把一段字节一次性压缩，供缓存的响应体（如课程目录）按版本只压缩一次
+// - ResponseStream：先缓冲前 threshold 个字节，不超过阈值时原样输出（小响应压缩不划算），超过后才开始边压缩边写出
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * gzip/deflate 压缩工具
+ * - gzip：原始 deflate 数据外加 10 字节头与 CRC32/长度尾；deflate：按 HTTP 约定为 zlib 格式（RFC 1950）
+ * - Deflater 池：两种格式各最多 POOL_MAX 个，用完 reset 后归还；池满时直接释放本地内存
+ * - 边界：只识别 gzip、x-gzip、deflate 与 *；q=0 表示拒绝；不支持 br
+ */
+public final class Compression {
+    public static final String GZIP="gzip", DEFLATE="deflate";
+    private static final int POOL_MAX=64, CHUNK=8192;
+    private static final byte[] GZIP_HEADER={0x1f, (byte)0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, 0};
+    private static final ArrayBlockingQueue<Codec> GZIP_POOL=new ArrayBlockingQueue<>(POOL_MAX), ZLIB_POOL=new ArrayBlockingQueue<>(POOL_MAX);
+
+    private Compression(){}
+
+    /** 选出客户端接受的压缩方式
+     * @param acceptEncoding Accept-Encoding 请求头（可为 null）
+     * @return GZIP/DEFLATE；都不接受时为 null
+     */
+    public static String negotiate(String acceptEncoding){
+        if(acceptEncoding==null || acceptEncoding.isEmpty()) return null;
+        // 每种方式：0 未提及，1 接受，-1 拒绝（q=0）；未提及的方式跟随 *
+        int gzip=0, deflate=0, any=0;
+        for(String part: acceptEncoding.split(",")){
+            int semi=part.indexOf(';');
+            String name=(semi<0? part: part.substring(0,semi)).trim().toLowerCase(Locale.ROOT);
+            int ok=semi<0 || qualityPositive(part.substring(semi+1))? 1: -1;
+            if(name.equals("gzip") || name.equals("x-gzip")) gzip=ok;
+            else if(name.equals("deflate")) deflate=ok;
+            else if(name.equals("*")) any=ok;
+        }
+        if(gzip==1 || (gzip==0 && any==1)) return GZIP;
+        if(deflate==1 || (deflate==0 && any==1)) return DEFLATE;
+        return null;
+    }
+    // 参数形如 " q=0.5"；解析失败按接受处理
+    private static boolean qualityPositive(String params){
+        for(String p: params.split(";")){
+            p=p.trim();
+            if(p.startsWith("q=") || p.startsWith("Q=")){
+                try { return Double.parseDouble(p.substring(2).trim())>0; } catch (NumberFormatException ex) { return true; }
+            }
+        }
+        return true;
+    }
+
+    /** 一次性压缩整段字节（用于缓存的响应体）
+     * @param encoding GZIP 或 DEFLATE
+     */
+    public static byte[] compress(byte[] data,String encoding){
+        ByteArrayOutputStream out=new ByteArrayOutputStream(Math.max(64, data.length/4));
+        try { compress(data, 0, data.length, encoding, out); }
+        catch (IOException ex) { throw new IllegalStateException(ex); } // ByteArrayOutputStream 不会抛出
+        return out.toByteArray();
+    }
+    /** 压缩 data[off, off+len) 并写入 out（调用方提供输出缓冲，如异步响应借出的缓冲）
+     * @param encoding GZIP 或 DEFLATE
+     */
+    static void compress(byte[] data,int off,int len,String encoding,OutputStream out) throws IOException {
+        Encoder e=new Encoder(out, encoding);
+        try {
+            e.write(data, off, len);
+            e.finish();
+        } finally { e.release(); }
+    }
+
+    // 池中的条目：Deflater 连同输出块与 CRC32 一起复用
+    private static final class Codec {
+        final Deflater def; final byte[] buf=new byte[CHUNK]; final CRC32 crc=new CRC32();
+        Codec(boolean nowrap){ def=new Deflater(Deflater.DEFAULT_COMPRESSION, nowrap); }
+    }
+    private static Codec acquire(boolean gzip){
+        Codec c=(gzip? GZIP_POOL: ZLIB_POOL).poll();
+        return c!=null? c: new Codec(gzip);
+    }
+    private static void release(Codec c,boolean gzip){
+        c.def.reset(); c.crc.reset();
+        if(!(gzip? GZIP_POOL: ZLIB_POOL).offer(c)) c.def.end();
+    }
+
+    // 把写入的字节压缩后写到 out；finish 写出剩余数据（gzip 还有尾部）；release 归还 Deflater（可重复调用）
+    private static final class Encoder {
+        private final OutputStream out; private final boolean gzip;
+        private Codec codec; private long size; private boolean started;
+
+        Encoder(OutputStream out,String encoding){ this.out=out; this.gzip=GZIP.equals(encoding); this.codec=acquire(gzip); }
+
+        private void start() throws IOException { started=true; if(gzip) out.write(GZIP_HEADER); }
+        void write(byte[] b,int off,int len) throws IOException {
+            if(!started) start();
+            if(len==0) return;
+            if(gzip) codec.crc.update(b, off, len);
+            size+=len;
+            codec.def.setInput(b, off, len);
+            while(!codec.def.needsInput()) deflate();
+        }
+        void finish() throws IOException {
+            if(!started) start();
+            codec.def.finish();
+            while(!codec.def.finished()) deflate();
+            if(gzip){ int crc=(int)codec.crc.getValue(); writeIntLE(crc); writeIntLE((int)size); }
+        }
+        private void deflate() throws IOException {
+            int n=codec.def.deflate(codec.buf, 0, codec.buf.length, Deflater.NO_FLUSH);
+            if(n>0) out.write(codec.buf, 0, n);
+        }
+        private void writeIntLE(int v) throws IOException { out.write(v); out.write(v>>>8); out.write(v>>>16); out.write(v>>>24); }
+        void release(){ if(codec!=null){ Compression.release(codec, gzip); codec=null; } }
+    }
+
+    /**
+     * 带阈值的压缩响应流
+     * - 写入的字节先进入 threshold 大小的缓冲；close 时仍未超过阈值则原样输出并设置 Content-Length
+     * - 超过阈值的那一刻设置 Content-Encoding 并开始压缩写出，此后不再缓冲
+     * - 边界：flush 不强制刷出压缩数据（避免降低压缩率），数据在 close 时全部写出；出错时调用 abort 归还 Deflater
+     */
+    static final class ResponseStream extends OutputStream {
+        private final HttpServletResponse resp; private final String encoding;
+        private final byte[] pending; private int count;
+        private Encoder encoder; private boolean closed;
+
+        ResponseStream(HttpServletResponse resp,String encoding,int threshold){ this.resp=resp; this.encoding=encoding; this.pending=new byte[Math.max(0, threshold)]; }
+
+        @Override public void write(int b) throws IOException { write(new byte[]{(byte)b}, 0, 1); }
+        @Override public void write(byte[] b,int off,int len) throws IOException {
+            if(closed) throw new IOException("响应流已关闭");
+            if(encoder==null){
+                if(count+len<=pending.length){ System.arraycopy(b, off, pending, count, len); count+=len; return; }
+                resp.setHeader("Content-Encoding", encoding);
+                encoder=new Encoder(resp.getOutputStream(), encoding);
+                encoder.write(pending, 0, count);
+            }
+            encoder.write(b, off, len);
+        }
+        @Override public void flush(){ }
+        @Override public void close() throws IOException {
+            if(closed) return;
+            closed=true;
+            try {
+                if(encoder!=null){ encoder.finish(); }
+                else { resp.setContentLength(count); resp.getOutputStream().write(pending, 0, count); }
+                resp.getOutputStream().flush();
+            } finally { abort(); }
+        }
+        /** 放弃输出并归还 Deflater（未 close 就出错时调用） */
+        void abort(){ closed=true; if(encoder!=null) encoder.release(); }
+    }
+}
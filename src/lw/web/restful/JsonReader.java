@@ -0,0 +1,189 @@
+package lw.web.restful;
+
+// 字节级 JSON 解析：直接读取 UTF-8 请求体字节生成 JSONObject，不先把整个请求体解码成 String
+// 面向初学者说明：
+// - 递归下降：遇到 { 解析对象、[ 解析数组、" 解析字符串，其余为数字或 true/false/null
+// - 数字按 RFC 8259 文法逐段检查（0123、1.、.5、1e 都是错误）；同一对象内出现重复的键时报错（与 org.json 的 JSONObject(String) 一致）
+// - 较短的纯 ASCII 字符串（如 "action"、"enroll"、课程ID）经线程内小缓存复用，同样的键/值不重复创建 String
+// - 出错时抛出 JSONException，消息中带出错的字节位置
+
+import java.nio.charset.StandardCharsets;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * UTF-8 字节 JSON 解析器
+ * - 职责：把一段字节解析为 org.json 的 JSONObject/JSONArray，供 SimpleRestful 解析请求体
+ * - 数字：无小数点/指数的整数在 int 范围内为 Integer，否则为 Long（超出 long 时为 Double）；其余为 Double
+ * - 边界：按 RFC 8259 严格解析（不接受注释、单引号、尾随逗号、字符串中的原始控制字符、前导零与不完整的小数/指数）；
+ *   嵌套深度上限 MAX_DEPTH；同一对象内的重复键视为错误；字符串缓存为每线程 CACHE_SIZE 个槽位，只缓存不超过 CACHE_MAX_LEN 字节的 ASCII 字符串
+ */
+public final class JsonReader {
+    private static final int MAX_DEPTH=64, CACHE_SIZE=256, CACHE_MAX_LEN=40;
+    private static final ThreadLocal<String[]> CACHE=ThreadLocal.withInitial(()->new String[CACHE_SIZE]);
+
+    private final byte[] b;
+    private final int end;
+    private final String[] cache;
+    private int p;
+
+    private JsonReader(byte[] b,int off,int len){ this.b=b; this.p=off; this.end=off+len; this.cache=CACHE.get(); }
+
+    /** 解析一个 JSON 对象
+     * @param b 字节数组
+     * @param off 起始位置
+     * @param len 长度
+     * @return 解析结果；内容只有空白时返回 null
+     * @throws JSONException 语法错误、顶层不是对象或对象后还有多余内容
+     */
+    public static JSONObject parseObject(byte[] b,int off,int len) throws JSONException {
+        JsonReader r=new JsonReader(b,off,len);
+        r.ws(); if(r.p==r.end) return null;
+        if(r.b[r.p]!='{') throw r.error("请求体必须是 JSON 对象");
+        JSONObject o=r.object(0);
+        r.ws(); if(r.p!=r.end) throw r.error("JSON 之后有多余内容");
+        return o;
+    }
+
+    private Object value(int depth){
+        if(p>=end) throw error("内容不完整");
+        byte c=b[p];
+        switch(c){
+            case '{': return object(depth);
+            case '[': return array(depth);
+            case '"': return string();
+            case 't': literal("true"); return Boolean.TRUE;
+            case 'f': literal("false"); return Boolean.FALSE;
+            case 'n': literal("null"); return JSONObject.NULL;
+            default:
+                if(c=='-' || (c>='0' && c<='9')) return number();
+                throw error("无法识别的字符 '"+(char)(c&0xff)+"'");
+        }
+    }
+    private JSONObject object(int depth){
+        if(depth>=MAX_DEPTH) throw error("嵌套过深");
+        JSONObject o=new JSONObject(); p++; ws();
+        if(peek()=='}'){ p++; return o; }
+        for(;;){
+            ws(); if(peek()!='"') throw error("此处应为字符串键");
+            int at=p; String key=string(); ws();
+            if(o.has(key)){ p=at; throw error("重复的键 \""+key+"\""); }
+            expect(':'); ws();
+            o.put(key, value(depth+1)); ws();
+            byte c=next();
+            if(c=='}') return o;
+            if(c!=',') throw error("此处应为 ',' 或 '}'");
+        }
+    }
+    private JSONArray array(int depth){
+        if(depth>=MAX_DEPTH) throw error("嵌套过深");
+        JSONArray a=new JSONArray(); p++; ws();
+        if(peek()==']'){ p++; return a; }
+        for(;;){
+            ws(); a.put(value(depth+1)); ws();
+            byte c=next();
+            if(c==']') return a;
+            if(c!=',') throw error("此处应为 ',' 或 ']'");
+        }
+    }
+    // 字符串：无转义时直接按原始字节生成（ASCII 短串走缓存）；有转义时逐段拼接
+    private String string(){
+        int start=++p; boolean ascii=true;
+        for(int i=start;i<end;i++){
+            byte c=b[i];
+            if(c=='"'){ p=i+1; return ascii? ascii(start,i-start): new String(b,start,i-start,StandardCharsets.UTF_8); }
+            if(c=='\\') return escaped(start);
+            if(c>=0 && c<0x20){ p=i; throw error("字符串中有未转义的控制字符"); }
+            if(c<0) ascii=false;
+        }
+        p=end; throw error("字符串未结束");
+    }
+    private String escaped(int start){
+        StringBuilder sb=new StringBuilder(); int run=start; int i=start;
+        while(i<end){
+            byte c=b[i];
+            if(c=='"'){ flush(sb,run,i); p=i+1; return sb.toString(); }
+            if(c>=0 && c<0x20){ p=i; throw error("字符串中有未转义的控制字符"); }
+            if(c!='\\'){ i++; continue; }
+            flush(sb,run,i);
+            if(i+1>=end){ p=end; throw error("字符串未结束"); }
+            byte e=b[i+1]; i+=2;
+            switch(e){
+                case '"': sb.append('"'); break;
+                case '\\': sb.append('\\'); break;
+                case '/': sb.append('/'); break;
+                case 'b': sb.append('\b'); break;
+                case 'f': sb.append('\f'); break;
+                case 'n': sb.append('\n'); break;
+                case 'r': sb.append('\r'); break;
+                case 't': sb.append('\t'); break;
+                case 'u': {
+                    if(i+4>end){ p=end; throw error("\\u 转义不完整"); }
+                    int v=0; for(int k=0;k<4;k++){ int h=hex(b[i+k]); if(h<0){ p=i+k; throw error("\\u 转义不是十六进制"); } v=v<<4|h; }
+                    sb.append((char)v); i+=4; break;
+                }
+                default: p=i-1; throw error("未知转义 \\"+(char)(e&0xff));
+            }
+            run=i;
+        }
+        p=end; throw error("字符串未结束");
+    }
+    private void flush(StringBuilder sb,int from,int to){ if(to>from) sb.append(new String(b,from,to-from,StandardCharsets.UTF_8)); }
+
+    // 短 ASCII 串按内容查线程内缓存：命中时复用同一个 String，未命中时创建并放入（直接映射，冲突时覆盖）
+    private String ascii(int from,int len){
+        if(len>CACHE_MAX_LEN) return new String(b,from,len,StandardCharsets.ISO_8859_1);
+        int h=len; for(int i=from;i<from+len;i++) h=31*h+b[i];
+        int slot=(h^(h>>>16))&(CACHE_SIZE-1);
+        String s=cache[slot];
+        if(s!=null && s.length()==len){
+            int i=0; while(i<len && s.charAt(i)==b[from+i]) i++;
+            if(i==len) return s;
+        }
+        s=new String(b,from,len,StandardCharsets.ISO_8859_1); cache[slot]=s; return s;
+    }
+
+    // 按 RFC 8259 的文法扫描：-? (0 | [1-9][0-9]*) (.[0-9]+)? ([eE][+-]?[0-9]+)?
+    private Object number(){
+        int start=p; boolean integral=true;
+        if(b[p]=='-') p++;
+        if(p>=end || !digit(b[p])) throw error("数字格式错误");
+        if(b[p]=='0'){ p++; if(p<end && digit(b[p])) throw error("数字不能有前导零"); }
+        else digits();
+        if(p<end && b[p]=='.'){ integral=false; p++; if(p>=end || !digit(b[p])) throw error("小数点后应为数字"); digits(); }
+        if(p<end && (b[p]=='e' || b[p]=='E')){
+            integral=false; p++;
+            if(p<end && (b[p]=='+' || b[p]=='-')) p++;
+            if(p>=end || !digit(b[p])) throw error("指数应为数字");
+            digits();
+        }
+        int len=p-start;
+        if(integral && len<=18){
+            long v=0; int i=start; boolean neg=b[i]=='-'; if(neg) i++;
+            for(;i<p;i++) v=v*10+(b[i]-'0');
+            if(neg) v=-v;
+            return v>=Integer.MIN_VALUE && v<=Integer.MAX_VALUE? (Object)Integer.valueOf((int)v): (Object)Long.valueOf(v);
+        }
+        String s=new String(b,start,len,StandardCharsets.ISO_8859_1);
+        try {
+            if(integral){ try { return Long.valueOf(s); } catch (NumberFormatException ex) { /* 超出 long，按 double */ } }
+            return Double.valueOf(s);
+        } catch (NumberFormatException ex) { p=start; throw error("数字格式错误"); } // 文法已校验，不应出现
+    }
+    private void digits(){ while(p<end && digit(b[p])) p++; }
+    private static boolean digit(byte c){ return c>='0' && c<='9'; }
+    private void literal(String word){
+        int n=word.length();
+        if(p+n>end) throw error("内容不完整");
+        for(int i=0;i<n;i++) if(b[p+i]!=word.charAt(i)) throw error("无法识别的字面量");
+        p+=n;
+    }
+    private void ws(){ while(p<end){ byte c=b[p]; if(c==' ' || c=='\n' || c=='\r' || c=='\t') p++; else break; } }
+    private byte peek(){ if(p>=end) throw error("内容不完整"); return b[p]; }
+    private byte next(){ byte c=peek(); p++; return c; }
+    private void expect(char c){ if(next()!=c){ p--; throw error("此处应为 '"+c+"'"); } }
+    private static int hex(byte c){ return c>='0' && c<='9'? c-'0': c>='a' && c<='f'? c-'a'+10: c>='A' && c<='F'? c-'A'+10: -1; }
+    private JSONException error(String msg){ return new JSONException(msg+"（位置 "+p+"）"); }
+}
@@ -0,0 +1,177 @@
+package lw.web.restful;
+
+// 流式 JSON 输出：边生成边写入 Writer，不构建 JSONObject 树，也不先拼成一个大字符串
+// 面向初学者说明：
+// - 对象：beginObject() → name("键").value(值) … → endObject()；数组：beginArray() → value(…) … → endArray()
+// - 逗号、冒号由本类自动补齐；字符串按 JSON 规则转义
+// - 内部有一个小字符缓冲，写满才交给底层 Writer，减少逐字符调用
+
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.reflect.Array;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Map;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.json.JSONString;
+
+/**
+ * 流式 JSON 写出器
+ * - 职责：按调用顺序输出紧凑（或缩进 2 格的）JSON 文本
+ * - value(Object)：兼容 org.json 对象、Map、集合、数组、数字、字符串、布尔与 Writable，便于旧代码直接返回 JSONObject
+ * - 边界：不校验调用顺序是否构成合法 JSON（例如对象内漏写 name）；double 的 NaN/Infinity 输出为 null；非线程安全
+ */
+public final class JsonWriter {
+    /** 能把自身写成 JSON 的对象：业务方法返回它时，SimpleRestful 直接流式输出，不经过 JSONObject */
+    public interface Writable {
+        void writeJson(JsonWriter w) throws IOException;
+    }
+
+    private static final char[] HEX="0123456789abcdef".toCharArray();
+
+    private final Writer out;
+    private final boolean pretty;
+    private final char[] buf=new char[4096], digits=new char[20];
+    private int pos;
+    // 每层容器是否已有元素（决定是否先写逗号）；afterName 表示刚写完键，下一个值前不写逗号
+    private boolean[] nonEmpty=new boolean[16];
+    private int depth;
+    private boolean afterName;
+
+    /**
+     * @param out 底层输出（由调用方负责关闭）
+     * @param pretty true 时缩进 2 格、每个元素一行
+     */
+    public JsonWriter(Writer out,boolean pretty){ this.out=out; this.pretty=pretty; }
+
+    public JsonWriter beginObject() throws IOException { beforeValue(); put('{'); push(); return this; }
+    public JsonWriter endObject() throws IOException { pop('}'); return this; }
+    public JsonWriter beginArray() throws IOException { beforeValue(); put('['); push(); return this; }
+    public JsonWriter endArray() throws IOException { pop(']'); return this; }
+
+    /** 写对象的键（随后必须写一个值） */
+    public JsonWriter name(String name) throws IOException {
+        separate(); string(name); put(':'); if(pretty) put(' ');
+        afterName=true; return this;
+    }
+
+    public JsonWriter value(String v) throws IOException {
+        if(v==null) return nullValue();
+        beforeValue(); string(v); return this;
+    }
+    public JsonWriter value(long v) throws IOException { beforeValue(); integer(v); return this; }
+    /** 整数值的 double 按整数输出（与 org.json 一致，如 88.0 输出为 88） */
+    public JsonWriter value(double v) throws IOException {
+        if(Double.isNaN(v) || Double.isInfinite(v)) return nullValue();
+        beforeValue();
+        if(v==Math.rint(v) && Math.abs(v)<1e15) integer((long)v); else raw(Double.toString(v));
+        return this;
+    }
+    public JsonWriter value(boolean v) throws IOException { beforeValue(); raw(v? "true": "false"); return this; }
+    public JsonWriter nullValue() throws IOException { beforeValue(); raw("null"); return this; }
+
+    /** 写任意值：Writable、org.json 对象、Map、集合/数组、数字、布尔、字符串；其他对象按 JSONObject.wrap 的规则转换 */
+    public JsonWriter value(Object v) throws IOException {
+        if(v==null || v==JSONObject.NULL) return nullValue();
+        if(v instanceof String) return value((String)v);
+        if(v instanceof Writable){ ((Writable)v).writeJson(this); return this; }
+        if(v instanceof Boolean) return value(((Boolean)v).booleanValue());
+        if(v instanceof Integer || v instanceof Long || v instanceof Short || v instanceof Byte) return value(((Number)v).longValue());
+        if(v instanceof Number) return value(((Number)v).doubleValue());
+        if(v instanceof JSONObject){
+            JSONObject o=(JSONObject)v; beginObject();
+            for(String k: o.keySet()){ name(k); value(o.opt(k)); }
+            return endObject();
+        }
+        if(v instanceof JSONArray){
+            JSONArray a=(JSONArray)v; beginArray();
+            for(int i=0;i<a.length();i++) value(a.opt(i));
+            return endArray();
+        }
+        if(v instanceof Map){
+            beginObject();
+            for(Map.Entry<?,?> e: ((Map<?,?>)v).entrySet()){ name(String.valueOf(e.getKey())); value(e.getValue()); }
+            return endObject();
+        }
+        if(v instanceof Collection){
+            beginArray(); for(Object o: (Collection<?>)v) value(o); return endArray();
+        }
+        if(v.getClass().isArray()){
+            beginArray(); for(int i=0,n=Array.getLength(v);i<n;i++) value(Array.get(v,i)); return endArray();
+        }
+        if(v instanceof JSONString){ beforeValue(); raw(((JSONString)v).toJSONString()); return this; }
+        if(v instanceof Character || v instanceof Enum) return value(v.toString());
+        Object w=JSONObject.wrap(v);
+        if(w==null || w==v) return value(v.toString());
+        return value(w);
+    }
+
+    /** 把缓冲中的字符交给底层 Writer 并刷新 */
+    public void flush() throws IOException { drain(); out.flush(); }
+
+    // 值之前：数组内补逗号与缩进；键之后直接写
+    private void beforeValue() throws IOException {
+        if(afterName){ afterName=false; return; }
+        if(depth>0) separate();
+    }
+    private void separate() throws IOException {
+        if(nonEmpty[depth-1]) put(',');
+        nonEmpty[depth-1]=true;
+        newline(depth);
+    }
+    private void push(){
+        if(depth==nonEmpty.length) nonEmpty=Arrays.copyOf(nonEmpty, depth*2);
+        nonEmpty[depth++]=false;
+    }
+    private void pop(char close) throws IOException {
+        boolean any=nonEmpty[--depth];
+        if(any) newline(depth);
+        put(close);
+    }
+    private void newline(int indent) throws IOException {
+        if(!pretty) return;
+        put('\n'); for(int i=0;i<indent;i++){ put(' '); put(' '); }
+    }
+
+    // 字符串转义：引号、反斜杠、控制字符；"</" 写成 "<\/"，U+2028/U+2029 写成 \\u 形式（可安全嵌入 HTML/JS）
+    private void string(String s) throws IOException {
+        put('"');
+        char prev=0;
+        for(int i=0,n=s.length();i<n;i++){
+            char c=s.charAt(i);
+            switch(c){
+                case '"': put('\\'); put('"'); break;
+                case '\\': put('\\'); put('\\'); break;
+                case '\n': put('\\'); put('n'); break;
+                case '\r': put('\\'); put('r'); break;
+                case '\t': put('\\'); put('t'); break;
+                case '\b': put('\\'); put('b'); break;
+                case '\f': put('\\'); put('f'); break;
+                case '/': if(prev=='<') put('\\'); put('/'); break;
+                default:
+                    if(c<0x20 || c=='\u2028' || c=='\u2029'){ put('\\'); put('u'); put(HEX[c>>12&15]); put(HEX[c>>8&15]); put(HEX[c>>4&15]); put(HEX[c&15]); }
+                    else put(c);
+            }
+            prev=c;
+        }
+        put('"');
+    }
+    // 整数直接按位写入缓冲，不生成中间字符串
+    private void integer(long v) throws IOException {
+        if(v==Long.MIN_VALUE){ raw("-9223372036854775808"); return; }
+        if(v<0){ put('-'); v=-v; }
+        int i=digits.length;
+        do { digits[--i]=(char)('0'+v%10); v/=10; } while(v!=0);
+        while(i<digits.length) put(digits[i++]);
+    }
+    private void raw(String s) throws IOException { for(int i=0,n=s.length();i<n;i++) put(s.charAt(i)); }
+    private void put(char c) throws IOException {
+        if(pos==buf.length) drain();
+        buf[pos++]=c;
+    }
+    private void drain() throws IOException {
+        if(pos>0){ out.write(buf,0,pos); pos=0; }
+    }
+}
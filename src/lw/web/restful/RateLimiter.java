@@ -0,0 +1,98 @@
+package lw.web.restful;
+
+// 按客户端（用户/会话）与 action 的令牌桶限流，采用 GCRA（通用信元速率算法）实现
+// 面向初学者说明：
+// - 每个桶只存一个数：理论到达时间 tat（纳秒）。每放行一次 tat 向后推一个发放间隔 T=1/速率；
+//   tat 超前当前时间不超过 (突发-1)*T 时放行，否则拒绝，并可算出还需等待多久。等价于容量为“突发”、按“速率”补充的令牌桶
+// - 补充是惰性的：不需要定时器给每个桶加令牌，只在请求到来时用当前时间比较
+// - tat 用 CAS 更新，无锁；客户端表为 ConcurrentHashMap（分段），长时间无请求的客户端在下一次清扫时移除
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 令牌桶限流器（GCRA）
+ * - 规则：形如 "enroll=5/10, drop=5/10, *=20/40"，每项为 action=每秒速率/突发数；* 为其他 action 的默认规则（不写则其他 action 不限流）
+ * - 每个客户端为每条规则各有一个桶；acquire 返回 0 表示放行，否则为建议等待的纳秒数
+ * - 边界：速率可为小数（如 0.2 表示每 5 秒一次）；客户端空闲超过 IDLE_NS 且所有桶都已补满时在清扫中移除（最多每 SWEEP_NS 清扫一次）
+ */
+public final class RateLimiter {
+    private static final long IDLE_NS=TimeUnit.MINUTES.toNanos(2), SWEEP_NS=TimeUnit.SECONDS.toNanos(30);
+
+    private final Map<String,Integer> ruleOf=new HashMap<>();
+    private final long[] interval, tolerance; // 每条规则的发放间隔 T 与允许超前量 (突发-1)*T
+    private final int defaultRule;
+    private final ConcurrentHashMap<String,Client> clients=new ConcurrentHashMap<>();
+    private final AtomicLong nextSweep=new AtomicLong();
+
+    // 一个客户端：每条规则一个 tat；lastSeen 用于空闲清理
+    private static final class Client {
+        final AtomicLongArray tat; volatile long lastSeen;
+        Client(int rules,long now){ tat=new AtomicLongArray(rules); for(int i=0;i<rules;i++) tat.set(i, now); lastSeen=now; }
+    }
+
+    /** 解析规则
+     * @param spec 形如 "enroll=5/10, enroll_batch=1/3, *=20/40"
+     * @throws IllegalArgumentException 格式错误或速率/突发不为正
+     */
+    public RateLimiter(String spec){
+        String[] items=spec.split(",");
+        long[] t=new long[items.length], tol=new long[items.length]; int n=0, def=-1;
+        for(String item: items){
+            item=item.trim(); if(item.isEmpty()) continue;
+            int eq=item.indexOf('='), slash=item.indexOf('/', eq+1);
+            if(eq<=0 || slash<0) throw new IllegalArgumentException("限流规则格式应为 action=速率/突发："+item);
+            String action=item.substring(0,eq).trim();
+            double rate=Double.parseDouble(item.substring(eq+1,slash).trim());
+            int burst=Integer.parseInt(item.substring(slash+1).trim());
+            if(rate<=0 || burst<=0) throw new IllegalArgumentException("限流速率与突发数必须为正："+item);
+            t[n]=(long)(TimeUnit.SECONDS.toNanos(1)/rate); tol[n]=t[n]*(burst-1);
+            if(action.equals("*")) def=n; else ruleOf.put(action, n);
+            n++;
+        }
+        interval=Arrays.copyOf(t, n); tolerance=Arrays.copyOf(tol, n); defaultRule=def;
+        nextSweep.set(System.nanoTime()+SWEEP_NS);
+    }
+
+    /** 尝试放行一次请求
+     * @param client 客户端标识（用户ID/会话ID/地址）
+     * @param action 请求的 action（可为 null）
+     * @param now 当前时间（System.nanoTime()）
+     * @return 0 表示放行；否则为被拒绝时建议等待的纳秒数
+     */
+    public long acquire(String client,String action,long now){
+        Integer r=action!=null? ruleOf.get(action): null;
+        int rule=r!=null? r: defaultRule;
+        if(rule<0) return 0;
+        sweep(now);
+        Client c=clients.get(client);
+        if(c==null) c=clients.computeIfAbsent(client, k->new Client(interval.length, now));
+        c.lastSeen=now;
+        long t=interval[rule], tol=tolerance[rule];
+        while(true){
+            long tat=c.tat.get(rule);
+            long base=tat-now>0? tat: now; // tat 落后于当前时间说明桶已补满，从当前时间起算
+            if(base-now>tol) return base-now-tol;
+            if(c.tat.compareAndSet(rule, tat, base+t)) return 0;
+        }
+    }
+
+    /** 当前登记的客户端数 */
+    public int size(){ return clients.size(); }
+
+    // 惰性清扫：到期后由抢到 CAS 的那个请求线程移除空闲且桶已补满的客户端
+    private void sweep(long now){
+        long due=nextSweep.get();
+        if(now-due<0 || !nextSweep.compareAndSet(due, now+SWEEP_NS)) return;
+        clients.values().removeIf(c->{
+            if(now-c.lastSeen<IDLE_NS) return false;
+            for(int i=0;i<interval.length;i++) if(c.tat.get(i)-now>0) return false;
+            return true;
+        });
+    }
+}
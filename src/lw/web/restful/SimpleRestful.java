@@ -3,17 +3,37 @@ package lw.web.restful;
 // 简易REST基础类：统一处理请求读取、异常捕获、JSON响应格式化
 // 面向初学者说明：
 // - 所有业务Servlet继承本类，仅需实现 execute 方法即可。
-// - 本类负责：将请求体读取为JSON、调用业务逻辑、捕获异常并输出统一的JSON响应。
+// - 本类负责：将请求体读取为JSON（字节缓冲取自同步与异步模式共用的缓冲池，由 JsonReader 直接解析字节）、调用业务逻辑、捕获异常并输出统一的JSON响应（由 JsonWriter 边生成边写出）。
+// - 业务方法可返回 JsonWriter.Writable，直接把实体写进响应，省去中间的 JSONObject。
+// - 异步模式（async_threads>0，需在 web.xml 中开启 async-supported）：请求线程只负责登记，非阻塞读完请求体后由本 Servlet 独占的有界执行器运行 execute，
+//   再非阻塞写出响应；执行器满载时直接返回 503 与 Retry-After，热点接口的积压不会占满容器线程。
+// - 限流（init-param rateLimits）：按用户/会话与 action 的令牌桶在调用 execute 之前放行或拒绝，拒绝时返回 429 与 Retry-After，不触及数据层。
+// - 客户端声明 Accept-Encoding 时，超过 compress_threshold 字节的成功响应以 gzip（或 deflate）压缩输出。
 // - 响应格式固定为：{"error":0, "reason":"ok", "data":...}；当出现错误时 error!=0，reason为错误原因。
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.io.PrintWriter;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import javax.servlet.ServletConfig;
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpSession;
 
+import org.json.JSONException;
 import org.json.JSONObject;
 
 import lw.web.lwFormData;
@@ -22,14 +42,93 @@ import lw.web.lwWebException;
 public abstract class SimpleRestful extends HttpServlet{
     // 默认字符集，用于请求体读取与响应输出
 	protected String charset="UTF-8";
-	// 读取请求体的最大字节数，防止过大请求占用内存（约19KB）
+	// 读取请求体的最大字节数，防止过大请求占用内存（约19KB）；超过时返回 413
 	protected int max_req_size=1024*19;
-	// 是否使用美化的JSON格式（缩进）输出，便于调试与学习
-	protected boolean JsonFormat=true;
+	// 响应压缩阈值（字节）：不超过该大小的响应不压缩；-1 表示关闭压缩。可用 context-param compressThreshold 统一配置
+	protected int compress_threshold=1024;
+	// 异步模式：执行 execute 的线程数（0 为同步模式，在容器线程中直接执行）与排队上限；同时在途的请求不超过两者之和，超出时返回 503
+	// 可用 Servlet 的 init-param asyncThreads/asyncQueue 配置；运行在支持虚拟线程的 JDK（21+）上时每个请求一个虚拟线程，在途上限不变
+	protected int async_threads=0;
+	protected int async_queue=256;
+	// 异步请求超时（毫秒）：超时仍未完成时返回 503，业务线程随后的结果被丢弃
+	protected long async_timeout=30_000;
+	// 过载（503）时建议客户端等待的秒数
+	protected int retry_after=1;
+	// 限流器：init-param rateLimits 配置（如 "enroll=5/10, *=20/40"，每项为 action=每秒速率/突发数），未配置时不限流
+	protected RateLimiter limiter;
+	// 是否使用美化的JSON格式（缩进）输出，便于调试与学习；默认紧凑输出，调试时可在子类中改为 true
+	protected boolean JsonFormat=false;
+	// 业务方法已自行写出响应（例如流式下载 CSV）时返回此标记，基类不再输出统一的JSON响应
+	protected static final Object RESPONSE_WRITTEN=new Object();
+	// 字节缓冲池：同步模式读请求体、异步模式读请求体与编码响应共用；借出时按需增长，归还后供下一个请求复用
+	// 超过 BODY_RETAIN 的大块只用一次，不常驻；池中最多 BODY_POOL_MAX 块，池满时归还的缓冲直接丢弃
+	private static final int BODY_INITIAL=4096, BODY_RETAIN=64*1024, BODY_POOL_MAX=256;
+	private static final ArrayBlockingQueue<byte[]> BODY_POOL=new ArrayBlockingQueue<>(BODY_POOL_MAX);
+	// 异步模式的执行器与在途许可（init 时按配置创建）
+	ExecutorService executor;
+	Semaphore inflight;
 	
 	// 业务入口：子类实现具体逻辑，传入请求对象、响应对象以及解析好的JSON请求
 	protected abstract Object execute(HttpServletRequest req,HttpServletResponse resp,JSONObject jreq) throws Exception;
 	
+	// 流式请求判断：返回 true 时不把请求体读成JSON（也不受 max_req_size 限制），而是把输入流交给 executeStream
+	// 适用于批量导入等大请求体；此时 action 等参数只能放在查询字符串中
+	protected boolean streamBody(HttpServletRequest req){
+		return false;
+	}
+	// 流式业务入口：子类边读边处理请求体，返回值与 execute 一样包装为统一响应
+	protected Object executeStream(HttpServletRequest req,HttpServletResponse resp,InputStream body) throws Exception {
+		throw new lwWebException(400, "不支持流式请求");
+	}
+	
+	// 读取 context-param compressThreshold 与 init-param asyncThreads/asyncQueue/rateLimits（未配置时保留子类中的默认值），异步模式下创建执行器
+	@Override
+	public void init(ServletConfig config) throws ServletException {
+		super.init(config);
+		compress_threshold=intParam(config.getServletContext().getInitParameter("compressThreshold"), compress_threshold);
+		async_threads=intParam(config.getInitParameter("asyncThreads"), async_threads);
+		async_queue=intParam(config.getInitParameter("asyncQueue"), async_queue);
+		String limits=config.getInitParameter("rateLimits");
+		if (limits!=null && !limits.trim().isEmpty()) {
+			limiter=new RateLimiter(limits);
+		}
+		if (async_threads>0) {
+			inflight=new Semaphore(async_threads+Math.max(0, async_queue));
+			executor=newExecutor(config.getServletName(), async_threads);
+		}
+	}
+	private static int intParam(String v, int def) {
+		return v==null || v.trim().isEmpty()? def: Integer.parseInt(v.trim());
+	}
+	// JDK 21+ 用虚拟线程（每个请求一个），更早的 JDK 用固定大小的平台线程池；同时在途的请求数都由 inflight 许可控制
+	// 注意：虚拟线程在 ReentrantLock 等 j.u.c 锁或 I/O 上阻塞时会让出载体线程，但在 JDK 21-23 上于 synchronized 块内阻塞
+	// （包括等待进入 synchronized）会钉住载体线程（载体数默认等于 CPU 核数），此时并发度并不比平台线程池高；JDK 24 起不再钉住
+	private static ExecutorService newExecutor(String name, int threads) {
+		try {
+			return (ExecutorService)Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+		} catch (ReflectiveOperationException e) {
+			AtomicInteger seq=new AtomicInteger();
+			return Executors.newFixedThreadPool(threads, r->{ Thread t=new Thread(r, name+"-exec-"+seq.incrementAndGet()); t.setDaemon(true); return t; });
+		}
+	}
+	// 停止异步执行器（已提交的请求继续执行完）
+	@Override
+	public void destroy() {
+		if (executor!=null) {
+			executor.shutdown();
+		}
+		super.destroy();
+	}
+
+	// 压缩协商：客户端接受 gzip/deflate 且响应体不小于阈值时返回压缩方式，否则返回 null；size 未知时传 -1（由调用方按阈值缓冲判断）
+	// 缓存了响应字节的子类（如课程目录）可用它决定是否输出预先压缩好的字节
+	protected String acceptedEncoding(HttpServletRequest req, long size) {
+		if (compress_threshold<0 || (size>=0 && size<=compress_threshold)) {
+			return null;
+		}
+		return Compression.negotiate(req.getHeader("Accept-Encoding"));
+	}
+
 	@Override
 	protected void doGet(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException {
 		// 统一走 POST 逻辑，便于代码复用
@@ -37,63 +136,225 @@ public abstract class SimpleRestful extends HttpServlet{
 	}
 	@Override
 	protected void doPost(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException {
-		// 构造一个最终的响应JSON对象
-		JSONObject jresp=new JSONObject();
-		
+		if (executor!=null && req.isAsyncSupported() && !streamBody(req)) {
+			// 异步模式：先取在途许可，取不到说明本接口已积压，立即 503，不读请求体也不占执行器
+			if (!inflight.tryAcquire()) {
+				resp.setStatus(503);
+				resp.setHeader("Retry-After", String.valueOf(retry_after));
+				writeResponse(req, resp, 503, "服务繁忙，请稍后重试", null);
+				return;
+			}
+			new AsyncCall(this, req, resp).start();
+			return;
+		}
 		try {
-			// 读取请求体文本（例如：{"action":"login",...}），并尝试解析为JSON
-			String reqText=lwFormData.readAsText(req.getInputStream(), charset, max_req_size);
-			JSONObject jreq=null;
-			if (reqText.length()>0) {
-				jreq=new JSONObject(reqText);
+			Object data;
+			if (streamBody(req)) {
+				// 流式请求：请求体由子类按需读取（action 在查询字符串中）
+				if (limiter!=null) {
+					admit(req, lwFormData.parse(req.getQueryString(), charset).get("action"));
+				}
+				data=executeStream(req, resp, req.getInputStream());
+			} else {
+				// 读取请求体（例如：{"action":"login",...}）并解析为JSON；空请求体时 jreq 为 null
+				JSONObject jreq=readJson(req);
+				admit(req, jreq!=null? jreq.optString("action", null): null);
+				// 调用子类的业务实现，拿到返回数据（可以是任意对象/集合/JSON，或 JsonWriter.Writable）
+				data=execute(req, resp, jreq);
 			}
-			// 调用子类的业务实现，拿到返回数据（可以是任意对象/集合/JSON）
-			Object data=execute(req, resp, jreq);
-			
-			// 正常响应：error=0，reason=ok，并返回 data
-			jresp.put("error", 0);
-			jresp.put("reason", "ok");
-			if (data!=null) {
-				jresp.put("data", data);
+			if (data==RESPONSE_WRITTEN) {
+				return;
 			}
-			
-			resp.setCharacterEncoding("UTF-8");
-			resp.setContentType("application/json");
-			PrintWriter writer=resp.getWriter();
-			String jsonstr=JsonFormat?jresp.toString(2):jresp.toString();
-			writer.write(jsonstr);
-			writer.close();
+			// 正常响应：error=0，reason=ok，并返回 data
+			writeResponse(req, resp, 0, "ok", data);
 			
 		}catch (lwWebException e) {
 			// 业务异常：例如参数缺失、权限不足等，使用自定义错误码 e.error
-			String reason=e.getMessage();
-			jresp.put("error", e.error);
-			jresp.put("reason", reason);
-			resp.setCharacterEncoding("UTF-8");
-			resp.setContentType("application/json");
-			PrintWriter writer=resp.getWriter();
-			String jsonstr=JsonFormat?jresp.toString(2):jresp.toString();
-			writer.write(jsonstr);
-			writer.close();
+			if (resp.isCommitted()) { log("响应已开始输出后出错："+e.getMessage()); return; }
+			discard(resp); // 丢弃已写入缓冲但尚未发出的部分响应
+			errorStatus(resp, e.error, e.retryAfter);
+			writeResponse(req, resp, e.error, e.reason!=null? e.reason: e.getMessage(), null); // getMessage 只有错误码，优先输出具体原因
 		} 
 		catch (Exception e) {
-			// 未知异常：例如运行时错误，统一返回 error=-1，reason为异常类型或消息
+			// 未知异常：例如运行时错误，统一返回 error=-1，reason为异常消息（无消息时为异常类型）
+			// 流式输出中途出错（如客户端断开）时响应已提交，无法再写JSON，只记录日志
+			if (resp.isCommitted()) { log("响应已开始输出后出错", e); return; }
+			discard(resp);
 			String reason=e.getMessage();
 			if (reason==null) {
 				reason=e.getClass().getName();
-				jresp.put("error", -1);
-				jresp.put("reason", reason);
 			}
-			resp.setCharacterEncoding("UTF-8");
-			resp.setContentType("application/json");
-			PrintWriter writer=resp.getWriter();
-			String jsonstr=JsonFormat?jresp.toString(2):jresp.toString();
-			writer.write(jsonstr);
+			writeResponse(req, resp, -1, reason, null);
+		}
+	}
+	
+	// 读取并解析请求体：声明长度超限时不读直接拒绝；未声明长度（分块传输）时读到超限为止
+	// 字节读入缓冲池借出的缓冲后由 JsonReader 直接解析，不经过 ByteArrayOutputStream 与整段 String
+	private JSONObject readJson(HttpServletRequest req) throws IOException, lwWebException {
+		if (req.getContentLengthLong()>max_req_size) {
+			throw new lwWebException(413, "请求体过大（上限 "+max_req_size+" 字节）");
+		}
+		InputStream in=req.getInputStream();
+		byte[] buf=borrowBuffer();
+		int n=0;
+		try {
+			while (true) {
+				if (n==buf.length) {
+					if (n>max_req_size) {
+						throw new lwWebException(413, "请求体过大（上限 "+max_req_size+" 字节）");
+					}
+					byte[] old=buf;
+					buf=Arrays.copyOf(buf, Math.min(n*2, max_req_size+1)); // 多留 1 字节用于发现超限
+					returnBuffer(old);
+				}
+				int r=in.read(buf, n, buf.length-n);
+				if (r<0) break;
+				n+=r;
+			}
+			if (n>max_req_size) {
+				throw new lwWebException(413, "请求体过大（上限 "+max_req_size+" 字节）");
+			}
+			return parseJson(buf, n);
+		} finally {
+			returnBuffer(buf); // 解析结果不引用缓冲
+		}
+	}
+
+	// 从缓冲池借出一块（池空时新建 BODY_INITIAL 字节）；用完必须归还且不再访问
+	static byte[] borrowBuffer() {
+		byte[] b=BODY_POOL.poll();
+		return b!=null? b: new byte[BODY_INITIAL];
+	}
+
+	// 归还借出的缓冲（可为 null）：超过 BODY_RETAIN 的大块与池满时的缓冲直接丢弃
+	static void returnBuffer(byte[] b) {
+		if (b!=null && b.length<=BODY_RETAIN) {
+			BODY_POOL.offer(b);
+		}
+	}
+
+	// 池中空闲的缓冲数（供测试观察）
+	static int pooledBuffers() {
+		return BODY_POOL.size();
+	}
+
+	// 写入借出缓冲的字节流：增长时由 ByteArrayOutputStream 换成更大的数组，归还的是当前数组
+	static final class Bytes extends ByteArrayOutputStream {
+		Bytes(byte[] initial) {
+			super(0);
+			buf=initial;
+		}
+		byte[] array() {
+			return buf;
+		}
+	}
+
+	// 限流标识：已登录用户按 uid，否则按会话，无会话时按客户端地址；子类可覆盖
+	protected String clientKey(HttpServletRequest req) {
+		HttpSession s=req.getSession(false);
+		if (s!=null) {
+			Object uid=s.getAttribute("uid");
+			return uid!=null? "u:"+uid: "s:"+s.getId();
+		}
+		return "a:"+req.getRemoteAddr();
+	}
+
+	// 限流检查：在 execute 之前调用，超出速率时抛出 429（Retry-After 为需等待的秒数，向上取整）
+	void admit(HttpServletRequest req, String action) throws lwWebException {
+		if (limiter==null) {
+			return;
+		}
+		long wait=limiter.acquire(clientKey(req), action, System.nanoTime());
+		if (wait>0) {
+			throw new lwWebException(429, "请求过于频繁，请稍后重试", (int)Math.max(1, (wait+999_999_999L)/1_000_000_000L));
+		}
+	}
+
+	// 把请求体字节解析为JSON（同步与异步模式共用）；空白请求体返回 null
+	JSONObject parseJson(byte[] buf, int n) throws lwWebException {
+		Charset cs=Charset.forName(charset);
+		try {
+			if (cs.equals(StandardCharsets.UTF_8)) {
+				return JsonReader.parseObject(buf, 0, n);
+			}
+			String text=new String(buf, 0, n, cs).trim(); // 非 UTF-8 字符集：先解码再交给 org.json
+			return text.isEmpty()? null: new JSONObject(text);
+		} catch (JSONException e) {
+			throw new lwWebException(400, "请求体不是合法的JSON："+e.getMessage());
+		}
+	}
+
+	// 传输层错误同时用 HTTP 状态告知代理与客户端：413 请求体过大、429 请求过多、503 服务繁忙；带 retryAfter 时输出 Retry-After
+	static void errorStatus(HttpServletResponse resp, int error, int retryAfter) {
+		if (error==413 || error==429 || error==503) {
+			resp.setStatus(error);
+		}
+		if (retryAfter>0) {
+			resp.setHeader("Retry-After", String.valueOf(retryAfter));
+		}
+	}
+
+	// 把统一响应编码为字节（异步模式先编码再非阻塞写出）
+	byte[] encodeResponse(int error, String reason, Object data) throws IOException {
+		ByteArrayOutputStream buf=new ByteArrayOutputStream(256);
+		encodeResponse(error, reason, data, buf);
+		return buf.toByteArray();
+	}
+
+	// 把统一响应编码写入 out（异步模式写入借出的缓冲）
+	void encodeResponse(int error, String reason, Object data, OutputStream out) throws IOException {
+		Writer writer=new OutputStreamWriter(out, "UTF-8");
+		JsonWriter w=new JsonWriter(writer, JsonFormat);
+		w.beginObject();
+		w.name("error").value(error);
+		w.name("reason").value(reason);
+		if (data!=null) {
+			w.name("data").value(data);
+		}
+		w.endObject();
+		w.flush();
+	}
+
+	// 丢弃未发出的部分响应；已开始压缩输出时连同 Content-Encoding 等响应头一起清除，改为输出未压缩的错误响应
+	private void discard(HttpServletResponse resp) {
+		if (resp.containsHeader("Content-Encoding")) {
+			resp.reset();
+		} else {
+			resp.resetBuffer();
+		}
+	}
+
+	// 输出统一响应 {"error":..,"reason":..,"data":..}：用 JsonWriter 直接写入响应流，不构建整棵 JSON 树、不拼接整段字符串
+	// 成功响应在客户端接受时经 Compression.ResponseStream 输出：不超过阈值原样输出，超过后边压缩边写出；错误响应很小，不压缩
+	private void writeResponse(HttpServletRequest req, HttpServletResponse resp, int error, String reason, Object data) throws IOException {
+		resp.setCharacterEncoding("UTF-8");
+		resp.setContentType("application/json");
+		String encoding=data!=null? acceptedEncoding(req, -1): null;
+		Compression.ResponseStream zout=null;
+		Writer writer;
+		if (encoding!=null) {
+			resp.setHeader("Vary", "Accept-Encoding");
+			zout=new Compression.ResponseStream(resp, encoding, compress_threshold);
+			writer=new OutputStreamWriter(zout, "UTF-8");
+		} else {
+			writer=resp.getWriter();
+		}
+		try {
+			JsonWriter w=new JsonWriter(writer, JsonFormat);
+			w.beginObject();
+			w.name("error").value(error);
+			w.name("reason").value(reason);
+			if (data!=null) {
+				w.name("data").value(data);
+			}
+			w.endObject();
+			w.flush();
 			writer.close();
+		} finally {
+			if (zout!=null) {
+				zout.abort(); // 正常关闭后为空操作；中途出错时归还 Deflater
+			}
 		}
-		
-		
-		
 	}
 
 }
\ No newline at end of file
@@ -0,0 +1,81 @@
+package com.training.db;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.Test;
+
+import com.training.db.Db.Course;
+import com.training.db.Db.Enrollment;
+import com.training.db.Db.TimeSlot;
+
+// 批量选课（atomic）：失败时不写入记录并归还座位；不存在的课程返回 not_found；
+// 撤销期间并发进入候补的学生，应在座位归还后被转正（不留下“有空座却有人候补”）
+public class EnrollBatchTest {
+    private static int slot;
+    // 每门课程独占一个时间片，避免批内时间冲突
+    private static synchronized Course course(int capacity){
+        String[] days={"Mon","Tue","Wed","Thu","Fri"}; int k=slot++;
+        return Db.addCourse("批量测试"+k,2,capacity,new ArrayList<>(Arrays.asList(new TimeSlot(days[k%5],(k/5)%12,(k/5)%12+1))));
+    }
+    // 两门课程：按课程ID顺序排在前面的有 1 个座位，后面的已满；整批占座时先占前者、在后者上失败
+    private static Course[] pair(){
+        Course a=course(1), b=course(0);
+        if(a.id.compareTo(b.id)>0){ a.capacity=0; b.capacity=1; Course t=a; a=b; b=t; }
+        return new Course[]{a,b};
+    }
+
+    @Test
+    public void atomicFailureWritesNothingAndReturnsSeats(){
+        Course[] p=pair(); String uid="batch-atomic";
+        List<Enrollment> res=Db.enrollBatch(uid, Arrays.asList(p[1].id, p[0].id, p[1].id), true);
+        assertEquals(2, res.size());
+        assertEquals(p[1].id, res.get(0).courseId); assertEquals(Enrollment.FULL, res.get(0).status);
+        assertEquals(p[0].id, res.get(1).courseId); assertEquals(Enrollment.ABORTED, res.get(1).status);
+        assertEquals(0, p[0].enrolled);
+        assertTrue(Db.listUserEnrollments(uid).isEmpty());
+    }
+
+    @Test
+    public void missingCourseIsReportedByIdWithoutTouchingSeats(){
+        Course c=course(1); String uid="batch-missing";
+        List<Enrollment> res=Db.enrollBatch(uid, Arrays.asList("no-such-course", c.id), true);
+        assertEquals("no-such-course", res.get(0).courseId); assertEquals(Enrollment.NOT_FOUND, res.get(0).status);
+        assertEquals(Enrollment.ABORTED, res.get(1).status);
+        assertEquals(0, c.enrolled);
+        assertTrue(Db.listUserEnrollments(uid).isEmpty());
+
+        res=Db.enrollBatch(uid, Arrays.asList("no-such-course", c.id), false);
+        assertEquals(Enrollment.NOT_FOUND, res.get(0).status);
+        assertEquals(Enrollment.ENROLLED, res.get(1).status);
+        assertEquals(1, Db.listUserEnrollments(uid).size());
+    }
+
+    // 整批反复失败（每次都短暂占住 a 的唯一座位再归还）的同时，单门选课反复选上再退掉；
+    // 某次单门选课恰在座位被占住时到达就会进入候补：整批线程停下后，这名学生必须已被转正
+    @Test
+    public void abortedSeatGoesToStudentWhoWaitlistedMeanwhile() throws Exception {
+        long deadline=System.currentTimeMillis()+3000;
+        for(int round=0;round<20 && System.currentTimeMillis()<deadline;round++){
+            Course[] p=pair(); Course a=p[0];
+            AtomicBoolean stop=new AtomicBoolean();
+            Thread t=new Thread(()->{ while(!stop.get()) Db.enrollBatch("batch-race-"+a.id, Arrays.asList(p[0].id,p[1].id), true); });
+            t.start();
+            String waiting=null;
+            for(int i=0;waiting==null && System.currentTimeMillis()<deadline;i++){
+                String uid="single-race-"+a.id+"-"+i;
+                Enrollment e=Db.enroll(uid, a.id);
+                if(Enrollment.WAITLIST.equals(e.status)) waiting=uid; else Db.drop(uid, a.id);
+            }
+            stop.set(true); t.join();
+            if(waiting==null) break;
+            assertEquals("round "+round, 1, a.enrolled);
+            assertEquals("round "+round, Enrollment.ENROLLED, Db.listUserEnrollments(waiting).get(0).status);
+        }
+    }
+}
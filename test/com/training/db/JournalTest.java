@@ -0,0 +1,87 @@
+package com.training.db;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+// 预写日志：跨文件按 LSN 重放、快照点之后的增量重放、尾部损坏、截断与关闭后的行为
+public class JournalTest {
+    private File dir;
+
+    @Before public void setUp() throws IOException { dir=Files.createTempDirectory("journal").toFile(); }
+    @After public void tearDown(){ File[] fs=dir.listFiles(); if(fs!=null) for(File f: fs) f.delete(); dir.delete(); }
+
+    private static Journal.Record enroll(String user,String course){ return new Journal.Record(Journal.ENROLL).str(user).str(course).str(null); }
+    // 重放为 "lsn:type:user:course" 列表
+    private List<String> replay(long after) throws IOException {
+        List<String> out=new ArrayList<>();
+        Journal.replay(dir, after, r->out.add(r.lsn+":"+r.type+":"+r.str()+":"+r.str()));
+        return out;
+    }
+
+    @Test
+    public void replaysAcrossRollsInLsnOrder() throws IOException {
+        Journal j=Journal.open(dir,0);
+        assertEquals(1, j.append(enroll("u1","c1")));
+        assertEquals(2, j.append(new Journal.Record(Journal.COURSE_DELETE).str("c1").str(null)));
+        assertEquals(2, j.roll());
+        assertEquals(3, j.append(enroll("u2","c2")));
+        j.close();
+        List<String> all=replay(0);
+        assertEquals(3, all.size());
+        assertEquals("1:"+Journal.ENROLL+":u1:c1", all.get(0));
+        assertEquals("2:"+Journal.COURSE_DELETE+":c1:null", all.get(1));
+        assertEquals("3:"+Journal.ENROLL+":u2:c2", all.get(2));
+        // 快照覆盖到 LSN 2：只重放之后的记录
+        List<String> tail=replay(2);
+        assertEquals(1, tail.size()); assertTrue(tail.get(0).startsWith("3:"));
+    }
+
+    @Test
+    public void reopenContinuesAndTruncateDropsCoveredFiles() throws IOException {
+        Journal j=Journal.open(dir,0);
+        j.append(enroll("u1","c1")); j.append(enroll("u1","c2"));
+        j.close();
+        long last=Journal.replay(dir,0,r->{});
+        assertEquals(2, last);
+        j=Journal.open(dir,last);
+        assertEquals(3, j.append(enroll("u1","c3")));
+        j.truncate(2); // 第一个文件只含 LSN 1..2
+        j.close();
+        assertEquals(1, dir.listFiles((d,n)->n.endsWith(".wal")).length);
+        assertEquals(1, replay(0).size());
+    }
+
+    @Test
+    public void tornTailIsIgnored() throws IOException {
+        Journal j=Journal.open(dir,0);
+        j.append(enroll("u1","c1")); j.append(enroll("u2","c2"));
+        j.close();
+        // 第二条记录载荷的最后一个字节被改写：CRC 不符，重放止于第一条
+        File wal=dir.listFiles((d,n)->n.endsWith(".wal"))[0];
+        int first=16+enroll("u1","c1").size, second=16+enroll("u2","c2").size;
+        try (RandomAccessFile raf=new RandomAccessFile(wal,"rw")) { raf.seek(first+second-1); raf.write(0x7f); }
+        List<String> all=replay(0);
+        assertEquals(1, all.size()); assertTrue(all.get(0).startsWith("1:"));
+    }
+
+    @Test
+    public void closedJournalRejectsWrites() throws IOException {
+        Journal j=Journal.open(dir,0);
+        j.append(enroll("u1","c1"));
+        j.close(); j.close();
+        assertEquals(-1, j.append(enroll("u1","c2")));
+        try { j.roll(); fail("关闭后切换文件应报错"); } catch (IOException expected) { }
+    }
+}
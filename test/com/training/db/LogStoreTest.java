@@ -0,0 +1,111 @@
+package com.training.db;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.training.db.Db.LogEntry;
+
+// 操作日志段存储：最近 N 条、按用户精确查询、重启后索引加载、读取错误上抛、总大小上限、超长字段截断
+public class LogStoreTest {
+    private File dir;
+
+    @Before public void setUp() throws IOException { dir=Files.createTempDirectory("logstore").toFile(); }
+    @After public void tearDown(){ File[] fs=dir.listFiles(); if(fs!=null) for(File f: fs) f.delete(); dir.delete(); }
+
+    // 写入 n 条：用户 u0..u9 轮流，时间为序号
+    private static void fill(LogStore s,long from,int n) throws IOException {
+        LogEntry[] batch=new LogEntry[n];
+        for(int i=0;i<n;i++){ long seq=from+i; LogEntry e=new LogEntry(seq,"enroll","u"+(seq%10),"c1","detail-"+seq); e.seq=seq; batch[i]=e; }
+        s.append(batch,n);
+    }
+    private static LogStore.Query query(long cursor,int limit,String userId){
+        LogStore.Query q=new LogStore.Query(); q.cursor=cursor; q.limit=limit; q.userId=userId; return q;
+    }
+
+    @Test
+    public void recentAndByUserAcrossReopen() throws IOException {
+        LogStore s=LogStore.open(dir,Long.MAX_VALUE,Long.MAX_VALUE);
+        fill(s,1,5000);
+        List<LogEntry> recent=s.query(query(-1,3,null));
+        assertEquals(3, recent.size());
+        assertEquals(4998, recent.get(0).seq); assertEquals(5000, recent.get(2).seq);
+        s.close();
+
+        s=LogStore.open(dir,Long.MAX_VALUE,Long.MAX_VALUE);
+        assertEquals(5000, s.lastSeq());
+        List<LogEntry> mine=s.query(query(-1,1000,"u7"));
+        assertEquals(500, mine.size());
+        for(int i=0;i<mine.size();i++) assertEquals(7+10*i, mine.get(i).seq);
+        List<LogEntry> page=s.query(query(4000,5,"u3"));
+        assertEquals(4003, page.get(0).seq); assertEquals(4043, page.get(4).seq);
+        assertTrue(s.query(query(-1,10,"nobody")).isEmpty());
+        s.close();
+    }
+
+    @Test
+    public void readErrorsPropagate() throws IOException {
+        LogStore s=LogStore.open(dir,Long.MAX_VALUE,Long.MAX_VALUE);
+        fill(s,1,1000);
+        s.close();
+        s=LogStore.open(dir,Long.MAX_VALUE,Long.MAX_VALUE);
+        // 索引已加载后段文件被截短：查询应报错而不是返回残缺结果
+        File seg=dir.listFiles((d,n)->n.endsWith(".seg"))[0];
+        try (RandomAccessFile raf=new RandomAccessFile(seg,"rw")) { raf.setLength(raf.length()/2); }
+        try { s.query(query(0,1000,null)); fail("应抛出 IOException"); }
+        catch (IOException expected) { }
+    }
+
+    @Test
+    public void sizeCapDropsOldestSegments() throws IOException {
+        LogStore s=LogStore.open(dir,Long.MAX_VALUE,1);
+        fill(s,1,100); s.close();
+        s=LogStore.open(dir,Long.MAX_VALUE,1);
+        fill(s,101,100); s.close(); // 封存时总大小超限：删掉更早的段
+        s=LogStore.open(dir,Long.MAX_VALUE,1);
+        assertEquals(0, s.query(query(-1,1000,null)).size());
+        s.close();
+        s=LogStore.open(dir,Long.MAX_VALUE,Long.MAX_VALUE);
+        fill(s,201,10);
+        assertEquals(10, s.query(query(-1,1000,null)).size());
+        s.close();
+    }
+
+    @Test
+    public void oversizedFieldsAreClippedWithoutBreakingTheSegment() throws IOException {
+        StringBuilder big=new StringBuilder(); for(int i=0;i<100_000;i++) big.append('课');
+        StringBuilder emoji=new StringBuilder(); for(int i=0;i<20_000;i++) emoji.append("\uD83D\uDE00");
+        LogEntry a=new LogEntry(1,"addCourse",null,"c1","ok"); a.seq=1;
+        LogEntry b=new LogEntry(2,"addCourse",null,"c2",big.toString()); b.seq=2;
+        LogEntry c=new LogEntry(3,"note","u1",null,emoji.toString()); c.seq=3;
+        LogEntry d=new LogEntry(4,"addCourse",null,"c3","after"); d.seq=4;
+        LogStore s=LogStore.open(dir,Long.MAX_VALUE,Long.MAX_VALUE);
+        s.append(new LogEntry[]{a,b,c,d},4);
+        check(s.query(query(0,10,null)));
+        s.close();
+        for(File f: dir.listFiles((x,n)->n.endsWith(".idx"))) f.delete(); // 重启时按段文件扫描重建
+        s=LogStore.open(dir,Long.MAX_VALUE,Long.MAX_VALUE);
+        check(s.query(query(0,10,null)));
+        assertEquals(1, s.query(query(-1,10,"u1")).size());
+        s.close();
+    }
+    private static void check(List<LogEntry> all){
+        assertEquals(4, all.size());
+        assertEquals("ok", all.get(0).detail); assertEquals("after", all.get(3).detail);
+        String clipped=all.get(1).detail;
+        assertTrue(clipped.length()<100_000 && clipped.startsWith("课课课") && clipped.endsWith("…"));
+        String pairs=all.get(2).detail;
+        assertTrue(pairs.endsWith("…"));
+        assertTrue("不应留下孤立的代理字符", Character.isLowSurrogate(pairs.charAt(pairs.length()-2)));
+    }
+}
@@ -0,0 +1,44 @@
+package com.training.db;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+// 并行小工具的失败路径：一个子任务抛出时，其余子任务都已结束才向调用方抛出（调用方随后会释放共用的映射）
+public class ParallelTest {
+    @Test
+    public void bothWaitsForSiblingBeforeThrowing(){
+        AtomicInteger running=new AtomicInteger(), finished=new AtomicInteger();
+        try {
+            Parallel.both(()->{ throw new IllegalStateException("坏数据"); },
+                          ()->{ running.incrementAndGet(); try { Thread.sleep(200); } catch (InterruptedException ex) { Thread.currentThread().interrupt(); } finished.incrementAndGet(); });
+            fail("应抛出子任务的异常");
+        } catch (IllegalStateException expected) {
+            assertTrue(expected.getMessage(), expected.getMessage().contains("坏数据")); // 跨线程抛出时 ForkJoin 会重建异常，消息带上原异常类名
+        }
+        assertEquals(running.get(), finished.get());
+        assertEquals(1, finished.get());
+    }
+
+    @Test
+    public void forRangeWaitsForAllChunksBeforeThrowing(){
+        AtomicInteger started=new AtomicInteger(), finished=new AtomicInteger();
+        try {
+            Parallel.forRange(64,1,(from,to)->{
+                started.incrementAndGet();
+                if(from==0) throw new IllegalArgumentException("第一段失败");
+                try { Thread.sleep(5); } catch (InterruptedException ex) { Thread.currentThread().interrupt(); }
+                finished.incrementAndGet();
+            });
+            fail("应抛出子任务的异常");
+        } catch (IllegalArgumentException expected) { /* 预期 */ }
+        int s=started.get(), f=finished.get();
+        assertTrue("started="+s, s>=1);
+        assertEquals("抛出时已开始的子任务都应已结束", s-1, f);
+        assertEquals("抛出后不再有子任务开始", s, started.get());
+    }
+}
@@ -0,0 +1,72 @@
+package com.training.db;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.training.db.Db.Course;
+import com.training.db.Db.Enrollment;
+import com.training.db.Db.TimeSlot;
+
+// 选课记录的日志重放：退课与候补转正交错时，转正不能在退课之后重新插入一条已选记录；
+// 候补记录恢复日志中的入队键，早期不带键的记录以 LSN 代替
+public class ReplayTest {
+    private File dir;
+    private Course course;
+
+    @Before public void setUp() throws IOException {
+        dir=Files.createTempDirectory("replay").toFile();
+        List<TimeSlot> times=new ArrayList<>(); times.add(new TimeSlot("Sat",8,9));
+        course=Db.addCourse("重放测试",2,1,times);
+    }
+    @After public void tearDown(){ File[] fs=dir.listFiles(); if(fs!=null) for(File f: fs) f.delete(); dir.delete(); }
+
+    private static Journal.Record rec(byte type,String user,String course,String status){ return new Journal.Record(type).str(user).str(course).str(status); }
+    private void replay(Journal.Record... records) throws IOException {
+        Journal j=Journal.open(dir,0);
+        for(Journal.Record r: records) j.append(r);
+        j.close();
+        Journal.replay(dir, 0, Db::applyRecord);
+    }
+
+    @Test
+    public void promoteAfterDropDoesNotReEnroll() throws IOException {
+        String u="replay-dropped";
+        replay(rec(Journal.ENROLL,u,course.id,Enrollment.WAITLIST),
+               rec(Journal.DROP,u,course.id,Enrollment.DROPPED),
+               rec(Journal.PROMOTE,u,course.id,Enrollment.ENROLLED));
+        assertTrue(Db.listUserEnrollments(u).isEmpty());
+    }
+
+    @Test
+    public void promoteOnlyUpdatesExistingWaitlistRecord() throws IOException {
+        String waiting="replay-waiting", missing="replay-missing", enrolled="replay-enrolled";
+        replay(rec(Journal.ENROLL,waiting,course.id,Enrollment.WAITLIST),
+               rec(Journal.PROMOTE,waiting,course.id,Enrollment.ENROLLED),
+               rec(Journal.PROMOTE,missing,course.id,Enrollment.ENROLLED),
+               rec(Journal.ENROLL,enrolled,course.id,Enrollment.ENROLLED),
+               rec(Journal.PROMOTE,enrolled,course.id,Enrollment.ENROLLED));
+        assertEquals(Enrollment.ENROLLED, Db.listUserEnrollments(waiting).get(0).status);
+        assertTrue("没有候补记录时转正不新建记录", Db.listUserEnrollments(missing).isEmpty());
+        assertEquals(1, Db.listUserEnrollments(enrolled).size());
+        assertEquals(Enrollment.ENROLLED, Db.listUserEnrollments(enrolled).get(0).status);
+    }
+
+    @Test
+    public void waitlistEnrollRestoresEnqueueKey() throws IOException {
+        String keyed="replay-keyed", legacy="replay-legacy";
+        replay(rec(Journal.ENROLL,keyed,course.id,Enrollment.WAITLIST).i64(42),
+               rec(Journal.ENROLL,legacy,course.id,Enrollment.WAITLIST));
+        assertEquals(42, Db.listUserEnrollments(keyed).get(0).waitOrder);
+        assertEquals("不带键的记录取其 LSN", 2, Db.listUserEnrollments(legacy).get(0).waitOrder);
+    }
+}
@@ -0,0 +1,94 @@
+package com.training.db;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.training.db.Db.Course;
+import com.training.db.Db.Enrollment;
+import com.training.db.Db.Grade;
+import com.training.db.Db.TimeSlot;
+import com.training.db.Db.User;
+
+// 快照读写：候补记录保存入队键而非排名，读回后按键排序即为原队列顺序；
+// 分区条数损坏（负数或超出文件）时报告为格式损坏（IOException），而不是抛出运行时异常
+public class SnapshotTest {
+    private File dir;
+
+    @Before public void setUp() throws IOException { dir=Files.createTempDirectory("snapshot").toFile(); }
+    @After public void tearDown(){ File[] fs=dir.listFiles(); if(fs!=null) for(File f: fs) f.delete(); dir.delete(); }
+
+    // 读回的选课记录，按 "用户/课程" 索引
+    private static final class Collect implements Snapshot.Loader {
+        final Map<String,Enrollment> enrollments=new ConcurrentHashMap<>();
+        @Override public void user(String id,String username,String password,String role,String email){}
+        @Override public void course(String id,String name,int credit,int capacity,List<TimeSlot> times){}
+        @Override public void enrollments(String userId,Enrollment[] es){ for(Enrollment e: es) enrollments.put(userId+"/"+e.courseId,e); }
+        @Override public void grades(String userId,Grade[] gs){}
+    }
+    private static Enrollment waiting(String user,long key){ Enrollment e=new Enrollment(user,"c1",Enrollment.WAITLIST); e.waitOrder=key; return e; }
+
+    @Test
+    public void waitlistKeysSurviveRoundTrip() throws IOException {
+        // 键超出 int 范围，且写出顺序（按用户）与排队顺序不同
+        long base=5_000_000_000L;
+        List<Enrollment> es=Arrays.asList(waiting("u1",base+30), waiting("u2",base+10), new Enrollment("u3","c1",Enrollment.ENROLLED), waiting("u4",base+20));
+        List<TimeSlot> times=new ArrayList<>(); times.add(new TimeSlot("Mon",8,9));
+        Snapshot.write(dir, 7, 0, Collections.<User>emptyList(), Collections.singletonList(new Course("c1","快照测试",2,1,times)), es, Collections.<Grade>emptyList());
+
+        Collect got=new Collect();
+        long[] snap=Snapshot.loadLatest(dir, got, ()->{});
+        assertNotNull(snap); assertEquals(7, snap[0]);
+        assertEquals(4, got.enrollments.size());
+        assertEquals(base+30, got.enrollments.get("u1/c1").waitOrder);
+        assertEquals(base+10, got.enrollments.get("u2/c1").waitOrder);
+        assertEquals(base+20, got.enrollments.get("u4/c1").waitOrder);
+        assertEquals(Enrollment.ENROLLED, got.enrollments.get("u3/c1").status);
+    }
+
+    // 把某个分区开头的条数改成 n：尾部 12 字节为目录偏移 + 魔数，目录为项数后跟 (分区号 int, 偏移 long)
+    private static void setCount(File f,int section,int n) throws IOException {
+        try (RandomAccessFile raf=new RandomAccessFile(f,"rw")) {
+            raf.seek(raf.length()-12); long dirAt=raf.readLong();
+            raf.seek(dirAt); int sections=raf.readInt();
+            for(int i=0;i<sections;i++){
+                raf.seek(dirAt+4+i*12L); int id=raf.readInt(); long off=raf.readLong();
+                if(id==section){ raf.seek(off); raf.writeInt(n); return; }
+            }
+            fail("没有分区 "+section);
+        }
+    }
+
+    @Test
+    public void corruptSectionCountsAreReportedAsIOException() throws IOException {
+        List<Enrollment> es=Arrays.asList(waiting("u1",1), waiting("u2",2));
+        List<TimeSlot> times=new ArrayList<>(); times.add(new TimeSlot("Mon",8,9));
+        File f=Snapshot.write(dir, 9, 0, Collections.<User>emptyList(), Collections.singletonList(new Course("c1","快照测试",2,1,times)), es, Collections.<Grade>emptyList());
+        byte[] good=Files.readAllBytes(f.toPath());
+        // 分区号：3 课程、4 选课（见 Snapshot 的 S_* 常量）
+        for(int[] bad: new int[][]{{3,-1},{4,-5},{4,Integer.MAX_VALUE}}){
+            Files.write(f.toPath(), good); setCount(f,bad[0],bad[1]);
+            try { Snapshot.loadLatest(dir, new Collect(), ()->{}); fail("应报告损坏：分区 "+bad[0]+" 条数 "+bad[1]); }
+            catch (IOException expected) {
+                Throwable cause=expected.getCause();
+                assertTrue(String.valueOf(cause), cause instanceof IOException && cause.getMessage().contains("条数非法"));
+            }
+        }
+    }
+}
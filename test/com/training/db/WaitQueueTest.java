@@ -0,0 +1,74 @@
+package com.training.db;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.training.db.Db.Enrollment;
+
+// 候补队列：排名与重建、入队键
+// - 队首长期不动、后面反复入队/取消时，树状数组大小应只随排队人数变化
+// - 随机操作下排名与按顺序保存的参照列表一致（覆盖多次重建）
+// - 入队键按入队顺序递增、出队后不变；restore 保留原键，之后新入队的键更大
+public class WaitQueueTest {
+    private static Enrollment waiting(int i){ return new Enrollment("u"+i,"c1",Enrollment.WAITLIST); }
+
+    @Test
+    public void rebuildKeepsTreeSizedByLiveEntries(){
+        WaitQueue q=new WaitQueue();
+        Enrollment first=waiting(0); q.offer(first);
+        for(int i=1;i<=100_000;i++){ Enrollment e=waiting(i); q.offer(e); assertTrue(q.cancel(e)); }
+        assertEquals(1, q.size());
+        assertEquals(1, q.position(first));
+        assertTrue("capacity="+q.capacity(), q.capacity()<=128);
+    }
+
+    @Test
+    public void positionsMatchReferenceAcrossRebuilds(){
+        WaitQueue q=new WaitQueue(); List<Enrollment> ref=new ArrayList<>(); Random r=new Random(42);
+        for(int step=0;step<20_000;step++){
+            int op=r.nextInt(10);
+            if(op<5 || ref.isEmpty()){ Enrollment e=waiting(step); q.offer(e); ref.add(e); }
+            else if(op<7){ assertEquals(ref.remove(0), q.poll()); }
+            else { Enrollment e=ref.remove(r.nextInt(ref.size())); assertTrue(q.cancel(e)); assertEquals(-1, q.position(e)); }
+            if(step%97==0) for(int i=0;i<ref.size();i++) assertEquals(i+1, q.position(ref.get(i)));
+        }
+        assertEquals(ref.size(), q.size());
+        for(int i=0;i<ref.size();i++) assertEquals(i+1, q.position(ref.get(i)));
+        while(!ref.isEmpty()) assertEquals(ref.remove(0), q.poll());
+        assertNull(q.poll());
+    }
+
+    @Test
+    public void pollBatchKeepsOrder(){
+        WaitQueue q=new WaitQueue(); List<Enrollment> ref=new ArrayList<>();
+        for(int i=0;i<200;i++){ Enrollment e=waiting(i); q.offer(e); ref.add(e); }
+        assertEquals(ref.subList(0,150), q.pollBatch(150));
+        assertEquals(1, q.position(ref.get(150)));
+        assertEquals(50, q.size());
+    }
+
+    @Test
+    public void enqueueKeysAreFixedAndIncreasing(){
+        WaitQueue q=new WaitQueue(); List<Enrollment> ref=new ArrayList<>();
+        for(int i=0;i<10;i++){ Enrollment e=waiting(i); q.offer(e); ref.add(e); }
+        for(int i=1;i<ref.size();i++) assertTrue(ref.get(i-1).waitOrder<ref.get(i).waitOrder);
+        long key=ref.get(5).waitOrder;
+        q.pollBatch(5);
+        assertEquals(1, q.position(ref.get(5)));
+        assertEquals("出队不改变其余记录的键", key, ref.get(5).waitOrder);
+
+        WaitQueue recovered=new WaitQueue(); Enrollment old=waiting(100); old.waitOrder=key+1_000_000;
+        recovered.restore(old);
+        assertEquals(key+1_000_000, old.waitOrder);
+        Enrollment next=waiting(101); recovered.offer(next);
+        assertTrue(next.waitOrder>old.waitOrder);
+        assertEquals(2, recovered.position(next));
+    }
+}
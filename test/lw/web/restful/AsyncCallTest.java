@@ -0,0 +1,190 @@
+package lw.web.restful;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncListener;
+import javax.servlet.ReadListener;
+import javax.servlet.ServletConfig;
+import javax.servlet.ServletContext;
+import javax.servlet.ServletInputStream;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpSession;
+
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Test;
+
+// 异步模式的超时路径：
+// - 执行中超时：立即返回 503；业务线程随后只通过快照读会话，修改响应抛出 IllegalStateException；任务返回前不归还在途许可
+// - 排队中超时：任务开始时发现已超时，直接丢弃，不调用 execute
+// - 请求体与编码后的响应用的是缓冲池借出的缓冲，请求结束后全部归还
+// 容器对象用动态代理模拟：complete 之后视为已被回收，任何对原始请求/响应的调用都记为错误
+public class AsyncCallTest {
+    // 业务方法：按请求中的 block 等待闸门，记录执行次数、读到的 uid 与超时后修改响应的结果
+    static final class Blocking extends SimpleRestful {
+        final CountDownLatch gate=new CountDownLatch(1), entered=new CountDownLatch(1);
+        final AtomicInteger executed=new AtomicInteger();
+        volatile String uid; volatile Throwable afterTimeout;
+        @Override protected Object execute(HttpServletRequest req,HttpServletResponse resp,JSONObject jreq) throws Exception {
+            executed.incrementAndGet(); entered.countDown();
+            if(jreq.optBoolean("block")) gate.await();
+            uid=(String)req.getSession(false).getAttribute("uid");
+            if(jreq.optBoolean("block")) try { resp.setHeader("X-Late", "1"); } catch (IllegalStateException ex) { afterTimeout=ex; }
+            return "done";
+        }
+    }
+    // 一次模拟请求：complete 后置 recycled，之后再触碰请求/响应即记录到 misuse
+    static final class Exchange {
+        final List<AsyncListener> listeners=new CopyOnWriteArrayList<>();
+        final ByteArrayOutputStream body=new ByteArrayOutputStream();
+        final CountDownLatch completed=new CountDownLatch(1);
+        final List<String> misuse=new CopyOnWriteArrayList<>();
+        volatile boolean recycled; volatile int status=200;
+        void timeout() throws Exception { for(AsyncListener l: listeners) l.onTimeout(null); }
+        String body(){ return new String(body.toByteArray(), StandardCharsets.UTF_8); }
+    }
+
+    private Blocking servlet;
+
+    private Blocking servlet(int threads) throws Exception {
+        Map<String,String> params=new HashMap<>(); params.put("asyncThreads", String.valueOf(threads)); params.put("asyncQueue", "4");
+        ServletContext sc=(ServletContext)Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[]{ServletContext.class}, (p,m,a)->null);
+        ServletConfig cfg=(ServletConfig)Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[]{ServletConfig.class}, (p,m,a)->{
+            switch(m.getName()){ case "getInitParameter": return params.get(a[0]); case "getServletContext": return sc; case "getServletName": return "test"; default: return null; }
+        });
+        servlet=new Blocking(); servlet.init(cfg); return servlet;
+    }
+    @After public void tearDown(){ if(servlet!=null){ servlet.gate.countDown(); servlet.destroy(); } }
+
+    private Exchange call(SimpleRestful s,String json) throws Exception {
+        Exchange x=new Exchange(); byte[] b=json.getBytes(StandardCharsets.UTF_8);
+        HttpSession session=(HttpSession)Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[]{HttpSession.class}, (p,m,a)->
+            "getAttribute".equals(m.getName()) && "uid".equals(a[0])? "u1": null);
+        AsyncContext ctx=(AsyncContext)Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[]{AsyncContext.class}, (p,m,a)->{
+            switch(m.getName()){
+                case "addListener": x.listeners.add((AsyncListener)a[0]); return null;
+                case "complete": if(!x.recycled){ x.recycled=true; x.completed.countDown(); for(AsyncListener l: x.listeners) l.onComplete(null); } return null;
+                default: return null;
+            }
+        });
+        HttpServletRequest req=(HttpServletRequest)Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[]{HttpServletRequest.class}, (p,m,a)->{
+            if(x.recycled){ x.misuse.add("request."+m.getName()); throw new IllegalStateException("已回收"); }
+            switch(m.getName()){
+                case "isAsyncSupported": return true;
+                case "startAsync": return ctx;
+                case "getContentLengthLong": return (long)b.length;
+                case "getSession": return session;
+                case "getHeaderNames": return Collections.emptyEnumeration();
+                case "getRemoteAddr": return "127.0.0.1";
+                case "getInputStream": {
+                    ByteArrayInputStream in=new ByteArrayInputStream(b);
+                    return new ServletInputStream(){
+                        @Override public int read(){ return in.read(); }
+                        @Override public boolean isFinished(){ return in.available()==0; }
+                        @Override public boolean isReady(){ return in.available()>0; }
+                        @Override public void setReadListener(ReadListener l){ try { l.onDataAvailable(); l.onAllDataRead(); } catch (Exception ex) { throw new IllegalStateException(ex); } }
+                    };
+                }
+                default: return null;
+            }
+        });
+        HttpServletResponse resp=(HttpServletResponse)Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[]{HttpServletResponse.class}, (p,m,a)->{
+            if(x.recycled){ x.misuse.add("response."+m.getName()); throw new IllegalStateException("已回收"); }
+            switch(m.getName()){
+                case "setStatus": x.status=(Integer)a[0]; return null;
+                case "getOutputStream": return new ServletOutputStream(){
+                    @Override public void write(int c){ x.body.write(c); }
+                    @Override public boolean isReady(){ return true; }
+                    @Override public void setWriteListener(WriteListener l){ try { l.onWritePossible(); } catch (Exception ex) { throw new IllegalStateException(ex); } }
+                };
+                case "isCommitted": return false;
+                default: return null;
+            }
+        });
+        s.doPost(req, resp);
+        return x;
+    }
+    private static void awaitPermits(SimpleRestful s,int expected) throws InterruptedException {
+        long deadline=System.nanoTime()+TimeUnit.SECONDS.toNanos(5);
+        while(s.inflight.availablePermits()!=expected && System.nanoTime()<deadline) Thread.sleep(5);
+        assertEquals(expected, s.inflight.availablePermits());
+    }
+
+    @Test
+    public void completesNormally() throws Exception {
+        Blocking s=servlet(2);
+        Exchange x=call(s, "{\"action\":\"x\"}");
+        assertTrue(x.completed.await(5, TimeUnit.SECONDS));
+        assertTrue(x.body(), x.body().contains("\"done\""));
+        assertEquals("u1", s.uid);
+        awaitPermits(s, 6);
+        assertTrue(x.misuse.toString(), x.misuse.isEmpty());
+    }
+
+    @Test
+    public void buffersReturnToPoolWhenRequestEnds() throws Exception {
+        Blocking s=servlet(2);
+        int before=SimpleRestful.pooledBuffers();
+        Exchange x=call(s, "{\"action\":\"x\"}");
+        assertTrue(x.completed.await(5, TimeUnit.SECONDS));
+        awaitPermits(s, 6); // onComplete 先归还缓冲再归还许可
+        assertTrue(x.body(), x.body().contains("\"done\""));
+        // 请求体解析后归还、响应借用同一块并在结束时归还：池中数量回到原值（原来为空时多出这一块）
+        assertEquals(Math.max(before, 1), SimpleRestful.pooledBuffers());
+    }
+
+    @Test
+    public void timeoutWhileRunningKeepsPermitUntilTaskReturns() throws Exception {
+        Blocking s=servlet(2);
+        Exchange x=call(s, "{\"block\":true}");
+        assertTrue(s.entered.await(5, TimeUnit.SECONDS));
+        x.timeout();
+        assertTrue(x.completed.await(5, TimeUnit.SECONDS));
+        assertEquals(503, x.status);
+        assertTrue(x.body(), x.body().contains("503"));
+        assertEquals("任务仍在运行，许可不应归还", 5, s.inflight.availablePermits());
+
+        s.gate.countDown();
+        awaitPermits(s, 6);
+        assertEquals("超时后仍可从快照读取会话", "u1", s.uid);
+        assertTrue("超时后修改响应应被拒绝", s.afterTimeout instanceof IllegalStateException);
+        assertEquals(503, x.status);
+        assertTrue(x.misuse.toString(), x.misuse.isEmpty());
+    }
+
+    @Test
+    public void timeoutWhileQueuedDropsTask() throws Exception {
+        Blocking s=servlet(1);
+        if(!s.executor.getClass().getName().contains("ThreadPool")) return; // 虚拟线程执行器没有排队阶段
+        Exchange first=call(s, "{\"block\":true}");
+        assertTrue(s.entered.await(5, TimeUnit.SECONDS));
+        Exchange queued=call(s, "{\"action\":\"queued\"}");
+        queued.timeout();
+        assertTrue(queued.completed.await(5, TimeUnit.SECONDS));
+        assertEquals(503, queued.status);
+
+        s.gate.countDown();
+        assertTrue(first.completed.await(5, TimeUnit.SECONDS));
+        awaitPermits(s, 5);
+        assertEquals("排队中超时的任务不应执行", 1, s.executed.get());
+        assertTrue(queued.misuse.toString(), queued.misuse.isEmpty());
+    }
+}
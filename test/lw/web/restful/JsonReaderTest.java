@@ -0,0 +1,59 @@
+package lw.web.restful;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.nio.charset.StandardCharsets;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.Test;
+
+// 字节级 JSON 解析：数字按 RFC 8259 文法、重复键报错、字符串转义与多余内容
+public class JsonReaderTest {
+    private static JSONObject parse(String json){
+        byte[] b=json.getBytes(StandardCharsets.UTF_8);
+        return JsonReader.parseObject(b,0,b.length);
+    }
+    private static void rejects(String json){
+        try { parse(json); fail("应拒绝："+json); } catch (JSONException expected) { /* 预期 */ }
+    }
+
+    @Test
+    public void acceptsValidNumbers(){
+        JSONObject o=parse("{\"a\":0,\"b\":-0,\"c\":123,\"d\":-7,\"e\":1.5,\"f\":0.25,\"g\":1e3,\"h\":-2.5E-2,\"i\":3000000000,\"j\":1E+2}");
+        assertEquals(0, o.get("a")); assertEquals(0, o.get("b")); assertEquals(123, o.get("c")); assertEquals(-7, o.get("d"));
+        assertEquals(1.5, o.getDouble("e"), 0); assertEquals(0.25, o.getDouble("f"), 0);
+        assertEquals(1000.0, o.getDouble("g"), 0); assertEquals(-0.025, o.getDouble("h"), 1e-12);
+        assertEquals(3000000000L, o.get("i")); assertEquals(100.0, o.getDouble("j"), 0);
+    }
+
+    @Test
+    public void rejectsMalformedNumbers(){
+        for(String n: new String[]{"0123","-012","1.","-","-.5",".5","1e","1e+","1.e3","01.5","1-2","1+2","1.2.3","1e5e5","+1"})
+            rejects("{\"n\":"+n+"}");
+        rejects("{\"a\":[1,0123]}");
+    }
+
+    @Test
+    public void rejectsDuplicateKeys(){
+        rejects("{\"a\":1,\"a\":2}");
+        rejects("{\"outer\":{\"k\":\"x\",\"k\":null}}");
+        JSONObject o=parse("{\"a\":{\"k\":1},\"b\":{\"k\":2}}"); // 不同对象中的同名键互不影响
+        assertEquals(1, o.getJSONObject("a").get("k")); assertEquals(2, o.getJSONObject("b").get("k"));
+    }
+
+    @Test
+    public void stringsAndStructure(){
+        JSONObject o=parse(" {\"s\":\"a\\\"b\\\\c\\u4e2d\\n\",\"u\":\"课程\",\"t\":true,\"f\":false,\"z\":null,\"arr\":[1,\"x\",[]]} ");
+        assertEquals("a\"b\\c中\n", o.getString("s")); assertEquals("课程", o.getString("u"));
+        assertTrue(o.getBoolean("t")); assertTrue(o.isNull("z")); assertEquals(3, o.getJSONArray("arr").length());
+        assertNull(parse("   "));
+        rejects("{\"a\":1} x");
+        rejects("{\"a\":1,}");
+        rejects("{\"a\":\"tab\there\"}");
+        rejects("[1]");
+    }
+}
@@ -0,0 +1,98 @@
+package lw.web.restful;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+// GCRA 限流：突发与补充、建议等待时间、规则匹配与默认规则、客户端隔离、并发下不超发、空闲客户端清扫
+// 时间全部由调用方传入（以 System.nanoTime() 为起点，清扫时刻在构造时按它计算），结果与运行快慢无关
+public class RateLimiterTest {
+    private static final long S=TimeUnit.SECONDS.toNanos(1);
+
+    @Test
+    public void burstThenSteadyRate(){
+        RateLimiter l=new RateLimiter("enroll=1/3"); long t0=System.nanoTime();
+        for(int i=0;i<3;i++) assertEquals("突发内第 "+(i+1)+" 次", 0, l.acquire("u1","enroll",t0));
+        assertEquals("突发用尽后应等一个间隔", S, l.acquire("u1","enroll",t0));
+        assertEquals(S/2, l.acquire("u1","enroll",t0+S/2));
+        assertEquals(0, l.acquire("u1","enroll",t0+S));
+        assertTrue(l.acquire("u1","enroll",t0+S)>0);
+        // 长时间空闲后最多恢复到突发数，不会积攒更多
+        long later=t0+100*S;
+        for(int i=0;i<3;i++) assertEquals(0, l.acquire("u1","enroll",later));
+        assertTrue(l.acquire("u1","enroll",later)>0);
+    }
+
+    @Test
+    public void rejectedRequestsDoNotConsume(){
+        RateLimiter l=new RateLimiter("a=2/1"); long t0=System.nanoTime();
+        assertEquals(0, l.acquire("u","a",t0));
+        for(int i=0;i<10;i++) assertEquals(S/2, l.acquire("u","a",t0)); // 被拒绝不推后 tat
+        assertEquals(0, l.acquire("u","a",t0+S/2));
+    }
+
+    @Test
+    public void fractionalRate(){
+        RateLimiter l=new RateLimiter("slow=0.2/1"); long t0=System.nanoTime();
+        assertEquals(0, l.acquire("u","slow",t0));
+        assertEquals(5*S, l.acquire("u","slow",t0));
+        assertEquals(0, l.acquire("u","slow",t0+5*S));
+    }
+
+    @Test
+    public void rulesClientsAndDefault(){
+        RateLimiter only=new RateLimiter("enroll=1/1"); long t0=System.nanoTime();
+        for(int i=0;i<100;i++) assertEquals("未配置 * 时其他 action 不限流", 0, only.acquire("u","list",t0));
+        for(int i=0;i<100;i++) assertEquals(0, only.acquire("u",null,t0));
+        assertEquals(0, only.size());
+
+        RateLimiter l=new RateLimiter(" enroll=1/1 , *=1/2 ");
+        assertEquals(0, l.acquire("u1","enroll",t0));
+        assertTrue(l.acquire("u1","enroll",t0)>0);
+        assertEquals("另一客户端有自己的桶", 0, l.acquire("u2","enroll",t0));
+        assertEquals("默认规则与 enroll 规则分开计数", 0, l.acquire("u1","list",t0));
+        assertEquals("未配置的 action 共用默认规则的桶", 0, l.acquire("u1","mylist",t0));
+        assertTrue(l.acquire("u1",null,t0)>0);
+        assertEquals(2, l.size());
+    }
+
+    @Test
+    public void rejectsBadSpecs(){
+        for(String spec: new String[]{"enroll", "enroll=5", "=5/10", "enroll=0/10", "enroll=5/0", "enroll=-1/3", "enroll=x/3"}){
+            try { new RateLimiter(spec); fail("应拒绝："+spec); } catch (IllegalArgumentException expected) { /* 含 NumberFormatException */ }
+        }
+    }
+
+    @Test
+    public void concurrentCallersNeverExceedBurst() throws InterruptedException {
+        RateLimiter l=new RateLimiter("hot=1/50"); long t0=System.nanoTime();
+        AtomicInteger admitted=new AtomicInteger(); int threads=8; CountDownLatch start=new CountDownLatch(1), done=new CountDownLatch(threads);
+        for(int i=0;i<threads;i++) new Thread(()->{
+            try { start.await(); for(int k=0;k<100;k++) if(l.acquire("u","hot",t0)==0) admitted.incrementAndGet(); }
+            catch (InterruptedException ex) { Thread.currentThread().interrupt(); }
+            finally { done.countDown(); }
+        }).start();
+        start.countDown();
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        assertEquals(50, admitted.get());
+    }
+
+    @Test
+    public void idleClientsAreSwept(){
+        RateLimiter l=new RateLimiter("*=10/10, slow=0.001/1"); long t0=System.nanoTime(), m=TimeUnit.MINUTES.toNanos(1);
+        l.acquire("idle","x",t0);
+        l.acquire("drained","slow",t0); // 桶要 1000 秒才补满
+        l.acquire("recent","x",t0+m); // 此时的清扫中 idle 只空闲了 1 分钟，保留
+        assertEquals(3, l.size());
+        l.acquire("recent","x",t0+m*5/2); // 下一次清扫：idle 空闲超过 2 分钟且已补满，移除；drained 空闲但未补满，保留
+        assertEquals(2, l.size());
+        l.acquire("recent","x",t0+m*20); // drained 已补满，移除
+        assertEquals(1, l.size());
+    }
+}